@@ -0,0 +1,68 @@
+package com.zfdang.dimensioncam.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class AnnotationDaoTest {
+    private AppDatabase db;
+    private PhotoDao photoDao;
+    private AnnotationDao annotationDao;
+    private long photoId;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).allowMainThreadQueries().build();
+        photoDao = db.photoDao();
+        annotationDao = db.annotationDao();
+        photoId = photoDao.insert(new Photo("file:///photo.jpg", 0));
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private Annotation annotation(int order) {
+        return new Annotation(photoId, 0.1f, 0.1f, 0.5f, 0.5f, 10f, 0xFFFF0000, 3f, order, Annotation.UNIT_CM);
+    }
+
+    @Test
+    public void readsRowsOnlyAtTheCurrentVersion() {
+        annotationDao.insertAll(Arrays.asList(annotation(1), annotation(0)));
+        photoDao.bumpAnnotationVersion(photoId);
+
+        List<Annotation> rows = annotationDao.getAnnotationsAtVersion(photoId, 1);
+        assertEquals(2, rows.size());
+        assertEquals(0, rows.get(0).order);
+        assertEquals(1, rows.get(1).order);
+
+        // A key built from an older row finds nothing to draw
+        assertTrue(annotationDao.getAnnotationsAtVersion(photoId, 0).isEmpty());
+
+        annotationDao.insert(annotation(2));
+        photoDao.bumpAnnotationVersion(photoId);
+        assertTrue(annotationDao.getAnnotationsAtVersion(photoId, 1).isEmpty());
+        assertEquals(3, annotationDao.getAnnotationsAtVersion(photoId, 2).size());
+    }
+
+    @Test
+    public void unknownPhotoHasNoRows() {
+        assertTrue(annotationDao.getAnnotationsAtVersion(photoId + 1, 0).isEmpty());
+    }
+}
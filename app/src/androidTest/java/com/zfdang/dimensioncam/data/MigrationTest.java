@@ -0,0 +1,144 @@
+package com.zfdang.dimensioncam.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+/**
+ * Runs each migration against a database created from the exported schema of its start version, and
+ * checks both the resulting schema and that existing rows come through.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+    private static final String TEST_DB = "migration-test";
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(),
+            AppDatabase.class);
+
+    private static void insertPhoto(SupportSQLiteDatabase db, long id, String path) {
+        db.execSQL("INSERT INTO photos (id, originalPath, createdAt) VALUES (?, ?, ?)",
+                new Object[] { id, path, 1000 + id });
+    }
+
+    private static void insertAnnotation(SupportSQLiteDatabase db, long photoId, int order) {
+        db.execSQL("INSERT INTO annotations (photoId, startX, startY, endX, endY, measuredValue, color, width, "
+                + "`order`, unit) VALUES (?, 0.1, 0.2, 0.5, 0.6, 42, -65536, 3, ?, 1)",
+                new Object[] { photoId, order });
+    }
+
+    private static long queryLong(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+
+    private static String queryString(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        }
+    }
+
+    @Test
+    public void migrate2To3AddsJournal() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 2);
+        insertPhoto(db, 1, "file:///a.jpg");
+        insertAnnotation(db, 1, 0);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 3, true, Migrations.MIGRATION_2_3);
+        assertEquals("file:///a.jpg", queryString(db, "SELECT originalPath FROM photos WHERE id = 1"));
+        assertEquals(1, queryLong(db, "SELECT COUNT(*) FROM annotations"));
+        db.execSQL("INSERT INTO edit_journal (photoId, kind, beforeJson, afterJson, undone, createdAt) "
+                + "VALUES (1, 0, NULL, '[]', 0, 5)");
+        assertEquals(1, queryLong(db, "SELECT COUNT(*) FROM edit_journal WHERE photoId = 1"));
+    }
+
+    @Test
+    public void migrate3To4StartsVersionsAtZero() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 3);
+        insertPhoto(db, 1, "file:///a.jpg");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 4, true, Migrations.MIGRATION_3_4);
+        assertEquals(0, queryLong(db, "SELECT annotationVersion FROM photos WHERE id = 1"));
+        assertEquals(1001, queryLong(db, "SELECT createdAt FROM photos WHERE id = 1"));
+    }
+
+    @Test
+    public void migrate4To5LeavesExifUnknown() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 4);
+        insertPhoto(db, 1, "file:///a.jpg");
+        db.execSQL("UPDATE photos SET annotationVersion = 3 WHERE id = 1");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 5, true, Migrations.MIGRATION_4_5);
+        assertEquals(0, queryLong(db, "SELECT captureTime FROM photos WHERE id = 1"));
+        assertEquals(0, queryLong(db, "SELECT orientation FROM photos WHERE id = 1"));
+        assertEquals(3, queryLong(db, "SELECT annotationVersion FROM photos WHERE id = 1"));
+    }
+
+    @Test
+    public void migrate5To6LeavesSizesUnknown() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 5);
+        insertPhoto(db, 1, "file:///a.jpg");
+        db.execSQL("UPDATE photos SET orientation = 6 WHERE id = 1");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 6, true, Migrations.MIGRATION_5_6);
+        assertEquals(0, queryLong(db, "SELECT width FROM photos WHERE id = 1"));
+        assertEquals(0, queryLong(db, "SELECT height FROM photos WHERE id = 1"));
+        assertEquals(0, queryLong(db, "SELECT fileSize FROM photos WHERE id = 1"));
+        assertEquals(6, queryLong(db, "SELECT orientation FROM photos WHERE id = 1"));
+    }
+
+    @Test
+    public void migrate6To7BackfillsAnnotationCounts() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 6);
+        insertPhoto(db, 1, "file:///a.jpg");
+        insertPhoto(db, 2, "file:///b.jpg");
+        insertPhoto(db, 3, "file:///c.jpg");
+        for (int i = 0; i < 3; i++) {
+            insertAnnotation(db, 1, i);
+        }
+        insertAnnotation(db, 3, 0);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 7, true, Migrations.MIGRATION_6_7);
+        assertEquals(3, queryLong(db, "SELECT annotationCount FROM photos WHERE id = 1"));
+        assertEquals(0, queryLong(db, "SELECT annotationCount FROM photos WHERE id = 2"));
+        assertEquals(1, queryLong(db, "SELECT annotationCount FROM photos WHERE id = 3"));
+    }
+
+    // An install still on the oldest migrated version walks every step and keeps its data
+    @Test
+    public void migrate2To7KeepsPhotosAndAnnotations() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 2);
+        insertPhoto(db, 1, "file:///a.jpg");
+        insertPhoto(db, 2, "file:///b.jpg");
+        insertAnnotation(db, 1, 0);
+        insertAnnotation(db, 1, 1);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 7, true, Migrations.ALL);
+        assertEquals(2, queryLong(db, "SELECT COUNT(*) FROM photos"));
+        assertEquals("file:///b.jpg", queryString(db, "SELECT originalPath FROM photos WHERE id = 2"));
+        assertEquals(2, queryLong(db, "SELECT annotationCount FROM photos WHERE id = 1"));
+        assertEquals(42, queryLong(db, "SELECT measuredValue FROM annotations WHERE `order` = 1"));
+        assertEquals(0, queryLong(db, "SELECT COUNT(*) FROM edit_journal"));
+    }
+}
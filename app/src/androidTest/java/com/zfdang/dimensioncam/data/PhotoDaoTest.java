@@ -0,0 +1,68 @@
+package com.zfdang.dimensioncam.data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class PhotoDaoTest {
+    private AppDatabase db;
+    private PhotoDao photoDao;
+    private AnnotationDao annotationDao;
+    private long photoId;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).allowMainThreadQueries().build();
+        photoDao = db.photoDao();
+        annotationDao = db.annotationDao();
+        photoId = photoDao.insert(new Photo("file:///photo.jpg", 0));
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private Annotation annotation(int order) {
+        return new Annotation(photoId, 0.1f, 0.1f, 0.5f, 0.5f, 10f, 0xFFFF0000, 3f, order, Annotation.UNIT_CM);
+    }
+
+    @Test
+    public void bumpRecountsAnnotations() {
+        annotationDao.insertAll(Arrays.asList(annotation(0), annotation(1), annotation(2)));
+        photoDao.bumpAnnotationVersion(photoId);
+        Photo photo = photoDao.getPhotoById(photoId);
+        assertEquals(3, photo.annotationCount);
+        assertEquals(1, photo.annotationVersion);
+
+        annotationDao.deleteAllForPhoto(photoId);
+        photoDao.bumpAnnotationVersion(photoId);
+        photo = photoDao.getPhotoById(photoId);
+        assertEquals(0, photo.annotationCount);
+        assertEquals(2, photo.annotationVersion);
+    }
+
+    @Test
+    public void bumpOnlyTouchesItsPhoto() {
+        long otherId = photoDao.insert(new Photo("file:///other.jpg", 1));
+        annotationDao.insert(annotation(0));
+        photoDao.bumpAnnotationVersion(photoId);
+
+        Photo other = photoDao.getPhotoById(otherId);
+        assertEquals(0, other.annotationCount);
+        assertEquals(0, other.annotationVersion);
+    }
+}
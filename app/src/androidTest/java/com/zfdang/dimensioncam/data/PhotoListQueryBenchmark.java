@@ -0,0 +1,183 @@
+package com.zfdang.dimensioncam.data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Query time and heap of the photo list on 5,000 photos with 20 annotations each: pages of photo
+ * rows carrying annotationCount and annotationVersion, against the photo rows plus every annotation
+ * of the page as the former @Relation query loaded them. Results are logged under the
+ * "PhotoListQueryBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhotoListQueryBenchmark {
+    private static final String TAG = "PhotoListQueryBenchmark";
+    private static final int PHOTOS = 5000;
+    private static final int ANNOTATIONS_PER_PHOTO = 20;
+    // Rows per load, as PhotosViewModel pages the list
+    private static final int PAGE_SIZE = 20;
+
+    private AppDatabase db;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).allowMainThreadQueries().build();
+        db.runInTransaction(() -> {
+            List<Photo> photos = new ArrayList<>(PHOTOS);
+            for (int i = 0; i < PHOTOS; i++) {
+                photos.add(new Photo("file:///photo-" + i + ".jpg", i));
+            }
+            List<Long> ids = db.photoDao().insertAll(photos);
+            List<Annotation> annotations = new ArrayList<>(ANNOTATIONS_PER_PHOTO);
+            for (long id : ids) {
+                annotations.clear();
+                for (int j = 0; j < ANNOTATIONS_PER_PHOTO; j++) {
+                    annotations.add(new Annotation(id, 0.1f, 0.05f * j, 0.9f, 0.05f * j, 10 + j, 0xFFFF0000, 3f, j,
+                            Annotation.UNIT_CM));
+                }
+                db.annotationDao().insertAll(annotations);
+                db.photoDao().bumpAnnotationVersion(id);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private static long heap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // The list's page query
+    private List<Photo> loadPage(int offset) {
+        List<Photo> photos = new ArrayList<>(PAGE_SIZE);
+        try (Cursor cursor = db.query("SELECT * FROM photos ORDER BY createdAt DESC LIMIT ? OFFSET ?",
+                new Object[] { PAGE_SIZE, offset })) {
+            int id = cursor.getColumnIndexOrThrow("id");
+            int path = cursor.getColumnIndexOrThrow("originalPath");
+            int createdAt = cursor.getColumnIndexOrThrow("createdAt");
+            int version = cursor.getColumnIndexOrThrow("annotationVersion");
+            int count = cursor.getColumnIndexOrThrow("annotationCount");
+            int width = cursor.getColumnIndexOrThrow("width");
+            int height = cursor.getColumnIndexOrThrow("height");
+            int orientation = cursor.getColumnIndexOrThrow("orientation");
+            while (cursor.moveToNext()) {
+                Photo photo = new Photo(cursor.getString(path), cursor.getLong(createdAt));
+                photo.id = cursor.getLong(id);
+                photo.annotationVersion = cursor.getLong(version);
+                photo.annotationCount = cursor.getInt(count);
+                photo.width = cursor.getInt(width);
+                photo.height = cursor.getInt(height);
+                photo.orientation = cursor.getInt(orientation);
+                photos.add(photo);
+            }
+        }
+        return photos;
+    }
+
+    // The second query @Relation ran for every page: all annotation rows of the page's photos
+    private List<Annotation> loadRelation(List<Photo> page) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM annotations WHERE photoId IN (");
+        Object[] args = new Object[page.size()];
+        for (int i = 0; i < page.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+            args[i] = page.get(i).id;
+        }
+        sql.append(")");
+        List<Annotation> annotations = new ArrayList<>(page.size() * ANNOTATIONS_PER_PHOTO);
+        try (Cursor cursor = db.query(sql.toString(), args)) {
+            int id = cursor.getColumnIndexOrThrow("id");
+            int photoId = cursor.getColumnIndexOrThrow("photoId");
+            int startX = cursor.getColumnIndexOrThrow("startX");
+            int startY = cursor.getColumnIndexOrThrow("startY");
+            int endX = cursor.getColumnIndexOrThrow("endX");
+            int endY = cursor.getColumnIndexOrThrow("endY");
+            int value = cursor.getColumnIndexOrThrow("measuredValue");
+            int color = cursor.getColumnIndexOrThrow("color");
+            int width = cursor.getColumnIndexOrThrow("width");
+            int order = cursor.getColumnIndexOrThrow("order");
+            int unit = cursor.getColumnIndexOrThrow("unit");
+            while (cursor.moveToNext()) {
+                Annotation annotation = new Annotation(cursor.getLong(photoId), cursor.getFloat(startX),
+                        cursor.getFloat(startY), cursor.getFloat(endX), cursor.getFloat(endY),
+                        cursor.getFloat(value), cursor.getInt(color), cursor.getFloat(width), cursor.getInt(order),
+                        cursor.getInt(unit));
+                annotation.id = cursor.getLong(id);
+                annotations.add(annotation);
+            }
+        }
+        return annotations;
+    }
+
+    @Test
+    public void summaryPagesAgainstPagesWithAnnotations() {
+        // Warm up the statements and the page cache
+        loadRelation(loadPage(0));
+
+        List<Object> kept = new ArrayList<>();
+        long before = heap();
+        long start = SystemClock.elapsedRealtimeNanos();
+        int rows = 0;
+        for (int offset = 0; offset < PHOTOS; offset += PAGE_SIZE) {
+            List<Photo> page = loadPage(offset);
+            rows += page.size();
+            kept.add(page);
+        }
+        long summaryTime = SystemClock.elapsedRealtimeNanos() - start;
+        long summaryHeap = heap() - before;
+        assertEquals(PHOTOS, rows);
+        kept.clear();
+
+        before = heap();
+        start = SystemClock.elapsedRealtimeNanos();
+        int annotations = 0;
+        for (int offset = 0; offset < PHOTOS; offset += PAGE_SIZE) {
+            List<Photo> page = loadPage(offset);
+            List<Annotation> relation = loadRelation(page);
+            annotations += relation.size();
+            kept.add(page);
+            kept.add(relation);
+        }
+        long relationTime = SystemClock.elapsedRealtimeNanos() - start;
+        long relationHeap = heap() - before;
+        assertEquals(PHOTOS * ANNOTATIONS_PER_PHOTO, annotations);
+        kept.clear();
+
+        // What a thumbnail that has to be drawn fetches on its own, off the list query
+        List<Photo> page = loadPage(0);
+        start = SystemClock.elapsedRealtimeNanos();
+        for (Photo photo : page) {
+            db.annotationDao().getAnnotationsAtVersion(photo.id, photo.annotationVersion);
+        }
+        long lazyTime = SystemClock.elapsedRealtimeNanos() - start;
+
+        int pages = (PHOTOS + PAGE_SIZE - 1) / PAGE_SIZE;
+        Log.i(TAG, String.format(Locale.US, "%d photos x %d annotations, %d pages: summary %.2f ms/page and %d KB "
+                        + "for all pages, with annotations %.2f ms/page and %d KB; lazy fetch %.3f ms per drawn "
+                        + "thumbnail", PHOTOS, ANNOTATIONS_PER_PHOTO, pages, summaryTime / 1e6 / pages,
+                summaryHeap / 1024, relationTime / 1e6 / pages, relationHeap / 1024,
+                lazyTime / 1e6 / page.size()));
+    }
+}
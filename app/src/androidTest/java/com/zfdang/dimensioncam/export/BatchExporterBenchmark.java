@@ -0,0 +1,122 @@
+package com.zfdang.dimensioncam.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.annotation.AnnotationRenderer;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Photos per second of a batch export through the pipeline, against exporting the same photos one
+ * after another. Results are logged under the "BatchExporterBenchmark" tag. The exported images go
+ * to the gallery and are deleted again afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchExporterBenchmark {
+    private static final String TAG = "BatchExporterBenchmark";
+    private static final int PHOTOS = 12;
+    // Far above any real row id, so the exported file names are easy to find again
+    private static final long FIRST_ID = 900_000;
+
+    private Context context;
+    private RenderStyle style;
+    private final List<File> sources = new ArrayList<>();
+    private final List<Photo> photos = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        // Writes to MediaStore without storage permission need scoped storage
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q);
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        style = AnnotationRenderer.getInstance().getStyle(context, SettingsManager.STYLE_T_ARROW_T);
+        Bitmap bitmap = Bitmap.createBitmap(3000, 2000, Bitmap.Config.ARGB_8888);
+        for (int i = 0; i < PHOTOS; i++) {
+            bitmap.eraseColor(Color.rgb(i * 20, 100, 200 - i * 10));
+            File file = new File(context.getCacheDir(), "batch-source-" + i + ".jpg");
+            try (OutputStream os = new FileOutputStream(file)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+            }
+            sources.add(file);
+            Photo photo = new Photo(Uri.fromFile(file).toString(), i);
+            photo.id = FIRST_ID + i;
+            photos.add(photo);
+        }
+        bitmap.recycle();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : sources) {
+            file.delete();
+        }
+        for (Photo photo : photos) {
+            context.getContentResolver().delete(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    MediaStore.Images.Media.DISPLAY_NAME + " LIKE ?",
+                    new String[] { "DimensionCam_%_" + photo.id + ".jpg" });
+        }
+    }
+
+    // Starts the batch on the main thread, as ExportScheduler.startBatch does, and waits for it
+    private long runBatch(int parallelism) throws InterruptedException {
+        BatchExporter batch = new BatchExporter(context, ExportScheduler.getInstance(context), photos, style, 1f,
+                parallelism);
+        long start = SystemClock.elapsedRealtime();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(batch::start);
+        while (true) {
+            Integer state = batch.getState().getValue();
+            if (state != null && state != ExportJob.STATE_QUEUED && state != ExportJob.STATE_RUNNING)
+                break;
+            Thread.sleep(10);
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertEquals(PHOTOS, batch.getSucceededCount());
+        return elapsed;
+    }
+
+    @Test
+    public void pipelineAgainstOneAfterAnother() throws Exception {
+        PhotoExporter exporter = new PhotoExporter(context, ExportScheduler.slotMemoryBudget(),
+                PhotoExporter.DEFAULT_STRIP_HEIGHT);
+        long start = SystemClock.elapsedRealtime();
+        for (Photo photo : photos) {
+            exporter.export(photo, Collections.emptyList(), style, 1f);
+        }
+        long serial = SystemClock.elapsedRealtime() - start;
+
+        long oneDecoder = runBatch(1);
+        long pipelined = runBatch(BatchExporter.defaultParallelism());
+
+        Log.i(TAG, String.format(Locale.US, "%d photos: one after another %.2f photos/s, pipeline with one "
+                        + "decoder %.2f photos/s, with %d decoders %.2f photos/s", PHOTOS,
+                PHOTOS * 1000f / serial, PHOTOS * 1000f / oneDecoder, BatchExporter.defaultParallelism(),
+                PHOTOS * 1000f / pipelined));
+    }
+}
@@ -0,0 +1,162 @@
+package com.zfdang.dimensioncam.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.exifinterface.media.ExifInterface;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.Photo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Peak native allocation while decoding a 12 MP photo for export. Bitmap pixels live on the native
+ * heap from Android 8, so the heap high-water mark during decode is what the export holds at once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhotoExporterInstrumentedTest {
+    private static final String TAG = "PhotoExporterTest";
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+    private static final int STRIP = PhotoExporter.DEFAULT_STRIP_HEIGHT;
+    // Decoder state and allocator slack on top of the bitmaps themselves
+    private static final long SLACK = 8L * 1024 * 1024;
+
+    private Context context;
+    private File source;
+
+    // Samples the native heap on its own thread, so allocations between strips are seen too
+    private static final class PeakSampler extends Thread {
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        @Override
+        public void run() {
+            while (running) {
+                peak = Math.max(peak, Debug.getNativeHeapAllocatedSize());
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void finish() throws InterruptedException {
+            peak = Math.max(peak, Debug.getNativeHeapAllocatedSize());
+            running = false;
+            join();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O);
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        source = new File(context.getCacheDir(), "export-source.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.GRAY);
+        try (OutputStream os = new FileOutputStream(source)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+        }
+        bitmap.recycle();
+    }
+
+    @After
+    public void tearDown() {
+        if (source != null)
+            source.delete();
+    }
+
+    private Photo photo(int orientation) {
+        Photo photo = new Photo(Uri.fromFile(source).toString(), 0);
+        photo.orientation = orientation;
+        return photo;
+    }
+
+    private static long baseline() {
+        Runtime.getRuntime().gc();
+        return Debug.getNativeHeapAllocatedSize();
+    }
+
+    // Peak native allocation above the starting point while decode runs. The result stays alive
+    // until the sampler stops, so the peak covers everything decode hands back
+    private static long decodePeak(PhotoExporter exporter, Photo photo, PhotoExporter.Decoded[] result)
+            throws IOException, InterruptedException {
+        long before = baseline();
+        PeakSampler sampler = new PeakSampler();
+        sampler.start();
+        try {
+            result[0] = exporter.decode(photo, PhotoExporter.NO_PROGRESS);
+        } finally {
+            sampler.finish();
+        }
+        return sampler.peak - before;
+    }
+
+    @Test
+    public void fullResolutionPeakIsOutputPlusOneStrip() throws Exception {
+        long budget = (long) WIDTH * (HEIGHT + STRIP) * 4;
+        PhotoExporter exporter = new PhotoExporter(context, budget, STRIP);
+        PhotoExporter.Decoded[] decoded = new PhotoExporter.Decoded[1];
+        long peak = decodePeak(exporter, photo(ExifInterface.ORIENTATION_NORMAL), decoded);
+        try {
+            assertEquals(1, decoded[0].sampleSize);
+            assertEquals(WIDTH, decoded[0].bitmap.getWidth());
+            assertEquals(HEIGHT, decoded[0].bitmap.getHeight());
+        } finally {
+            decoded[0].bitmap.recycle();
+        }
+
+        // The old path decoded the whole image and then made a mutable copy of it
+        long before = baseline();
+        Bitmap whole = BitmapFactory.decodeFile(source.getPath());
+        Bitmap copy = whole.copy(Bitmap.Config.ARGB_8888, true);
+        long wholePeak = Debug.getNativeHeapAllocatedSize() - before;
+        whole.recycle();
+        copy.recycle();
+
+        Log.i(TAG, "12 MP export decode: strips " + peak / 1024 + " KB peak, whole image and copy "
+                + wholePeak / 1024 + " KB");
+        assertTrue("peak " + peak + " over budget " + budget, peak <= budget + SLACK);
+    }
+
+    // Turning the image upright needs a second bitmap, so a rotated photo decodes with half the
+    // budget and comes out at half the size
+    @Test
+    public void rotatedPhotoKeepsBothBitmapsInBudget() throws Exception {
+        long budget = (long) WIDTH * (HEIGHT + STRIP) * 4;
+        PhotoExporter exporter = new PhotoExporter(context, budget, STRIP);
+        PhotoExporter.Decoded[] decoded = new PhotoExporter.Decoded[1];
+        long peak = decodePeak(exporter, photo(ExifInterface.ORIENTATION_ROTATE_90), decoded);
+        try {
+            assertEquals(2, decoded[0].sampleSize);
+            assertEquals(HEIGHT / 2, decoded[0].bitmap.getWidth());
+            assertEquals(WIDTH / 2, decoded[0].bitmap.getHeight());
+        } finally {
+            decoded[0].bitmap.recycle();
+        }
+        Log.i(TAG, "12 MP rotated export decode: " + peak / 1024 + " KB peak");
+        assertTrue("peak " + peak + " over budget " + budget, peak <= budget + SLACK);
+    }
+}
@@ -0,0 +1,198 @@
+package com.zfdang.dimensioncam.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Observer;
+import androidx.room.InvalidationTracker;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Importing 200 images as one bulk job against 200 single-image imports, each with its own insert
+ * as picking one image at a time did. Logs wall time, throughput and how often the photos table was
+ * invalidated, which is how often the list reloads. Runs against the app's own database; every
+ * photo row and stored file it creates is deleted again. Results are logged under the
+ * "BulkImportBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkImportBenchmark {
+    private static final String TAG = "BulkImportBenchmark";
+    private static final int IMAGES = 200;
+    private static final int WIDTH = 1600;
+    private static final int HEIGHT = 1200;
+    private static final long TIMEOUT_MS = 120_000;
+    // Room delivers invalidations on its own executor, after the transaction commits
+    private static final long SETTLE_MS = 1000;
+
+    private Context context;
+    private AppDatabase db;
+    private File storeDir;
+    private final List<File> sources = new ArrayList<>();
+    private long sourceBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = AppDatabase.getDatabase(context);
+        storeDir = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.rgb(120, 160, 90));
+        long seed = System.nanoTime();
+        for (int i = 0; i < IMAGES; i++) {
+            // Content no earlier run has stored, so none of the images is taken as a duplicate
+            for (int x = 0; x < 8; x++) {
+                bitmap.setPixel(x, 0, (int) (seed + i * 8 + x) | 0xff000000);
+            }
+            File source = new File(context.getCacheDir(), "bulk_import_" + i + ".jpg");
+            try (OutputStream os = new FileOutputStream(source)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 95, os);
+            }
+            sources.add(source);
+            sourceBytes += source.length();
+        }
+        bitmap.recycle();
+    }
+
+    @After
+    public void tearDown() {
+        for (File source : sources) {
+            source.delete();
+        }
+    }
+
+    private List<Uri> uris() {
+        List<Uri> uris = new ArrayList<>(sources.size());
+        for (File source : sources) {
+            uris.add(Uri.fromFile(source));
+        }
+        return uris;
+    }
+
+    private Set<String> storedNames() {
+        String[] names = storeDir.list();
+        return names == null ? new HashSet<>() : new HashSet<>(Arrays.asList(names));
+    }
+
+    private static void awaitFinished(List<ImportJob> jobs) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(jobs.size());
+        List<Observer<Integer>> observers = new ArrayList<>(jobs.size());
+        for (ImportJob job : jobs) {
+            boolean[] counted = new boolean[1];
+            observers.add(state -> {
+                if (state != null && state != ImportJob.STATE_RUNNING && !counted[0]) {
+                    counted[0] = true;
+                    latch.countDown();
+                }
+            });
+        }
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            for (int i = 0; i < jobs.size(); i++) {
+                jobs.get(i).getState().observeForever(observers.get(i));
+            }
+        });
+        assertTrue(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            for (int i = 0; i < jobs.size(); i++) {
+                jobs.get(i).getState().removeObserver(observers.get(i));
+            }
+        });
+    }
+
+    // Removes the rows and files an import added, so the next one stores every image again
+    private void deleteImported(Set<String> before) {
+        for (String name : storedNames()) {
+            if (before.contains(name))
+                continue;
+            File file = new File(storeDir, name);
+            for (Photo photo : db.photoDao().getPhotosWithPath(Uri.fromFile(file).toString())) {
+                db.photoDao().delete(photo);
+            }
+            file.delete();
+        }
+    }
+
+    private interface Importer {
+        List<ImportJob> start(PhotoImporter importer, List<Uri> uris);
+    }
+
+    // Logs the run and returns how often the photos table was invalidated
+    private int measure(String label, Importer start) throws InterruptedException {
+        Set<String> before = storedNames();
+        AtomicInteger invalidations = new AtomicInteger();
+        InvalidationTracker.Observer observer = new InvalidationTracker.Observer("photos") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidations.incrementAndGet();
+            }
+        };
+        db.getInvalidationTracker().addObserver(observer);
+        try {
+            long begin = SystemClock.elapsedRealtime();
+            List<ImportJob> jobs = start.start(PhotoImporter.getInstance(context), uris());
+            awaitFinished(jobs);
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - begin);
+            Thread.sleep(SETTLE_MS);
+
+            int imported = 0;
+            for (ImportJob job : jobs) {
+                imported += job.getImportedCount();
+            }
+            assertEquals(IMAGES, imported);
+            Log.i(TAG, String.format(Locale.US, "%s: %d images of %dx%d (%d KB) in %d ms, %.1f ms per image, "
+                            + "%.1f MB/s, photos table invalidated %d times", label, IMAGES, WIDTH, HEIGHT,
+                    sourceBytes / 1024, elapsed, elapsed / (double) IMAGES,
+                    sourceBytes / 1024.0 / 1024.0 * 1000 / elapsed, invalidations.get()));
+            return invalidations.get();
+        } finally {
+            db.getInvalidationTracker().removeObserver(observer);
+            deleteImported(before);
+        }
+    }
+
+    @Test
+    public void bulkImportAgainstOneByOne() throws Exception {
+        measure("One at a time", (importer, uris) -> {
+            List<ImportJob> jobs = new ArrayList<>(uris.size());
+            for (Uri uri : uris) {
+                jobs.add(importer.importPhoto(uri));
+            }
+            return jobs;
+        });
+        Thread.sleep(SETTLE_MS);
+        int invalidations = measure("Bulk", (importer, uris) -> Arrays.asList(importer.importPhotos(uris)));
+        // All rows in one transaction: the list reloads once
+        assertEquals(1, invalidations);
+    }
+}
@@ -0,0 +1,144 @@
+package com.zfdang.dimensioncam.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.SystemClock;
+
+import androidx.lifecycle.Observer;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.data.PhotoDao;
+import com.zfdang.dimensioncam.data.Repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Runs against the app's own database; every photo row it creates is deleted again
+@RunWith(AndroidJUnit4.class)
+public class PhotoImporterTest {
+    private static final long TIMEOUT_MS = 10_000;
+
+    private Context context;
+    private PhotoDao photoDao;
+    private File source;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        photoDao = AppDatabase.getDatabase(context).photoDao();
+        // A picture no earlier run has stored: its content, and so its name, is new
+        Bitmap bitmap = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.rgb((int) (SystemClock.elapsedRealtimeNanos() & 0xff), 80, 160));
+        bitmap.setPixel(0, 0, (int) System.nanoTime());
+        source = new File(context.getCacheDir(), "importer_test.png");
+        try (OutputStream os = new FileOutputStream(source)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, os);
+        }
+        bitmap.recycle();
+    }
+
+    @After
+    public void tearDown() {
+        source.delete();
+    }
+
+    private static void awaitFinished(ImportJob job) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        Observer<Integer> observer = state -> {
+            if (state != null && state != ImportJob.STATE_RUNNING)
+                latch.countDown();
+        };
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> job.getState().observeForever(observer));
+        assertTrue(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> job.getState().removeObserver(observer));
+    }
+
+    private static void waitUntil(Callable<Boolean> condition) throws Exception {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        while (!condition.call()) {
+            assertTrue(SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    // The stored copy of a file: its name is the SHA-256 of the content plus an extension
+    private File storedFileOf(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        File dir = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        File[] matches = dir.listFiles((d, name) -> name.startsWith(hex + "."));
+        assertEquals(1, matches == null ? 0 : matches.length);
+        return matches[0];
+    }
+
+    @Test
+    public void samePictureTwiceSharesOneFileUntilTheLastPhotoIsDeleted() throws Exception {
+        Uri uri = Uri.fromFile(source);
+        ImportJob job = PhotoImporter.getInstance(context).importPhotos(Arrays.asList(uri, uri));
+        awaitFinished(job);
+
+        assertEquals(ImportJob.STATE_SUCCEEDED, (int) job.getState().getValue());
+        assertEquals(2, job.getImportedCount());
+        // Decided when the rows were inserted: the first pick stored the file, the second reused it
+        assertEquals(1, job.getDuplicateCount());
+
+        // No staged copies are left behind
+        File cacheDir = context.getExternalCacheDir();
+        if (cacheDir != null) {
+            String[] staged = cacheDir.list((dir, name) -> name.startsWith("import_") && name.endsWith(".tmp"));
+            assertEquals(0, staged == null ? 0 : staged.length);
+        }
+
+        // Both rows point at the one file named by the content
+        File stored = storedFileOf(source);
+        String path = Uri.fromFile(stored).toString();
+        List<Photo> photos = photoDao.getPhotosWithPath(path);
+        assertEquals(2, photos.size());
+
+        Repository repository = new Repository((Application) context.getApplicationContext());
+        repository.deletePhoto(photos.get(0));
+        waitUntil(() -> photoDao.countPhotosWithPath(path) == 1);
+        assertTrue(stored.exists());
+
+        repository.deletePhoto(photos.get(1));
+        waitUntil(() -> !stored.exists());
+        assertFalse(stored.exists());
+        assertEquals(0, photoDao.countPhotosWithPath(path));
+    }
+}
@@ -0,0 +1,162 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Frame-time harness for AnnotationDrawer on a software canvas. Results are logged under the
+ * "AnnotationDrawerBenchmark" tag; run on a quiet device and compare the numbers, not single runs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnnotationDrawerBenchmark {
+    private static final String TAG = "AnnotationDrawerBenchmark";
+    private static final int FRAMES = 60;
+
+    private Canvas canvas;
+    private RenderStyle style;
+
+    @Before
+    public void setUp() {
+        canvas = new Canvas(Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888));
+        style = new RenderStyle(SettingsManager.STYLE_T_ARROW_T, Locale.US, new String[] { "mm", "cm", "dm", "m" });
+    }
+
+    static List<Annotation> randomAnnotations(int count, long seed) {
+        Random random = new Random(seed);
+        List<Annotation> annotations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float x = random.nextFloat();
+            float y = random.nextFloat();
+            annotations.add(new Annotation(1, x, y, x + (random.nextFloat() - 0.5f) * 0.2f,
+                    y + (random.nextFloat() - 0.5f) * 0.2f, 1 + random.nextInt(999), Color.RED, 3f, i,
+                    Annotation.UNIT_CM));
+        }
+        return annotations;
+    }
+
+    // Pinch zoom around the view center, a little further each frame
+    static void frameRect(RectF rect, int frame) {
+        float scale = 1f + frame * 0.05f;
+        float width = 1080 * scale;
+        float height = 1440 * scale;
+        rect.set(540 - width / 2, 960 - height / 2, 540 + width / 2, 960 + height / 2);
+    }
+
+    private long timeFrames(AnnotationDrawer drawer, List<List<Annotation>> frames) {
+        RectF rect = new RectF();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int f = 0; f < frames.size(); f++) {
+            frameRect(rect, f);
+            drawer.draw(canvas, frames.get(f), rect, style, true, 1f, true, false);
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    // Cached render models against rebuilding labels and geometry on every frame, which is what
+    // happens when each frame brings new Annotation objects
+    @Test
+    public void framesWithCachedRenderModels() {
+        for (int count : new int[] { 10, 100, 1000 }) {
+            List<Annotation> annotations = randomAnnotations(count, count);
+            List<List<Annotation>> sameObjects = new ArrayList<>();
+            List<List<Annotation>> freshCopies = new ArrayList<>();
+            for (int f = 0; f < FRAMES; f++) {
+                sameObjects.add(annotations);
+                List<Annotation> copies = new ArrayList<>(count);
+                for (Annotation a : annotations) {
+                    copies.add(new Annotation(a));
+                }
+                freshCopies.add(copies);
+            }
+
+            // Warm up both paths and the label cache
+            timeFrames(new AnnotationDrawer(), freshCopies.subList(0, 2));
+            long rebuilt = timeFrames(new AnnotationDrawer(), freshCopies);
+            long cached = timeFrames(new AnnotationDrawer(), sameObjects);
+
+            Log.i(TAG, String.format(Locale.US, "%d annotations: rebuilt %.1f fps, cached %.1f fps", count,
+                    FRAMES * 1e9 / rebuilt, FRAMES * 1e9 / cached));
+        }
+    }
+
+    // One Matrix.mapPoints pass over every endpoint, as AnnotationDrawer does per frame, against
+    // mapping each coordinate through the display rect on its own, as it did before
+    @Test
+    public void mapPointsAgainstPerPointMapping() {
+        int frames = 600;
+        for (int count : new int[] { 100, 1000, 10000 }) {
+            Random random = new Random(count);
+            float[] points = new float[count * 4];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = random.nextFloat();
+            }
+            float[] mapped = new float[points.length];
+            RectF rect = new RectF();
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int f = 0; f < frames; f++) {
+                frameRect(rect, f % FRAMES);
+                for (int i = 0; i < points.length; i += 2) {
+                    mapped[i] = rect.left + points[i] * rect.width();
+                    mapped[i + 1] = rect.top + points[i + 1] * rect.height();
+                }
+            }
+            long perPoint = SystemClock.elapsedRealtimeNanos() - start;
+
+            Matrix matrix = new Matrix();
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int f = 0; f < frames; f++) {
+                frameRect(rect, f % FRAMES);
+                matrix.setScale(rect.width(), rect.height());
+                matrix.postTranslate(rect.left, rect.top);
+                matrix.mapPoints(mapped, 0, points, 0, count * 2);
+            }
+            long matrixPass = SystemClock.elapsedRealtimeNanos() - start;
+
+            Log.i(TAG, String.format(Locale.US, "%d annotations: per-point %.1f us/frame, mapPoints %.1f us/frame",
+                    count, perPoint / 1e3 / frames, matrixPass / 1e3 / frames));
+        }
+    }
+
+    // Whole overlay frames while panning and zooming a dense drawing
+    @Test
+    public void overlayFramesDuringZoom() {
+        AnnotationDrawer drawer = new AnnotationDrawer();
+        for (int count : new int[] { 100, 500, 2000 }) {
+            List<Annotation> annotations = randomAnnotations(count, count);
+            List<List<Annotation>> frames = new ArrayList<>();
+            for (int f = 0; f < FRAMES; f++) {
+                frames.add(annotations);
+            }
+            timeFrames(drawer, frames.subList(0, 2));
+            RectF rect = new RectF();
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int f = 0; f < FRAMES; f++) {
+                frameRect(rect, f);
+                drawer.draw(canvas, annotations, rect, style, true, 1f, true, true);
+            }
+            long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+            Log.i(TAG, String.format(Locale.US, "%d annotations: overlay %.2f ms/frame", count,
+                    elapsed / 1e6 / FRAMES));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.photos.AnnotationTransformation;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Allocations and time per list bind and per thumbnail draw with the shared renderer, against a
+ * style and an AnnotationDrawer built for every bind as thumbnails did before. Counts are Java
+ * allocations on the calling thread. Results are logged under the "AnnotationRendererBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AnnotationRendererBenchmark {
+    private static final String TAG = "AnnotationRendererBenchmark";
+    private static final int BINDS = 2000;
+    private static final int DRAWS = 200;
+    private static final int SIZE = 360;
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    private static final class Allocations {
+        double nanos;
+        double count;
+        double bytes;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1f us, %.1f objects and %.0f bytes", nanos / 1e3, count, bytes);
+        }
+    }
+
+    private static Allocations measure(int times, Runnable work) {
+        // Warm up class loading and the renderer's caches
+        for (int i = 0; i < 10; i++) {
+            work.run();
+        }
+        Runtime.getRuntime().gc();
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < times; i++) {
+            work.run();
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        int count = Debug.getThreadAllocCount();
+        int bytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        Allocations perCall = new Allocations();
+        perCall.nanos = elapsed / (double) times;
+        perCall.count = count / (double) times;
+        perCall.bytes = bytes / (double) times;
+        return perCall;
+    }
+
+    private static List<Annotation> annotations() {
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            float y = 0.1f + i * 0.1f;
+            annotations.add(new Annotation(1, 0.1f, y, 0.9f, y, 20f + i, Color.RED, 3f, i, Annotation.UNIT_CM));
+        }
+        return annotations;
+    }
+
+    @Test
+    public void allocationsPerBindAndDraw() {
+        int arrowStyle = SettingsManager.STYLE_T_ARROW_T;
+        Photo photo = new Photo("file:///renderer-benchmark.jpg", 0);
+        photo.id = 1;
+        photo.annotationCount = 8;
+        photo.annotationVersion = 3;
+
+        // What PhotoAdapter.onBindViewHolder builds for an annotated photo
+        Allocations sharedBind = measure(BINDS, () -> {
+            RenderStyle style = AnnotationRenderer.getInstance().getStyle(context, arrowStyle);
+            new AnnotationTransformation(null, photo, photo.annotationVersion, style);
+        });
+        Allocations ownBind = measure(BINDS, () -> {
+            RenderStyle.create(context, arrowStyle);
+            new AnnotationDrawer();
+        });
+
+        List<Annotation> annotations = annotations();
+        RenderStyle style = AnnotationRenderer.getInstance().getStyle(context, arrowStyle);
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        RectF rect = new RectF(0, 0, SIZE, SIZE);
+        Allocations sharedDraw = measure(DRAWS, () -> AnnotationRenderer.getInstance()
+                .draw(canvas, annotations, rect, style, false, 1f, false));
+        Allocations ownDraw = measure(DRAWS, () -> new AnnotationDrawer()
+                .draw(canvas, annotations, rect, style, false, 1f, false, false));
+        bitmap.recycle();
+
+        Log.i(TAG, "Bind with the shared renderer: " + sharedBind);
+        Log.i(TAG, "Bind building its own style and drawer: " + ownBind);
+        Log.i(TAG, "Draw through the shared renderer: " + sharedDraw);
+        Log.i(TAG, "Draw with a new drawer: " + ownDraw);
+    }
+}
@@ -0,0 +1,142 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RectF;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+import com.zfdang.dimensioncam.utils.Constants;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class AnnotationRendererTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 25;
+
+    private final RenderStyle style = new RenderStyle(SettingsManager.STYLE_ARROW_ARROW, Locale.US,
+            new String[] { "mm", "cm", "dm", "m" });
+
+    // One horizontal line across the middle of the photo
+    private static List<Annotation> oneLine() {
+        return Collections.singletonList(new Annotation(1, 0.1f, 0.5f, 0.9f, 0.5f, 123f, Color.RED, 3f, 0,
+                Annotation.UNIT_CM));
+    }
+
+    // The label sits just above the middle of the line; arrows and control points stay at its ends
+    private static boolean hasLabel(Bitmap bitmap, RectF rect) {
+        float midY = rect.centerY();
+        for (int y = (int) (midY - 40); y < (int) (midY - 4); y++) {
+            for (int x = (int) (rect.left + rect.width() * 0.35f); x < (int) (rect.left + rect.width() * 0.65f); x++) {
+                if (Color.alpha(bitmap.getPixel(x, y)) != 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean drawsLabel(RectF rect) {
+        Bitmap bitmap = Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888);
+        AnnotationRenderer.getInstance().drawOverlay(new Canvas(bitmap), oneLine(), rect, style);
+        boolean label = hasLabel(bitmap, rect);
+        bitmap.recycle();
+        return label;
+    }
+
+    @Test
+    public void overlayScaleFollowsTheWidthOnScreen() {
+        assertEquals(1f, AnnotationRenderer.overlayScaleFactor(Constants.STANDARD_SCREEN_WIDTH), 0f);
+        // Zoomed in: labels keep their size
+        assertEquals(1f, AnnotationRenderer.overlayScaleFactor(Constants.STANDARD_SCREEN_WIDTH * 6), 0f);
+        assertEquals(0.25f, AnnotationRenderer.overlayScaleFactor(Constants.STANDARD_SCREEN_WIDTH / 4), 1e-6f);
+    }
+
+    // A photo fitted into a narrow strip of the view, like a tall panorama, shows its labels too
+    // small to read, so they are left out; zooming in brings them back
+    @Test
+    public void labelsAreDroppedWhenThePhotoIsShownSmall() {
+        assertTrue(drawsLabel(new RectF(0, 660, 1080, 1260)));
+        assertTrue(drawsLabel(new RectF(440, 860, 840, 1060)));
+        assertFalse(drawsLabel(new RectF(440, 860, 640, 1060)));
+    }
+
+    // A dozen lines of different colors, widths and lengths, so every Paint is set differently
+    private static List<Annotation> severalLines() {
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            float y = 0.06f + i * 0.075f;
+            annotations.add(new Annotation(1, 0.05f + i * 0.02f, y, 0.95f - i * 0.03f, y + 0.04f, 10f + i * 7.5f,
+                    Color.HSVToColor(new float[] { i * 30f, 1f, 1f }), 2f + i, i, i % 4));
+        }
+        return annotations;
+    }
+
+    // What thread n draws: its own arrow style, scale and decorations
+    private static void render(Bitmap bitmap, List<Annotation> annotations, int n) {
+        RenderStyle style = new RenderStyle(n % 3, Locale.US, new String[] { "mm", "cm", "dm", "m" });
+        bitmap.eraseColor(Color.TRANSPARENT);
+        RectF rect = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        AnnotationRenderer.getInstance().draw(new Canvas(bitmap), annotations, rect, style, n % 2 == 1,
+                0.5f + n * 0.25f, n % 2 == 0);
+    }
+
+    // Each thread keeps drawing with settings unlike the others'. Paint state leaking between
+    // threads shows up as pixels differing from the same drawing done alone
+    @Test
+    public void concurrentRendersMatchSerialOnes() throws Exception {
+        List<Annotation> annotations = severalLines();
+        Bitmap[] expected = new Bitmap[THREADS];
+        for (int n = 0; n < THREADS; n++) {
+            expected[n] = Bitmap.createBitmap(540, 540, Bitmap.Config.ARGB_8888);
+            render(expected[n], annotations, n);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Future<Integer>> mismatches = new ArrayList<>();
+        for (int n = 0; n < THREADS; n++) {
+            final int thread = n;
+            mismatches.add(executor.submit(() -> {
+                Bitmap bitmap = Bitmap.createBitmap(540, 540, Bitmap.Config.ARGB_8888);
+                start.await();
+                int mismatched = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    render(bitmap, annotations, thread);
+                    if (!bitmap.sameAs(expected[thread]))
+                        mismatched++;
+                }
+                bitmap.recycle();
+                return mismatched;
+            }));
+        }
+        try {
+            for (int n = 0; n < THREADS; n++) {
+                assertEquals("thread " + n, 0, (int) mismatches.get(n).get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+            for (Bitmap bitmap : expected) {
+                bitmap.recycle();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.zfdang.dimensioncam.data.Annotation;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+public class AnnotationSpatialIndexTest {
+    private static final String TAG = "AnnotationSpatialIndex";
+    private static final float THRESHOLD = 60f;
+
+    private final RectF rect = new RectF(0, 0, 1080, 1440);
+
+    private static Annotation line(float startX, float startY, float endX, float endY, int order) {
+        return new Annotation(1, startX, startY, endX, endY, 10f, Color.RED, 3f, order, Annotation.UNIT_CM);
+    }
+
+    // Closest line over every annotation, later ones winning ties, as the index should answer
+    private Annotation bruteForceSegment(List<Annotation> annotations, float x, float y) {
+        Annotation best = null;
+        float bestDist = THRESHOLD;
+        for (Annotation a : annotations) {
+            float x1 = rect.left + a.startX * rect.width();
+            float y1 = rect.top + a.startY * rect.height();
+            float x2 = rect.left + a.endX * rect.width();
+            float y2 = rect.top + a.endY * rect.height();
+            float dx = x2 - x1;
+            float dy = y2 - y1;
+            float lengthSquared = dx * dx + dy * dy;
+            float t = lengthSquared == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+            float d = (float) Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+            if (d < bestDist || (best != null && d == bestDist)) {
+                best = a;
+                bestDist = d;
+            }
+        }
+        return best;
+    }
+
+    private void assertMatchesBruteForce(AnnotationSpatialIndex index, List<Annotation> annotations, Random random) {
+        for (int i = 0; i < 500; i++) {
+            float x = random.nextFloat() * rect.width();
+            float y = random.nextFloat() * rect.height();
+            Annotation expected = bruteForceSegment(annotations, x, y);
+            assertEquals(expected != null, index.findSegment(x, y, rect, THRESHOLD));
+            if (expected != null)
+                assertSame(expected, index.hitAnnotation);
+        }
+    }
+
+    @Test
+    public void findsNearestEndpointAndLine() {
+        Annotation a = line(0.1f, 0.1f, 0.5f, 0.1f, 0);
+        Annotation b = line(0.1f, 0.5f, 0.1f, 0.9f, 1);
+        AnnotationSpatialIndex index = new AnnotationSpatialIndex();
+        List<Annotation> annotations = new ArrayList<>();
+        annotations.add(a);
+        annotations.add(b);
+        index.rebuild(annotations);
+
+        assertTrue(index.findEndpoint(0.5f * 1080 + 5, 0.1f * 1440, rect, THRESHOLD));
+        assertSame(a, index.hitAnnotation);
+        assertEquals(AnnotationSpatialIndex.PART_END, index.hitPart);
+
+        assertTrue(index.findSegment(0.1f * 1080 + 10, 0.7f * 1440, rect, THRESHOLD));
+        assertSame(b, index.hitAnnotation);
+        assertEquals(AnnotationSpatialIndex.PART_LINE, index.hitPart);
+
+        assertFalse(index.findSegment(0.8f * 1080, 0.8f * 1440, rect, THRESHOLD));
+        assertNull(index.hitAnnotation);
+    }
+
+    @Test
+    public void removedAndMovedLinesAreFiledCorrectly() {
+        Random random = new Random(7);
+        List<Annotation> annotations = AnnotationDrawerBenchmark.randomAnnotations(400, 7);
+        AnnotationSpatialIndex index = new AnnotationSpatialIndex();
+        index.rebuild(annotations);
+        assertMatchesBruteForce(index, annotations, random);
+
+        // Removals reshuffle the cells; every entry left must still be found
+        for (int i = 0; i < 150; i++) {
+            index.remove(annotations.remove(random.nextInt(annotations.size())));
+        }
+        assertMatchesBruteForce(index, annotations, random);
+
+        for (int i = 0; i < 150; i++) {
+            Annotation a = annotations.get(random.nextInt(annotations.size()));
+            a.startX = random.nextFloat();
+            a.startY = random.nextFloat();
+            a.endX = random.nextFloat();
+            a.endY = random.nextFloat();
+            index.update(a);
+        }
+        assertMatchesBruteForce(index, annotations, random);
+
+        for (Annotation a : new ArrayList<>(annotations)) {
+            index.remove(a);
+        }
+        assertFalse(index.findSegment(540, 720, rect, 2000f));
+    }
+
+    // Drag cost: moving one line re-files it, which used to scan each cell it left
+    @Test
+    public void benchmarkDragUpdates() {
+        for (int count : new int[] { 100, 1000, 10000 }) {
+            List<Annotation> annotations = AnnotationDrawerBenchmark.randomAnnotations(count, count);
+            AnnotationSpatialIndex index = new AnnotationSpatialIndex();
+            index.rebuild(annotations);
+            Annotation dragged = annotations.get(0);
+            int moves = 1000;
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < moves; i++) {
+                dragged.endX = 0.2f + (i % 100) * 0.005f;
+                dragged.endY = 0.3f + (i % 100) * 0.004f;
+                index.update(dragged);
+                index.findEndpoint(dragged.endX * rect.width(), dragged.endY * rect.height(), rect, THRESHOLD);
+            }
+            long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+            Log.i(TAG, String.format(Locale.US, "%d annotations: %.1f us per drag step", count,
+                    elapsed / 1e3 / moves));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.github.chrisbanes.photoview.PhotoView;
+import com.zfdang.dimensioncam.data.Annotation;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+@RunWith(AndroidJUnit4.class)
+public class DrawViewTest {
+    private DrawView view;
+    private Annotation stored;
+    // Last values reported through the listener
+    private Annotation selected;
+    private Annotation modified;
+
+    @Before
+    public void setUp() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+            view = new DrawView(context);
+            view.setPhotoView(new PhotoView(context));
+            view.setDisplayRect(new RectF(0, 0, 1000, 1000));
+            view.setListener(new DrawView.OnAnnotationChangeListener() {
+                @Override
+                public void onAnnotationModified(Annotation annotation) {
+                    modified = new Annotation(annotation);
+                }
+
+                @Override
+                public void onAnnotationSelected(Annotation annotation) {
+                    selected = annotation;
+                }
+            });
+            stored = new Annotation(1, 0.1f, 0.1f, 0.3f, 0.1f, 10f, Color.RED, 3f, 0, Annotation.UNIT_CM);
+            stored.id = 5;
+            view.setAnnotations(Collections.singletonList(stored));
+        });
+    }
+
+    private boolean touch(int action, float x, float y) {
+        boolean[] handled = new boolean[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            long now = SystemClock.uptimeMillis();
+            MotionEvent event = MotionEvent.obtain(now, now, action, x, y, 0);
+            handled[0] = view.onTouchEvent(event);
+            event.recycle();
+        });
+        return handled[0];
+    }
+
+    @Test
+    public void listArrivingMidDragDoesNotUndoTheDrop() {
+        assertTrue(touch(MotionEvent.ACTION_DOWN, 300, 100));
+        assertTrue(touch(MotionEvent.ACTION_MOVE, 600, 500));
+        // Room re-emits the stored state, e.g. after an unrelated write
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> view.setAnnotations(Collections.singletonList(new Annotation(stored))));
+        assertTrue(touch(MotionEvent.ACTION_UP, 600, 500));
+
+        assertNotNull(modified);
+        assertEquals(0.6f, modified.endX, 1e-4f);
+        assertEquals(0.5f, modified.endY, 1e-4f);
+
+        // The line is where it was dropped, not where the drag started
+        selected = null;
+        assertFalse(touch(MotionEvent.ACTION_DOWN, 300, 100));
+        assertTrue(touch(MotionEvent.ACTION_DOWN, 600, 500));
+        assertEquals(0.6f, selected.endX, 1e-4f);
+        assertEquals(5, selected.id);
+    }
+
+    @Test
+    public void cancelledDragKeepsTheListThatArrived() {
+        assertTrue(touch(MotionEvent.ACTION_DOWN, 300, 100));
+        assertTrue(touch(MotionEvent.ACTION_MOVE, 600, 500));
+        Annotation moved = new Annotation(stored);
+        moved.endX = 0.8f;
+        moved.endY = 0.8f;
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> view.setAnnotations(Collections.singletonList(moved)));
+        assertTrue(touch(MotionEvent.ACTION_CANCEL, 600, 500));
+
+        assertTrue(touch(MotionEvent.ACTION_DOWN, 800, 800));
+        assertEquals(0.8f, selected.endX, 1e-4f);
+    }
+}
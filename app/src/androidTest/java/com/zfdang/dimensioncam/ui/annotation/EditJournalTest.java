@@ -0,0 +1,218 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class EditJournalTest {
+    private AppDatabase db;
+    private ExecutorService executor;
+    private EditJournal journal;
+    private long photoId;
+
+    // Filled by restore()
+    private List<AnnotationEdit> restoredUndo;
+    private List<AnnotationEdit> restoredRedo;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).build();
+        executor = Executors.newSingleThreadExecutor();
+        journal = new EditJournal(db, executor);
+        photoId = executor.submit(() -> db.photoDao().insert(new Photo("file:///photo.jpg", 0))).get();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        db.close();
+    }
+
+    // A drag of one line to endX, so restored edits can be told apart by their result
+    private static AnnotationEdit edit(float endX) {
+        Annotation before = new Annotation(1, 0.1f, 0.1f, 0.5f, 0.5f, 10f, 0xFFFF0000, 3f, 0, Annotation.UNIT_CM);
+        before.id = 1;
+        Annotation after = new Annotation(before);
+        after.endX = endX;
+        AnnotationEdit edit = new AnnotationEdit(AnnotationEdit.KIND_MOVE, 0);
+        edit.add(before, after);
+        return edit;
+    }
+
+    private static float resultOf(AnnotationEdit edit) {
+        return edit.after.get(0).endX;
+    }
+
+    // The journal is driven from the main thread, like AnnotationViewModel does
+    private static void onMain(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    private void restore() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        onMain(() -> journal.restore(photoId, (id, undo, redo) -> {
+            restoredUndo = undo;
+            restoredRedo = redo;
+            latch.countDown();
+        }));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void restoresBothStacksInOrder() throws Exception {
+        AnnotationEdit e1 = edit(0.1f);
+        AnnotationEdit e2 = edit(0.2f);
+        AnnotationEdit e3 = edit(0.3f);
+        onMain(() -> {
+            journal.append(photoId, e1);
+            journal.append(photoId, e2);
+            journal.append(photoId, e3);
+            // Undo twice: e3 first, then e2
+            journal.setUndone(e3, true);
+            journal.setUndone(e2, true);
+        });
+        restore();
+
+        assertEquals(1, restoredUndo.size());
+        assertEquals(0.1f, resultOf(restoredUndo.get(0)), 0f);
+        // Stack order: the next edit to redo is last
+        assertEquals(2, restoredRedo.size());
+        assertEquals(0.3f, resultOf(restoredRedo.get(0)), 0f);
+        assertEquals(0.2f, resultOf(restoredRedo.get(1)), 0f);
+
+        AnnotationEdit restored = restoredUndo.get(0);
+        assertNotEquals(0, restored.journalId);
+        assertEquals(AnnotationEdit.RESTORED_TIMESTAMP, restored.timestamp);
+        assertEquals(1, restored.after.get(0).id);
+    }
+
+    @Test
+    public void newEditDropsTheRedoBranch() throws Exception {
+        AnnotationEdit e1 = edit(0.1f);
+        AnnotationEdit e2 = edit(0.2f);
+        AnnotationEdit e3 = edit(0.3f);
+        onMain(() -> {
+            journal.append(photoId, e1);
+            journal.append(photoId, e2);
+            journal.setUndone(e2, true);
+            journal.flush();
+            journal.append(photoId, e3);
+        });
+        restore();
+
+        assertEquals(2, restoredUndo.size());
+        assertEquals(0.1f, resultOf(restoredUndo.get(0)), 0f);
+        assertEquals(0.3f, resultOf(restoredUndo.get(1)), 0f);
+        assertTrue(restoredRedo.isEmpty());
+    }
+
+    @Test
+    public void redoneEditIsRestoredForUndo() throws Exception {
+        AnnotationEdit e1 = edit(0.1f);
+        onMain(() -> {
+            journal.append(photoId, e1);
+            journal.setUndone(e1, true);
+            journal.setUndone(e1, false);
+        });
+        restore();
+
+        assertEquals(1, restoredUndo.size());
+        assertTrue(restoredRedo.isEmpty());
+    }
+
+    @Test
+    public void rewriteKeepsTheLatestResultOfACoalescedDrag() throws Exception {
+        AnnotationEdit e1 = edit(0.1f);
+        onMain(() -> {
+            journal.append(photoId, e1);
+            e1.coalesce(edit(0.4f));
+            journal.rewrite(e1);
+        });
+        restore();
+
+        assertEquals(1, restoredUndo.size());
+        assertEquals(0.4f, resultOf(restoredUndo.get(0)), 0f);
+        assertEquals(0.5f, restoredUndo.get(0).before.get(0).endX, 0f);
+    }
+
+    // Coalescing changes the edit on the main thread while its entry still waits for the flush;
+    // only a rewrite may change what gets stored
+    @Test
+    public void appendStoresTheEditAsItWasThen() throws Exception {
+        AnnotationEdit e1 = edit(0.1f);
+        onMain(() -> {
+            journal.append(photoId, e1);
+            e1.coalesce(edit(0.4f));
+        });
+        restore();
+
+        assertEquals(1, restoredUndo.size());
+        assertEquals(0.1f, resultOf(restoredUndo.get(0)), 0f);
+    }
+
+    @Test
+    public void trimKeepsTheNewestEntries() throws Exception {
+        int total = EditJournal.MAX_ENTRIES_PER_PHOTO + 10;
+        List<AnnotationEdit> edits = new ArrayList<>();
+        for (int i = 0; i < total; i++) {
+            edits.add(edit(i / 1000f));
+        }
+        onMain(() -> {
+            for (AnnotationEdit e : edits) {
+                journal.append(photoId, e);
+            }
+        });
+        restore();
+
+        assertEquals(EditJournal.MAX_ENTRIES_PER_PHOTO, restoredUndo.size());
+        assertEquals(10 / 1000f, resultOf(restoredUndo.get(0)), 0f);
+        assertEquals((total - 1) / 1000f, resultOf(restoredUndo.get(restoredUndo.size() - 1)), 0f);
+    }
+
+    @Test
+    public void journalsOfOtherPhotosAreLeftAlone() throws Exception {
+        long otherPhotoId = executor.submit(() -> db.photoDao().insert(new Photo("file:///other.jpg", 0))).get();
+        AnnotationEdit mine = edit(0.1f);
+        AnnotationEdit other = edit(0.2f);
+        onMain(() -> {
+            journal.append(photoId, mine);
+            journal.append(otherPhotoId, other);
+            journal.setUndone(other, true);
+            journal.flush();
+            // Ends the redo branch of this photo only
+            journal.append(photoId, edit(0.3f));
+        });
+        restore();
+        assertEquals(2, restoredUndo.size());
+
+        photoId = otherPhotoId;
+        restore();
+        assertTrue(restoredUndo.isEmpty());
+        assertEquals(1, restoredRedo.size());
+        assertEquals(0.2f, resultOf(restoredRedo.get(0)), 0f);
+    }
+}
@@ -0,0 +1,167 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.FrameMetrics;
+import android.view.ViewGroup;
+import android.view.Window;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.github.chrisbanes.photoview.PhotoView;
+import com.zfdang.dimensioncam.ui.MainActivity;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame times of DrawView while a photo with 500 annotations is pinch-zoomed, replaying the overlay
+ * recorded when the gesture started against rendering it in full on every frame. Durations come
+ * from FrameMetrics, so the render thread's share is counted too. A frame over one vsync interval
+ * counts as janky. Results are logged under the "GestureLayerBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GestureLayerBenchmark {
+    private static final String TAG = "GestureLayerBenchmark";
+    private static final int ANNOTATIONS = 500;
+    private static final int FRAMES = 180;
+    private static final long VSYNC_NANOS = 16_666_667L;
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+
+    private static final class Frames {
+        final long[] total;
+        final long[] draw;
+        final int janky;
+
+        Frames(List<long[]> metrics) {
+            total = new long[metrics.size()];
+            draw = new long[metrics.size()];
+            int count = 0;
+            for (int i = 0; i < metrics.size(); i++) {
+                total[i] = metrics.get(i)[0];
+                draw[i] = metrics.get(i)[1];
+                if (total[i] > VSYNC_NANOS)
+                    count++;
+            }
+            Arrays.sort(total);
+            Arrays.sort(draw);
+            janky = count;
+        }
+
+        private static double percentileMs(long[] durations, int percentile) {
+            int index = Math.min(durations.length - 1, durations.length * percentile / 100);
+            return durations[index] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d frames, total p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, ui draw "
+                            + "p50 %.2f ms, p90 %.2f ms, %d janky", total.length, percentileMs(total, 50),
+                    percentileMs(total, 90), percentileMs(total, 99), percentileMs(draw, 50),
+                    percentileMs(draw, 90), janky);
+        }
+    }
+
+    // A 4:3 photo fitted to the view width at 1x, zoomed in to 3x and back out around the view center
+    private static RectF pinchRect(DrawView view, int frame) {
+        float zoom = 1f + 2f * (float) Math.sin(Math.PI * frame / FRAMES);
+        float width = view.getWidth() * zoom;
+        float height = view.getWidth() * 0.75f * zoom;
+        float centerX = view.getWidth() / 2f;
+        float centerY = view.getHeight() / 2f;
+        return new RectF(centerX - width / 2, centerY - height / 2, centerX + width / 2, centerY + height / 2);
+    }
+
+    private Frames pinch(Window window, DrawView view, boolean gestureLayer) throws InterruptedException {
+        instrumentation.runOnMainSync(() -> {
+            view.setGestureLayerEnabled(gestureLayer);
+            view.setDisplayRect(pinchRect(view, 0));
+        });
+        // Long enough for any earlier gesture to have settled
+        Thread.sleep(500);
+        instrumentation.waitForIdleSync();
+
+        List<long[]> metrics = new ArrayList<>();
+        HandlerThread thread = new HandlerThread("frame-metrics");
+        thread.start();
+        Window.OnFrameMetricsAvailableListener listener = (w, frameMetrics, dropped) -> {
+            if (frameMetrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) == 1)
+                return;
+            synchronized (metrics) {
+                metrics.add(new long[] { frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION),
+                        frameMetrics.getMetric(FrameMetrics.DRAW_DURATION) });
+            }
+        };
+        CountDownLatch done = new CountDownLatch(1);
+        instrumentation.runOnMainSync(() -> {
+            window.addOnFrameMetricsAvailableListener(listener, new Handler(thread.getLooper()));
+            // A new rect every frame, as PhotoView reports them during a pinch
+            Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                private int frame = 1;
+
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    view.setDisplayRect(pinchRect(view, frame));
+                    if (++frame > FRAMES) {
+                        done.countDown();
+                        return;
+                    }
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
+            });
+        });
+        if (!done.await(FRAMES * 100L + 5000, TimeUnit.MILLISECONDS))
+            throw new AssertionError("The pinch did not finish");
+        instrumentation.waitForIdleSync();
+        // Metrics arrive after the render thread is done with the frame
+        Thread.sleep(200);
+        instrumentation.runOnMainSync(() -> window.removeOnFrameMetricsAvailableListener(listener));
+        thread.quitSafely();
+        synchronized (metrics) {
+            return new Frames(metrics);
+        }
+    }
+
+    @Test
+    public void recordedLayerAgainstFullRenders() throws Exception {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            DrawView[] view = new DrawView[1];
+            Window[] window = new Window[1];
+            scenario.onActivity(activity -> {
+                view[0] = new DrawView(activity);
+                view[0].setPhotoView(new PhotoView(activity));
+                activity.addContentView(view[0], new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                        ViewGroup.LayoutParams.MATCH_PARENT));
+                window[0] = activity.getWindow();
+            });
+            instrumentation.waitForIdleSync();
+            instrumentation.runOnMainSync(() -> view[0].setAnnotations(
+                    AnnotationDrawerBenchmark.randomAnnotations(ANNOTATIONS, ANNOTATIONS)));
+
+            // Warm up the label cache and the overlay code before measuring
+            pinch(window[0], view[0], false);
+            Frames full = pinch(window[0], view[0], false);
+            Frames recorded = pinch(window[0], view[0], true);
+
+            Log.i(TAG, String.format(Locale.US, "%d annotations, full render every frame: %s", ANNOTATIONS, full));
+            Log.i(TAG, String.format(Locale.US, "%d annotations, recorded layer: %s", ANNOTATIONS, recorded));
+            assertTrue(full.total.length > 0 && recorded.total.length > 0);
+        }
+    }
+}
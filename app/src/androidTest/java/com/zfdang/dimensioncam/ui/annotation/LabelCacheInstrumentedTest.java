@@ -0,0 +1,165 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+import com.zfdang.dimensioncam.utils.Constants;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+public class LabelCacheInstrumentedTest {
+    private static final String TAG = "LabelCacheBenchmark";
+
+    private static LabelCache.Label label(int width, int height) {
+        return new LabelCache.Label(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888), height / 2f);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByBytes() {
+        // 100 x 100 labels are 40,000 bytes; ten fit in the budget
+        LabelCache cache = new LabelCache(400_000);
+        for (int i = 0; i < 10; i++) {
+            cache.put(new LabelCache.Key("label " + i, Color.RED, 100), label(100, 100));
+        }
+        assertEquals(400_000, cache.size());
+
+        // Touch the oldest so the second oldest goes first
+        assertNotNull(cache.get(new LabelCache.Key("label 0", Color.RED, 100)));
+        cache.put(new LabelCache.Key("label 10", Color.RED, 100), label(100, 100));
+
+        assertTrue(cache.size() <= 400_000);
+        assertNotNull(cache.get(new LabelCache.Key("label 0", Color.RED, 100)));
+        assertNull(cache.get(new LabelCache.Key("label 1", Color.RED, 100)));
+        assertNotNull(cache.get(new LabelCache.Key("label 10", Color.RED, 100)));
+    }
+
+    @Test
+    public void skipsLabelsLargerThanAnEighthOfTheBudget() {
+        LabelCache cache = new LabelCache(400_000);
+        assertTrue(cache.fits(100, 100));
+        assertFalse(cache.fits(200, 100));
+        cache.put(new LabelCache.Key("wide", Color.RED, 100), label(200, 100));
+        assertNull(cache.get(new LabelCache.Key("wide", Color.RED, 100)));
+        assertEquals(0, cache.size());
+    }
+
+    // Same labels drawn with a shadow layer every frame versus blitted from cached bitmaps
+    @Test
+    public void benchmarkShadowTextAgainstCachedLabels() {
+        int labels = 300;
+        int frames = 30;
+        float textSize = Constants.BASE_TEXT_SIZE;
+        Bitmap target = Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(target);
+        Paint shadowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        shadowPaint.setTextSize(textSize);
+        shadowPaint.setTextAlign(Paint.Align.CENTER);
+        shadowPaint.setShadowLayer(Constants.SHADOW_RADIUS, 0, 0, Color.BLACK);
+        Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        String[] texts = new String[labels];
+        float[] xs = new float[labels];
+        float[] ys = new float[labels];
+        Random random = new Random(1);
+        for (int i = 0; i < labels; i++) {
+            texts[i] = (10 + random.nextInt(990)) + " cm (#" + (i + 1) + ")";
+            xs[i] = random.nextFloat() * 1080;
+            ys[i] = random.nextFloat() * 1920;
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < labels; i++) {
+                canvas.save();
+                canvas.rotate(f, xs[i], ys[i]);
+                canvas.drawText(texts[i], xs[i], ys[i], shadowPaint);
+                canvas.restore();
+            }
+        }
+        long shadowNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        // Rasterized once, as AnnotationDrawer does on a cache miss
+        Bitmap[] bitmaps = new Bitmap[labels];
+        int padding = (int) Math.ceil(Constants.SHADOW_RADIUS) + 1;
+        for (int i = 0; i < labels; i++) {
+            int width = (int) Math.ceil(shadowPaint.measureText(texts[i])) + 2 * padding;
+            int height = (int) Math.ceil(shadowPaint.descent() - shadowPaint.ascent()) + 2 * padding;
+            bitmaps[i] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            new Canvas(bitmaps[i]).drawText(texts[i], width / 2f, padding - shadowPaint.ascent(), shadowPaint);
+        }
+        RectF dst = new RectF();
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < labels; i++) {
+                canvas.save();
+                canvas.rotate(f, xs[i], ys[i]);
+                dst.set(xs[i] - bitmaps[i].getWidth() / 2f, ys[i] - bitmaps[i].getHeight(),
+                        xs[i] + bitmaps[i].getWidth() / 2f, ys[i]);
+                canvas.drawBitmap(bitmaps[i], null, dst, bitmapPaint);
+                canvas.restore();
+            }
+        }
+        long cachedNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(TAG, labels + " labels per frame: shadow text " + shadowNanos / frames / 1000 + " us/frame, cached "
+                + cachedNanos / frames / 1000 + " us/frame");
+    }
+
+    // Export-sized render through the shared renderer: the first pass rasterizes labels, later
+    // passes only blit them
+    @Test
+    public void benchmarkExportRenderWithWarmCache() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AnnotationRenderer renderer = AnnotationRenderer.getInstance();
+        RenderStyle style = renderer.getStyle(context, SettingsManager.STYLE_T_ARROW_T);
+        List<Annotation> annotations = new ArrayList<>();
+        Random random = new Random(2);
+        // Measurements repeat, as on a real drawing, so the distinct labels fit in the cache
+        for (int i = 0; i < 200; i++) {
+            annotations.add(new Annotation(1, random.nextFloat(), random.nextFloat(), random.nextFloat(),
+                    random.nextFloat(), 10 + random.nextInt(10), Color.RED, 3f, i, Annotation.UNIT_CM));
+        }
+        Bitmap target = Bitmap.createBitmap(4000, 3000, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(target);
+        RectF rect = new RectF(0, 0, 4000, 3000);
+        float scaleFactor = 2.5f;
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        renderer.draw(canvas, annotations, rect, style, false, scaleFactor, false);
+        long coldNanos = SystemClock.elapsedRealtimeNanos() - start;
+        int cachedBytes = LabelCache.getInstance().size();
+
+        start = SystemClock.elapsedRealtimeNanos();
+        renderer.draw(canvas, annotations, rect, style, false, scaleFactor, false);
+        long warmNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(TAG, "Export render of 200 annotations at 4000x3000: cold " + coldNanos / 1000 + " us, warm "
+                + warmNanos / 1000 + " us");
+        // A warm render finds every label in the cache
+        assertEquals(cachedBytes, LabelCache.getInstance().size());
+        target.recycle();
+    }
+}
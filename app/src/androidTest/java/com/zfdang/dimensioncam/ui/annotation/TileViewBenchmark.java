@@ -0,0 +1,152 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.ViewGroup;
+
+import androidx.exifinterface.media.ExifInterface;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.MainActivity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Time until TileView is ready on a 48 MP photo at 1x, and until its first fully sharp frame at 6x,
+ * with the native heap held at each point. Results are logged under the "TileViewBenchmark" tag,
+ * next to what a full decode of the photo would hold.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TileViewBenchmark {
+    private static final String TAG = "TileViewBenchmark";
+    private static final int WIDTH = 8000;
+    private static final int HEIGHT = 6000;
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private File source;
+
+    @Before
+    public void setUp() throws IOException {
+        // Bitmap pixels are counted on the native heap from Android 8
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O);
+        Context context = instrumentation.getTargetContext();
+        source = new File(context.getCacheDir(), "tile-source.jpg");
+        // RGB_565 keeps the fixture itself at 96 MB while it is encoded
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int y = 0; y < HEIGHT; y += 250) {
+            for (int x = 0; x < WIDTH; x += 250) {
+                paint.setColor(Color.rgb(x * 255 / WIDTH, y * 255 / HEIGHT, (x + y) % 256));
+                canvas.drawRect(x, y, x + 250, y + 250, paint);
+            }
+        }
+        try (OutputStream os = new FileOutputStream(source)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+        }
+        bitmap.recycle();
+    }
+
+    @After
+    public void tearDown() {
+        if (source != null)
+            source.delete();
+    }
+
+    private static long nativeHeap() {
+        Runtime.getRuntime().gc();
+        return Debug.getNativeHeapAllocatedSize();
+    }
+
+    // The photo centered in the view, zoom times its fit-to-view size
+    private static RectF displayRect(TileView view, float zoom) {
+        float fit = Math.min(view.getWidth() / (float) WIDTH, view.getHeight() / (float) HEIGHT);
+        float width = WIDTH * fit * zoom;
+        float height = HEIGHT * fit * zoom;
+        float left = (view.getWidth() - width) / 2;
+        float top = (view.getHeight() - height) / 2;
+        return new RectF(left, top, left + width, top + height);
+    }
+
+    // Polls view state on the main thread; returns the milliseconds it took
+    private long waitFor(BooleanSupplier condition, long start) throws InterruptedException {
+        boolean[] done = new boolean[1];
+        long deadline = SystemClock.elapsedRealtime() + 30_000;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            instrumentation.runOnMainSync(() -> done[0] = condition.getAsBoolean());
+            if (done[0])
+                return SystemClock.elapsedRealtime() - start;
+            Thread.sleep(5);
+        }
+        throw new AssertionError("Timed out");
+    }
+
+    @Test
+    public void firstFrameAndMemoryAt1xAnd6x() throws Exception {
+        Photo photo = new Photo(Uri.fromFile(source).toString(), 0);
+        photo.width = WIDTH;
+        photo.height = HEIGHT;
+        photo.orientation = ExifInterface.ORIENTATION_NORMAL;
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            TileView[] view = new TileView[1];
+            scenario.onActivity(activity -> {
+                view[0] = new TileView(activity);
+                activity.addContentView(view[0], new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                        ViewGroup.LayoutParams.MATCH_PARENT));
+            });
+            instrumentation.waitForIdleSync();
+            TileView tiles = view[0];
+            try {
+                long before = nativeHeap();
+                long start = SystemClock.elapsedRealtime();
+                instrumentation.runOnMainSync(() -> {
+                    tiles.setImage(photo);
+                    tiles.setDisplayRect(displayRect(tiles, 1f));
+                });
+                long ready = waitFor(tiles::isReady, start);
+                // Let a frame pass; at 1x the preview covers the photo and no tile is decoded
+                instrumentation.waitForIdleSync();
+                long heap1x = nativeHeap() - before;
+
+                start = SystemClock.elapsedRealtime();
+                instrumentation.runOnMainSync(() -> tiles.setDisplayRect(displayRect(tiles, 6f)));
+                long sharp = waitFor(tiles::isSharp, start);
+                long heap6x = nativeHeap() - before;
+
+                long fullDecode = (long) WIDTH * HEIGHT * 4;
+                Log.i(TAG, String.format(Locale.US, "48 MP photo: ready at 1x in %d ms holding %d KB, sharp at "
+                                + "6x in %d ms holding %d KB; a full ARGB decode would hold %d KB", ready,
+                        heap1x / 1024, sharp, heap6x / 1024, fullDecode / 1024));
+                assertTrue("tiles hold " + heap6x + " bytes", heap6x < fullDecode / 4);
+            } finally {
+                instrumentation.runOnMainSync(tiles::release);
+            }
+        }
+    }
+}
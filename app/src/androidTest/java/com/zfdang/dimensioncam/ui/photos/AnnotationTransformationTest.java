@@ -0,0 +1,93 @@
+package com.zfdang.dimensioncam.ui.photos;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import android.content.Context;
+import android.content.res.Configuration;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.annotation.AnnotationRenderer;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.MessageDigest;
+import java.util.Locale;
+
+@RunWith(AndroidJUnit4.class)
+public class AnnotationTransformationTest {
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    private RenderStyle style(Locale locale, int arrowStyle) {
+        Configuration config = new Configuration(context.getResources().getConfiguration());
+        config.setLocale(locale);
+        return AnnotationRenderer.getInstance().getStyle(context.createConfigurationContext(config), arrowStyle);
+    }
+
+    private static Photo photo(long id, String path) {
+        Photo photo = new Photo(path, 0);
+        photo.id = id;
+        return photo;
+    }
+
+    // No DAO: the key is built in the constructor and transform() is never called here
+    private static AnnotationTransformation transformation(Photo photo, long version, RenderStyle style) {
+        return new AnnotationTransformation(null, photo, version, style);
+    }
+
+    private static byte[] diskKey(AnnotationTransformation transformation) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        transformation.updateDiskCacheKey(digest);
+        return digest.digest();
+    }
+
+    @Test
+    public void sameInputsGiveTheSameKey() throws Exception {
+        RenderStyle english = style(Locale.US, SettingsManager.STYLE_T_ARROW_T);
+        AnnotationTransformation a = transformation(photo(7, "file:///a.jpg"), 3, english);
+        // A new Photo object and a separately built style with the same values
+        AnnotationTransformation b = transformation(photo(7, "file:///a.jpg"), 3,
+                style(Locale.US, SettingsManager.STYLE_T_ARROW_T));
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertArrayEquals(diskKey(a), diskKey(b));
+    }
+
+    @Test
+    public void versionBumpChangesTheKey() throws Exception {
+        RenderStyle english = style(Locale.US, SettingsManager.STYLE_T_ARROW_T);
+        Photo photo = photo(7, "file:///a.jpg");
+        AnnotationTransformation before = transformation(photo, 3, english);
+        AnnotationTransformation after = transformation(photo, 4, english);
+
+        assertNotEquals(before, after);
+        assertFalse(MessageDigest.isEqual(diskKey(before), diskKey(after)));
+    }
+
+    @Test
+    public void styleLocaleAndPhotoChangeTheKey() throws Exception {
+        RenderStyle english = style(Locale.US, SettingsManager.STYLE_T_ARROW_T);
+        AnnotationTransformation base = transformation(photo(7, "file:///a.jpg"), 3, english);
+
+        AnnotationTransformation[] others = {
+                transformation(photo(7, "file:///a.jpg"), 3, english.withArrowStyle(SettingsManager.STYLE_T_T)),
+                transformation(photo(7, "file:///a.jpg"), 3, style(Locale.CHINA, SettingsManager.STYLE_T_ARROW_T)),
+                transformation(photo(8, "file:///a.jpg"), 3, english),
+                // A reused row id on another file starts its versions over
+                transformation(photo(7, "file:///b.jpg"), 3, english),
+        };
+        for (AnnotationTransformation other : others) {
+            assertNotEquals(base, other);
+            assertFalse(MessageDigest.isEqual(diskKey(base), diskKey(other)));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.zfdang.dimensioncam.ui.photos;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.view.Choreographer;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills the app database with a photo library and scrolls the real photo list over it, recording
+ * frame intervals through Choreographer. A frame that takes longer than one and a half vsync
+ * intervals counts as janky.
+ */
+final class ListScrollHarness {
+    // Far above the row ids of a real library, and far in the future, so the generated photos sort
+    // first in the list and are easy to delete again
+    private static final long CREATED_AT = 4_000_000_000_000L;
+    private static final long VSYNC_NANOS = 16_666_667L;
+
+    private ListScrollHarness() {
+    }
+
+    static final class Frames {
+        final long[] intervals;
+        final int janky;
+
+        Frames(long[] intervals) {
+            this.intervals = intervals.clone();
+            Arrays.sort(this.intervals);
+            int count = 0;
+            for (long interval : intervals) {
+                if (interval > VSYNC_NANOS * 3 / 2)
+                    count++;
+            }
+            janky = count;
+        }
+
+        double percentileMs(int percentile) {
+            int index = Math.min(intervals.length - 1, intervals.length * percentile / 100);
+            return intervals[index] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d frames, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, %d janky",
+                    intervals.length, percentileMs(50), percentileMs(90), percentileMs(99), janky);
+        }
+    }
+
+    // Writes a few distinct source images, shared by every generated photo
+    static List<File> writeSources(Context context, int count) throws IOException {
+        List<File> files = new ArrayList<>();
+        Bitmap bitmap = Bitmap.createBitmap(3000, 2000, Bitmap.Config.ARGB_8888);
+        for (int i = 0; i < count; i++) {
+            bitmap.eraseColor(Color.rgb(40 * i % 256, 120, 200));
+            File file = new File(context.getCacheDir(), "scroll-source-" + i + ".jpg");
+            try (OutputStream os = new FileOutputStream(file)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+            }
+            files.add(file);
+        }
+        bitmap.recycle();
+        return files;
+    }
+
+    // Inserts photoCount photos over the sources, every other one with annotationsPerPhoto lines
+    static List<Photo> insertPhotos(AppDatabase db, List<File> sources, int photoCount, int annotationsPerPhoto) {
+        List<Photo> photos = new ArrayList<>(photoCount);
+        for (int i = 0; i < photoCount; i++) {
+            Photo photo = new Photo(Uri.fromFile(sources.get(i % sources.size())).toString(), CREATED_AT + i);
+            photo.width = 3000;
+            photo.height = 2000;
+            photos.add(photo);
+        }
+        List<Long> ids = db.photoDao().insertAll(photos);
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < photoCount; i++) {
+            photos.get(i).id = ids.get(i);
+            if (i % 2 != 0)
+                continue;
+            for (int j = 0; j < annotationsPerPhoto; j++) {
+                float y = 0.1f + 0.8f * j / Math.max(1, annotationsPerPhoto);
+                annotations.add(new Annotation(ids.get(i), 0.1f, y, 0.9f, y, 10 + j, Color.RED, 3f, j,
+                        Annotation.UNIT_CM));
+            }
+        }
+        db.annotationDao().insertAll(annotations);
+        if (annotationsPerPhoto > 0) {
+            for (int i = 0; i < photoCount; i += 2) {
+                db.photoDao().bumpAnnotationVersion(ids.get(i));
+            }
+        }
+        return photos;
+    }
+
+    static void deletePhotos(Context context, AppDatabase db, List<Photo> photos) {
+        db.runInTransaction(() -> {
+            for (Photo photo : photos) {
+                db.photoDao().delete(photo);
+            }
+        });
+        ThumbnailStore store = ThumbnailStore.getInstance(context);
+        for (Photo photo : photos) {
+            store.remove(photo.id);
+        }
+    }
+
+    // Scrolls the list by pixelsPerFrame on every frame and returns the frame intervals seen
+    static Frames scroll(Instrumentation instrumentation, RecyclerView list, int frames, int pixelsPerFrame)
+            throws InterruptedException {
+        long[] intervals = new long[frames];
+        CountDownLatch done = new CountDownLatch(1);
+        instrumentation.runOnMainSync(() -> Choreographer.getInstance().postFrameCallback(
+                new Choreographer.FrameCallback() {
+                    private long last;
+                    private int frame = -1;
+
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if (frame >= 0)
+                            intervals[frame] = frameTimeNanos - last;
+                        last = frameTimeNanos;
+                        if (++frame == frames) {
+                            done.countDown();
+                            return;
+                        }
+                        list.scrollBy(0, pixelsPerFrame);
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                }));
+        if (!done.await(frames * 100L + 5000, TimeUnit.MILLISECONDS))
+            throw new AssertionError("Scrolling did not finish");
+        return new Frames(intervals);
+    }
+}
@@ -0,0 +1,90 @@
+package com.zfdang.dimensioncam.ui.photos;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bumptech.glide.Glide;
+import com.zfdang.dimensioncam.R;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.MainActivity;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Time to the first frame of the photo list, heap held once it shows, and frame times while
+ * scrolling, for a small library against 10,000 photos. With a paged list the numbers should barely
+ * move with library size. Results are logged under the "PhotoListBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhotoListBenchmark {
+    private static final String TAG = "PhotoListBenchmark";
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private final Context context = instrumentation.getTargetContext();
+
+    private static long heap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    private String measure(int photoCount) throws Exception {
+        AppDatabase db = AppDatabase.getDatabase(context);
+        List<File> sources = ListScrollHarness.writeSources(context, 4);
+        List<Photo> photos = db.runInTransaction(() -> ListScrollHarness.insertPhotos(db, sources, photoCount, 5));
+        instrumentation.runOnMainSync(() -> Glide.get(context).clearMemory());
+        long before = heap();
+        try {
+            long start = SystemClock.elapsedRealtime();
+            try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+                RecyclerView[] list = new RecyclerView[1];
+                scenario.onActivity(activity -> list[0] = activity.findViewById(R.id.rv_photos));
+                // First frame with rows in it
+                boolean[] shown = new boolean[1];
+                long deadline = start + 30_000;
+                while (!shown[0] && SystemClock.elapsedRealtime() < deadline) {
+                    instrumentation.runOnMainSync(() -> shown[0] = list[0].getChildCount() > 0);
+                    if (!shown[0])
+                        Thread.sleep(5);
+                }
+                if (!shown[0])
+                    throw new AssertionError("The list did not show any photo");
+                long firstFrame = SystemClock.elapsedRealtime() - start;
+                long shownHeap = heap() - before;
+
+                ListScrollHarness.Frames frames = ListScrollHarness.scroll(instrumentation, list[0], 300, 60);
+                long scrolledHeap = heap() - before;
+                return String.format(Locale.US, "%d photos: first frame %d ms, heap %d KB when shown and %d KB "
+                        + "after scrolling, scrolling %s", photoCount, firstFrame, shownHeap / 1024,
+                        scrolledHeap / 1024, frames);
+            }
+        } finally {
+            ListScrollHarness.deletePhotos(context, db, photos);
+            for (File source : sources) {
+                source.delete();
+            }
+        }
+    }
+
+    @Test
+    public void firstFrameAndMemoryAgainstLibrarySize() throws Exception {
+        String small = measure(100);
+        String large = measure(10_000);
+        Log.i(TAG, small);
+        Log.i(TAG, large);
+    }
+}
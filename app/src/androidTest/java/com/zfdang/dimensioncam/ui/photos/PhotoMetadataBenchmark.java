@@ -0,0 +1,147 @@
+package com.zfdang.dimensioncam.ui.photos;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.exifinterface.media.ExifInterface;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * File reads and time a list load saves by taking image size and orientation from the photo rows
+ * instead of a bounds decode and an EXIF read per photo, and the sampled decodes that follow either
+ * way. Results are logged under the "PhotoMetadataBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhotoMetadataBenchmark {
+    private static final String TAG = "PhotoMetadataBenchmark";
+    private static final int PHOTOS = 200;
+    private static final int THUMBNAIL_SIZE = 512;
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private long bytesRead;
+
+    // Counts what the decoders actually pull from the file
+    private final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                bytesRead++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0)
+                bytesRead += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytesRead += skipped;
+            return skipped;
+        }
+    }
+
+    private InputStream open(Photo photo) throws IOException {
+        return new CountingInputStream(context.getContentResolver().openInputStream(Uri.parse(photo.originalPath)));
+    }
+
+    // What a list bind did for every photo before the metadata was stored at import
+    private int[] readFromFile(Photo photo) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream is = open(photo)) {
+            BitmapFactory.decodeStream(is, null, options);
+        }
+        int orientation;
+        try (InputStream is = open(photo)) {
+            orientation = new ExifInterface(is).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        }
+        return new int[] { options.outWidth, options.outHeight, orientation };
+    }
+
+    private void decodeSampled(Photo photo, int longest) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (longest / (options.inSampleSize * 2) >= THUMBNAIL_SIZE) {
+            options.inSampleSize *= 2;
+        }
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        try (InputStream is = open(photo)) {
+            BitmapFactory.decodeStream(is, null, options).recycle();
+        }
+    }
+
+    @Test
+    public void metadataFromRowsAgainstFiles() throws Exception {
+        AppDatabase db = AppDatabase.getDatabase(context);
+        List<File> sources = ListScrollHarness.writeSources(context, 4);
+        List<Photo> photos = ListScrollHarness.insertPhotos(db, sources, PHOTOS, 0);
+        try {
+            bytesRead = 0;
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (Photo photo : photos) {
+                int[] metadata = readFromFile(photo);
+                assertEquals(3000, metadata[0]);
+            }
+            long fromFiles = SystemClock.elapsedRealtimeNanos() - start;
+            long fileBytes = bytesRead;
+
+            // The rows a page of the list loads anyway
+            start = SystemClock.elapsedRealtimeNanos();
+            for (Photo inserted : photos) {
+                Photo photo = db.photoDao().getPhotoById(inserted.id);
+                assertEquals(3000, Math.max(photo.width, photo.height));
+            }
+            long fromRows = SystemClock.elapsedRealtimeNanos() - start;
+
+            bytesRead = 0;
+            start = SystemClock.elapsedRealtimeNanos();
+            for (Photo photo : photos) {
+                decodeSampled(photo, Math.max(photo.width, photo.height));
+            }
+            long decodes = SystemClock.elapsedRealtimeNanos() - start;
+            long decodeBytes = bytesRead;
+
+            Log.i(TAG, String.format(Locale.US, "%d photos: size and orientation from the files %.1f ms and "
+                            + "%d KB read (%.2f ms, %d KB per photo), from the rows %.1f ms and no file reads; "
+                            + "sampled decodes %.1f ms and %d KB read", PHOTOS, fromFiles / 1e6,
+                    fileBytes / 1024, fromFiles / 1e6 / PHOTOS, fileBytes / 1024 / PHOTOS, fromRows / 1e6,
+                    decodes / 1e6, decodeBytes / 1024));
+        } finally {
+            ListScrollHarness.deletePhotos(context, db, photos);
+            for (File source : sources) {
+                source.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.zfdang.dimensioncam.ui.photos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.annotation.AnnotationRenderer;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Memory per annotated thumbnail and bitmap pool churn when AnnotationTransformation gets a source
+ * decoded at full size, against one sampled down to the cell and decoded as RGB_565 the way the list
+ * asks Glide for it. Results are logged under the "ThumbnailDecodeBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailDecodeBenchmark {
+    private static final String TAG = "ThumbnailDecodeBenchmark";
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+    // A grid cell of the photo list
+    private static final int SIZE = 360;
+    private static final int THUMBNAILS = 30;
+    private static final long POOL_BYTES = 16L * 1024 * 1024;
+    // Decoder state and allocator slack on top of the bitmaps themselves
+    private static final long SLACK = 8L * 1024 * 1024;
+
+    private Context context;
+    private AppDatabase db;
+    private File source;
+    private Photo photo;
+    private RenderStyle style;
+
+    // Samples the native heap on its own thread, so short-lived decode buffers are seen too
+    private static final class PeakSampler extends Thread {
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        @Override
+        public void run() {
+            while (running) {
+                peak = Math.max(peak, Debug.getNativeHeapAllocatedSize());
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        long finish() throws InterruptedException {
+            peak = Math.max(peak, Debug.getNativeHeapAllocatedSize());
+            running = false;
+            join();
+            return peak;
+        }
+    }
+
+    private interface Decoder {
+        Bitmap decode();
+    }
+
+    private static final class Result {
+        long nanos;
+        long sourceBytes;
+        long thumbnailBytes;
+        long peak;
+        LruBitmapPool pool;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        // Bitmap pixels are counted on the native heap from Android 8
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O);
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        source = new File(context.getCacheDir(), "thumbnail-source.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.rgb(90, 140, 200));
+        try (OutputStream os = new FileOutputStream(source)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+        }
+        bitmap.recycle();
+
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).allowMainThreadQueries().build();
+        long id = db.photoDao().insert(new Photo(Uri.fromFile(source).toString(), 0));
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            annotations.add(new Annotation(id, 0.1f, 0.08f * (i + 1), 0.9f, 0.08f * (i + 1), 10 + i, Color.RED, 3f,
+                    i, Annotation.UNIT_CM));
+        }
+        db.annotationDao().insertAll(annotations);
+        db.photoDao().bumpAnnotationVersion(id);
+        photo = db.photoDao().getPhotoById(id);
+        style = AnnotationRenderer.getInstance().getStyle(context, SettingsManager.STYLE_T_ARROW_T);
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null)
+            db.close();
+        if (source != null)
+            source.delete();
+    }
+
+    // As Glide's CENTER_OUTSIDE picks it: both sides stay at or above the cell
+    private static int sampleSize() {
+        int sampleSize = 1;
+        while (Math.min(WIDTH, HEIGHT) / (sampleSize * 2) >= SIZE) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Each thumbnail is made the way Glide makes it on a cache miss. Source and result go back to
+    // the pool afterwards, as they do when a row scrolls away and the memory cache lets go
+    private Result run(Decoder decoder) throws InterruptedException {
+        Result result = new Result();
+        result.pool = new LruBitmapPool(POOL_BYTES);
+        Runtime.getRuntime().gc();
+        long before = Debug.getNativeHeapAllocatedSize();
+        PeakSampler sampler = new PeakSampler();
+        sampler.start();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < THUMBNAILS; i++) {
+            Bitmap decoded = decoder.decode();
+            AnnotationTransformation transformation = new AnnotationTransformation(db.annotationDao(), photo,
+                    photo.annotationVersion, style);
+            Bitmap thumbnail = transformation.transform(result.pool, decoded, SIZE, SIZE);
+            assertEquals(SIZE, thumbnail.getWidth());
+            result.sourceBytes = decoded.getAllocationByteCount();
+            result.thumbnailBytes = thumbnail.getAllocationByteCount();
+            if (thumbnail != decoded)
+                result.pool.put(decoded);
+            result.pool.put(thumbnail);
+        }
+        result.nanos = SystemClock.elapsedRealtimeNanos() - start;
+        result.peak = sampler.finish() - before;
+        result.pool.clearMemory();
+        return result;
+    }
+
+    private static String describe(Result result) {
+        return String.format(Locale.US, "%.1f ms and %d KB source + %d KB thumbnail each, peak %d KB, pool "
+                        + "%d hits, %d misses, %d evictions", result.nanos / 1e6 / THUMBNAILS,
+                result.sourceBytes / 1024, result.thumbnailBytes / 1024, result.peak / 1024,
+                result.pool.getHitCount(), result.pool.getMissCount(), result.pool.getEvictionCount());
+    }
+
+    @Test
+    public void sampledDecodeAgainstFullSize() throws Exception {
+        Result full = run(() -> BitmapFactory.decodeFile(source.getPath()));
+        Result sampled = run(() -> {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            return BitmapFactory.decodeFile(source.getPath(), options);
+        });
+
+        Log.i(TAG, "Full-size source: " + describe(full));
+        Log.i(TAG, "Sampled RGB_565 source: " + describe(sampled));
+        // At most one source and one thumbnail alive at a time, plus what the pool keeps
+        long budget = sampled.sourceBytes + sampled.thumbnailBytes + POOL_BYTES + SLACK;
+        assertTrue("peak " + sampled.peak + " over " + budget, sampled.peak <= budget);
+        assertTrue(sampled.peak < full.peak);
+    }
+}
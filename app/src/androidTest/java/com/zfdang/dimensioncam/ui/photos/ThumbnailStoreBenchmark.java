@@ -0,0 +1,149 @@
+package com.zfdang.dimensioncam.ui.photos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bumptech.glide.Glide;
+import com.zfdang.dimensioncam.R;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.MainActivity;
+import com.zfdang.dimensioncam.ui.annotation.AnnotationRenderer;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Main-thread cost of a list bind in ThumbnailStore, and frame times of the photo list scrolling
+ * over originals decoded by Glide against stored thumbnails. Results are logged under the
+ * "ThumbnailStoreBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailStoreBenchmark {
+    private static final String TAG = "ThumbnailStoreBenchmark";
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private final Context context = instrumentation.getTargetContext();
+
+    private RenderStyle style(Locale locale, int arrowStyle) {
+        Configuration config = new Configuration(context.getResources().getConfiguration());
+        config.setLocale(locale);
+        return AnnotationRenderer.getInstance().getStyle(context.createConfigurationContext(config), arrowStyle);
+    }
+
+    private static Photo photo(long id, long annotationVersion) {
+        Photo photo = new Photo("file:///photo-" + id + ".jpg", id);
+        photo.id = id;
+        photo.annotationVersion = annotationVersion;
+        return photo;
+    }
+
+    @Test
+    public void fileNameFollowsVersionAndStyle() {
+        ThumbnailStore store = ThumbnailStore.getInstance(context);
+        RenderStyle english = style(Locale.US, SettingsManager.STYLE_T_ARROW_T);
+        String name = store.fileName(photo(1, 3), english);
+        assertEquals(name, store.fileName(photo(1, 3), english));
+        assertEquals(ThumbnailStore.computeFileName(photo(1, 3), english), name);
+
+        assertNotEquals(name, store.fileName(photo(1, 4), english));
+        assertNotEquals(name, store.fileName(photo(1, 3), style(Locale.CHINA, SettingsManager.STYLE_T_ARROW_T)));
+        assertNotEquals(name, store.fileName(photo(1, 3), english.withArrowStyle(SettingsManager.STYLE_T_T)));
+        // Back to the first inputs after all those changes
+        assertEquals(name, store.fileName(photo(1, 3), english));
+    }
+
+    // What a bind pays on the main thread before it knows whether the thumbnail exists
+    @Test
+    public void benchmarkBindNameLookup() {
+        ThumbnailStore store = ThumbnailStore.getInstance(context);
+        RenderStyle style = style(Locale.US, SettingsManager.STYLE_T_ARROW_T);
+        int count = 1000;
+        List<Photo> photos = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            photos.add(photo(1_000_000 + i, 1));
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (Photo photo : photos) {
+            ThumbnailStore.computeFileName(photo, style);
+        }
+        long digest = SystemClock.elapsedRealtimeNanos() - start;
+
+        for (Photo photo : photos) {
+            store.fileName(photo, style);
+        }
+        start = SystemClock.elapsedRealtimeNanos();
+        for (Photo photo : photos) {
+            store.fileName(photo, style);
+        }
+        long memoized = SystemClock.elapsedRealtimeNanos() - start;
+        Log.i(TAG, String.format(Locale.US, "Name per bind: digest %.2f us, memoized %.2f us",
+                digest / 1e3 / count, memoized / 1e3 / count));
+    }
+
+    // Scrolls 200 photos twice: first over originals while thumbnails are generated, then over the
+    // stored thumbnails with Glide's memory cache cleared
+    @Test
+    public void benchmarkScrollOverStoredThumbnails() throws Exception {
+        AppDatabase db = AppDatabase.getDatabase(context);
+        List<File> sources = ListScrollHarness.writeSources(context, 4);
+        List<Photo> photos = ListScrollHarness.insertPhotos(db, sources, 200, 5);
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            RecyclerView[] list = new RecyclerView[1];
+            RenderStyle[] style = new RenderStyle[1];
+            scenario.onActivity(activity -> {
+                list[0] = activity.findViewById(R.id.rv_photos);
+                style[0] = AnnotationRenderer.getInstance().getStyle(activity,
+                        SettingsManager.getInstance(activity).getArrowStyle());
+            });
+            // Let the first page of the list arrive
+            Thread.sleep(1000);
+            ListScrollHarness.Frames cold = ListScrollHarness.scroll(instrumentation, list[0], 300, 40);
+
+            // Wait for every thumbnail to be on disk
+            ThumbnailStore store = ThumbnailStore.getInstance(context);
+            long deadline = SystemClock.elapsedRealtime() + 120_000;
+            for (Photo inserted : photos) {
+                // The stored row, with the annotation version the list binds
+                Photo photo = db.photoDao().getPhotoById(inserted.id);
+                while (store.get(photo, style[0]) == null && SystemClock.elapsedRealtime() < deadline) {
+                    Thread.sleep(50);
+                }
+            }
+
+            instrumentation.runOnMainSync(() -> {
+                list[0].scrollToPosition(0);
+                Glide.get(context).clearMemory();
+            });
+            instrumentation.waitForIdleSync();
+            ListScrollHarness.Frames warm = ListScrollHarness.scroll(instrumentation, list[0], 300, 40);
+
+            Log.i(TAG, "Scrolling over originals: " + cold);
+            Log.i(TAG, "Scrolling over stored thumbnails: " + warm + ", average generation "
+                    + store.getAverageGenerationTime() + " ms");
+        } finally {
+            ListScrollHarness.deletePhotos(context, db, photos);
+            for (File source : sources) {
+                source.delete();
+            }
+        }
+    }
+}
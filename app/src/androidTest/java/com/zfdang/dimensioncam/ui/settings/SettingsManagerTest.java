@@ -0,0 +1,299 @@
+package com.zfdang.dimensioncam.ui.settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+import androidx.lifecycle.Observer;
+import androidx.paging.PagingData;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.github.chrisbanes.photoview.PhotoView;
+import com.zfdang.dimensioncam.R;
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.annotation.DrawView;
+import com.zfdang.dimensioncam.ui.photos.PhotoAdapter;
+import com.zfdang.dimensioncam.ui.photos.ThumbnailStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs on preferences of its own, so the app's settings are left as they were
+@RunWith(AndroidJUnit4.class)
+public class SettingsManagerTest {
+    private static final String PREF_NAME = "settings_manager_test";
+    private static final int FRAMES = 1000;
+    private static final int BINDS = 1000;
+    private static final int PHOTOS = 40;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private Context context;
+    private SharedPreferences backing;
+    private CountingPreferences prefs;
+    private SettingsManager settingsManager;
+    private SettingsManager previous;
+
+    // Counts every read; writes and listeners go straight through
+    private static final class CountingPreferences implements SharedPreferences {
+        private final SharedPreferences prefs;
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingPreferences(SharedPreferences prefs) {
+            this.prefs = prefs;
+        }
+
+        @Override
+        public Map<String, ?> getAll() {
+            reads.incrementAndGet();
+            return prefs.getAll();
+        }
+
+        @Nullable
+        @Override
+        public String getString(String key, @Nullable String defValue) {
+            reads.incrementAndGet();
+            return prefs.getString(key, defValue);
+        }
+
+        @Nullable
+        @Override
+        public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+            reads.incrementAndGet();
+            return prefs.getStringSet(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            reads.incrementAndGet();
+            return prefs.getInt(key, defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            reads.incrementAndGet();
+            return prefs.getLong(key, defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            reads.incrementAndGet();
+            return prefs.getFloat(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            reads.incrementAndGet();
+            return prefs.getBoolean(key, defValue);
+        }
+
+        @Override
+        public boolean contains(String key) {
+            reads.incrementAndGet();
+            return prefs.contains(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return prefs.edit();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            prefs.registerOnSharedPreferenceChangeListener(listener);
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+            prefs.unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    private static final class TestLifecycleOwner implements LifecycleOwner {
+        private final LifecycleRegistry registry = new LifecycleRegistry(this);
+
+        @NonNull
+        @Override
+        public Lifecycle getLifecycle() {
+            return registry;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        context = instrumentation.getTargetContext();
+        // Process-wide components keep the instance they were created with; create them on the
+        // app's settings first, so none of them holds on to the test instance
+        AppDatabase.getDatabase(context);
+        ThumbnailStore.getInstance(context);
+        backing = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        backing.edit().clear().commit();
+        prefs = new CountingPreferences(backing);
+        settingsManager = new SettingsManager(prefs);
+        previous = SettingsManager.setInstance(settingsManager);
+    }
+
+    @After
+    public void tearDown() {
+        SettingsManager.setInstance(previous);
+        backing.edit().clear().commit();
+    }
+
+    private static List<Annotation> annotations() {
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            float y = 0.05f + i * 0.045f;
+            annotations.add(new Annotation(1, 0.1f, y, 0.9f, y, 10f + i, Color.RED, 3f, i, Annotation.UNIT_CM));
+        }
+        return annotations;
+    }
+
+    @Test
+    public void preferencesAreReadOnceWhenCreated() {
+        assertEquals(3, prefs.reads.get());
+        for (int i = 0; i < FRAMES; i++) {
+            settingsManager.getArrowStyle();
+            settingsManager.getLanguage();
+            settingsManager.getMaxScaleFactor();
+            settingsManager.getSettings();
+        }
+        assertEquals(3, prefs.reads.get());
+    }
+
+    @Test
+    public void drawingFramesReadsNoPreferences() {
+        int[] reads = new int[1];
+        instrumentation.runOnMainSync(() -> {
+            DrawView drawView = new DrawView(context);
+            drawView.setPhotoView(new PhotoView(context));
+            drawView.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY));
+            drawView.layout(0, 0, 1080, 1920);
+            drawView.setAnnotations(annotations());
+            drawView.setDisplayRect(new RectF(0, 555, 1080, 1365));
+            Bitmap bitmap = Bitmap.createBitmap(1080, 1920, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+
+            int before = prefs.reads.get();
+            for (int i = 0; i < FRAMES; i++) {
+                drawView.draw(canvas);
+            }
+            reads[0] = prefs.reads.get() - before;
+            bitmap.recycle();
+        });
+        assertEquals(0, reads[0]);
+    }
+
+    @Test
+    public void bindingPhotosReadsNoPreferences() throws Exception {
+        List<Photo> photos = new ArrayList<>(PHOTOS);
+        for (int i = 0; i < PHOTOS; i++) {
+            Photo photo = new Photo("file:///settings-manager-test-" + i + ".jpg", i);
+            photo.id = -1 - i;
+            // Half the rows take the annotated path
+            photo.annotationCount = i % 2 == 0 ? 3 : 0;
+            photo.annotationVersion = 1;
+            photos.add(photo);
+        }
+        Context themed = new ContextThemeWrapper(context, R.style.Theme_DimensionCam);
+        PhotoAdapter[] adapter = new PhotoAdapter[1];
+        instrumentation.runOnMainSync(() -> {
+            TestLifecycleOwner owner = new TestLifecycleOwner();
+            ((LifecycleRegistry) owner.getLifecycle()).setCurrentState(Lifecycle.State.RESUMED);
+            adapter[0] = new PhotoAdapter(themed, null);
+            adapter[0].submitData(owner.getLifecycle(), PagingData.from(photos));
+        });
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        int[] count = new int[1];
+        while (count[0] < PHOTOS) {
+            assertTrue(SystemClock.elapsedRealtime() < deadline);
+            instrumentation.runOnMainSync(() -> count[0] = adapter[0].getItemCount());
+            Thread.sleep(10);
+        }
+
+        int[] reads = new int[1];
+        instrumentation.runOnMainSync(() -> {
+            // The holder type is private to the list
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            RecyclerView.Adapter<RecyclerView.ViewHolder> list = (RecyclerView.Adapter) adapter[0];
+            RecyclerView.ViewHolder holder = list.createViewHolder(new FrameLayout(themed), 0);
+            int before = prefs.reads.get();
+            for (int i = 0; i < BINDS; i++) {
+                list.bindViewHolder(holder, i % PHOTOS);
+            }
+            reads[0] = prefs.reads.get() - before;
+        });
+        assertEquals(0, reads[0]);
+    }
+
+    @Test
+    public void listenersAndLiveDataSeeEveryChange() throws Exception {
+        List<SettingsManager.Settings[]> changes = new ArrayList<>();
+        SettingsManager.OnSettingsChangedListener listener = (oldSettings, newSettings) ->
+                changes.add(new SettingsManager.Settings[] { oldSettings, newSettings });
+        settingsManager.addListener(listener);
+        int reads = prefs.reads.get();
+
+        settingsManager.setArrowStyle(SettingsManager.STYLE_ARROW_ARROW);
+        assertEquals(1, changes.size());
+        assertEquals(SettingsManager.STYLE_T_T, changes.get(0)[0].arrowStyle);
+        assertEquals(SettingsManager.STYLE_ARROW_ARROW, changes.get(0)[1].arrowStyle);
+        assertEquals(SettingsManager.STYLE_ARROW_ARROW, settingsManager.getArrowStyle());
+        assertEquals(SettingsManager.STYLE_ARROW_ARROW, backing.getInt("arrow_style", -1));
+
+        // Clamped before anyone sees it
+        settingsManager.setMaxScaleFactor(9f);
+        assertEquals(2, changes.size());
+        assertEquals(2.5f, changes.get(1)[0].maxScaleFactor, 0f);
+        assertEquals(5f, changes.get(1)[1].maxScaleFactor, 0f);
+        assertEquals(SettingsManager.STYLE_ARROW_ARROW, changes.get(1)[1].arrowStyle);
+
+        // Posted to the main thread when changed elsewhere
+        CountDownLatch delivered = new CountDownLatch(1);
+        Observer<SettingsManager.Settings> observer = settings -> {
+            if ("en".equals(settings.language))
+                delivered.countDown();
+        };
+        instrumentation.runOnMainSync(() -> settingsManager.getSettingsLiveData().observeForever(observer));
+        settingsManager.setLanguage("en");
+        assertTrue(delivered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        instrumentation.runOnMainSync(() -> settingsManager.getSettingsLiveData().removeObserver(observer));
+        assertEquals(3, changes.size());
+
+        settingsManager.removeListener(listener);
+        settingsManager.setArrowStyle(SettingsManager.STYLE_T_ARROW_T);
+        assertEquals(3, changes.size());
+        // Changes replace the snapshot without reading the preferences back
+        assertEquals(reads, prefs.reads.get());
+    }
+}
@@ -0,0 +1,37 @@
+package com.zfdang.dimensioncam.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import android.graphics.Matrix;
+
+import androidx.exifinterface.media.ExifInterface;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ImageOrientationInstrumentedTest {
+
+    // The platform Matrix built by toUpright maps points the way uprightValues describes
+    @Test
+    public void matrixMapsCornersLikeTheValues() {
+        int width = 400;
+        int height = 300;
+        float[] corners = { 0, 0, width, 0, 0, height, width, height, 120, 45 };
+        for (int orientation = ExifInterface.ORIENTATION_UNDEFINED;
+                orientation <= ExifInterface.ORIENTATION_ROTATE_270; orientation++) {
+            Matrix matrix = ImageOrientation.toUpright(orientation, width, height);
+            float[] mapped = corners.clone();
+            matrix.mapPoints(mapped);
+
+            float[] v = ImageOrientation.uprightValues(orientation, width, height);
+            float[] expected = new float[corners.length];
+            for (int i = 0; i < corners.length; i += 2) {
+                expected[i] = v[0] * corners[i] + v[1] * corners[i + 1] + v[2];
+                expected[i + 1] = v[3] * corners[i] + v[4] * corners[i + 1] + v[5];
+            }
+            assertArrayEquals("orientation " + orientation, expected, mapped, 1e-3f);
+        }
+    }
+}
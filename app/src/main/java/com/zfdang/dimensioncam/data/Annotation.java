@@ -62,6 +62,48 @@ public class Annotation {
         this.unit = other.unit;
     }
 
+    // Compares every persisted column except the primary key
+    public boolean hasSameValues(Annotation other) {
+        return photoId == other.photoId
+                && startX == other.startX && startY == other.startY
+                && endX == other.endX && endY == other.endY
+                && measuredValue == other.measuredValue
+                && color == other.color && width == other.width
+                && order == other.order && unit == other.unit;
+    }
+
+    // Value equality over all columns, so lists re-emitted by Room compare equal to what is shown
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Annotation))
+            return false;
+        Annotation other = (Annotation) o;
+        return id == other.id && photoId == other.photoId
+                && Float.compare(startX, other.startX) == 0 && Float.compare(startY, other.startY) == 0
+                && Float.compare(endX, other.endX) == 0 && Float.compare(endY, other.endY) == 0
+                && Float.compare(measuredValue, other.measuredValue) == 0
+                && color == other.color && Float.compare(width, other.width) == 0
+                && order == other.order && unit == other.unit;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(id);
+        result = 31 * result + Long.hashCode(photoId);
+        result = 31 * result + Float.hashCode(startX);
+        result = 31 * result + Float.hashCode(startY);
+        result = 31 * result + Float.hashCode(endX);
+        result = 31 * result + Float.hashCode(endY);
+        result = 31 * result + Float.hashCode(measuredValue);
+        result = 31 * result + color;
+        result = 31 * result + Float.hashCode(width);
+        result = 31 * result + order;
+        result = 31 * result + unit;
+        return result;
+    }
+
     public static String getUnitString(int unit) {
         switch (unit) {
             case UNIT_MM: return "mm";
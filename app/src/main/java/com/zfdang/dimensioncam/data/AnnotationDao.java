@@ -18,6 +18,16 @@ public interface AnnotationDao {
     @Query("SELECT * FROM annotations WHERE photoId = :photoId ORDER BY `order` ASC")
     List<Annotation> getAnnotationsForPhotoSync(long photoId);
 
+    // Rows as of the given annotationVersion of their photo, or none once the photo has moved past
+    // it. One statement, so the rows and the version come from the same snapshot.
+    @Query("SELECT * FROM annotations WHERE photoId = :photoId "
+            + "AND (SELECT annotationVersion FROM photos WHERE id = :photoId) = :annotationVersion "
+            + "ORDER BY `order` ASC")
+    List<Annotation> getAnnotationsAtVersion(long photoId, long annotationVersion);
+
+    @Query("SELECT * FROM annotations WHERE id = :id")
+    Annotation getAnnotationById(long id);
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     long insert(Annotation annotation);
 
@@ -32,4 +42,10 @@ public interface AnnotationDao {
     
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertAll(List<Annotation> annotations);
+
+    @Update
+    void updateAll(List<Annotation> annotations);
+
+    @Delete
+    void deleteAll(List<Annotation> annotations);
 }
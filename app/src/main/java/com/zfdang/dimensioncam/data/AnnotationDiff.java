@@ -0,0 +1,53 @@
+package com.zfdang.dimensioncam.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Row-level difference between the stored annotations of a photo and a target list
+public class AnnotationDiff {
+    public final List<Annotation> inserts = new ArrayList<>();
+    public final List<Annotation> updates = new ArrayList<>();
+    public final List<Annotation> deletes = new ArrayList<>();
+    // False when the updates only renumber rows. Order only decides which of two crossing lines is
+    // drawn on top, which is not worth re-rendering a thumbnail for
+    public boolean updatesChangeDrawing = true;
+
+    public static AnnotationDiff compute(List<Annotation> current, List<Annotation> target) {
+        AnnotationDiff diff = new AnnotationDiff();
+        diff.updatesChangeDrawing = false;
+        Map<Long, Annotation> currentById = new HashMap<>();
+        for (Annotation a : current) {
+            currentById.put(a.id, a);
+        }
+        for (Annotation a : target) {
+            // Unsaved rows (id 0) and rows missing from the table are inserted with their id
+            Annotation stored = a.id == 0 ? null : currentById.remove(a.id);
+            if (stored == null) {
+                diff.inserts.add(a);
+            } else if (!stored.hasSameValues(a)) {
+                diff.updates.add(a);
+                if (!onlyOrderDiffers(stored, a))
+                    diff.updatesChangeDrawing = true;
+            }
+        }
+        diff.deletes.addAll(currentById.values());
+        return diff;
+    }
+
+    private static boolean onlyOrderDiffers(Annotation stored, Annotation target) {
+        Annotation renumbered = new Annotation(target);
+        renumbered.order = stored.order;
+        return stored.hasSameValues(renumbered);
+    }
+
+    public boolean isEmpty() {
+        return inserts.isEmpty() && updates.isEmpty() && deletes.isEmpty();
+    }
+
+    // Number of rows the diff writes
+    public int size() {
+        return inserts.size() + updates.size() + deletes.size();
+    }
+}
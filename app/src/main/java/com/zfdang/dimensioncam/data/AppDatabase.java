@@ -9,16 +9,20 @@ import androidx.room.RoomDatabase;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-@Database(entities = {Photo.class, Annotation.class}, version = 2, exportSchema = false)
+@Database(entities = {Photo.class, Annotation.class, EditJournalEntry.class}, version = 7, exportSchema = true)
 public abstract class AppDatabase extends RoomDatabase {
 
     public abstract PhotoDao photoDao();
     public abstract AnnotationDao annotationDao();
+    public abstract EditJournalDao editJournalDao();
 
     private static volatile AppDatabase INSTANCE;
     private static final int NUMBER_OF_THREADS = 4;
     public static final ExecutorService databaseWriteExecutor =
             Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+    // Annotation edits, undo and redo must reach the table in the order they were made
+    public static final ExecutorService annotationWriteExecutor =
+            Executors.newSingleThreadExecutor();
 
     public static AppDatabase getDatabase(final Context context) {
         if (INSTANCE == null) {
@@ -26,7 +30,10 @@ public abstract class AppDatabase extends RoomDatabase {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     AppDatabase.class, "dimension_cam_database")
-                            .fallbackToDestructiveMigration()
+                            .addMigrations(Migrations.ALL)
+                            // Version 1 was never exported and its schema is unknown, so it alone is recreated; from
+                            // version 2 on every step migrates and is covered by MigrationTest
+                            .fallbackToDestructiveMigrationFrom(1)
                             .build();
                 }
             }
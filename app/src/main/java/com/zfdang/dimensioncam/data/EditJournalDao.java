@@ -0,0 +1,31 @@
+package com.zfdang.dimensioncam.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface EditJournalDao {
+    @Query("SELECT * FROM edit_journal WHERE photoId = :photoId ORDER BY id ASC")
+    List<EditJournalEntry> getEntriesForPhoto(long photoId);
+
+    @Insert
+    long insert(EditJournalEntry entry);
+
+    @Query("UPDATE edit_journal SET afterJson = :afterJson, createdAt = :createdAt WHERE id = :id")
+    void updateAfter(long id, String afterJson, long createdAt);
+
+    @Query("UPDATE edit_journal SET undone = :undone WHERE id = :id")
+    void setUndone(long id, boolean undone);
+
+    // A new edit discards the redo branch
+    @Query("DELETE FROM edit_journal WHERE photoId = :photoId AND undone = 1")
+    void deleteUndone(long photoId);
+
+    // Compaction: keeps only the newest entries of a photo
+    @Query("DELETE FROM edit_journal WHERE photoId = :photoId AND id NOT IN "
+            + "(SELECT id FROM edit_journal WHERE photoId = :photoId ORDER BY id DESC LIMIT :keep)")
+    void trim(long photoId, int keep);
+}
@@ -0,0 +1,35 @@
+package com.zfdang.dimensioncam.data;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import static androidx.room.ForeignKey.CASCADE;
+
+// One undoable annotation edit, stored so undo/redo survives process death
+@Entity(tableName = "edit_journal",
+        foreignKeys = @ForeignKey(entity = Photo.class,
+                parentColumns = "id",
+                childColumns = "photoId",
+                onDelete = CASCADE),
+        indices = {@Index("photoId")})
+public class EditJournalEntry {
+    @PrimaryKey(autoGenerate = true)
+    public long id; // Also the sequence number of the edit
+
+    public long photoId;
+    public int kind; // Edit kind, see AnnotationEdit
+    public String beforeJson; // Row states before the edit, null elements for rows that did not exist
+    public String afterJson; // Row states after the edit, null elements for deleted rows
+    public boolean undone; // Undone edits form the redo stack
+    public long createdAt;
+
+    public EditJournalEntry(long photoId, int kind, String beforeJson, String afterJson, long createdAt) {
+        this.photoId = photoId;
+        this.kind = kind;
+        this.beforeJson = beforeJson;
+        this.afterJson = afterJson;
+        this.createdAt = createdAt;
+    }
+}
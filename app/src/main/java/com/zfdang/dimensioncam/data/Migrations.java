@@ -0,0 +1,88 @@
+package com.zfdang.dimensioncam.data;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * Schema migrations for AppDatabase, one per version step. Each step is logged with its duration,
+ * since migrations run on the first database access and delay whatever is waiting for it. Exported
+ * schemas live in app/schemas; add a step here together with every version bump.
+ */
+final class Migrations {
+    private static final String TAG = "Migrations";
+
+    private Migrations() {
+    }
+
+    abstract static class TimedMigration extends Migration {
+        TimedMigration(int startVersion, int endVersion) {
+            super(startVersion, endVersion);
+        }
+
+        abstract void apply(@NonNull SupportSQLiteDatabase database);
+
+        @Override
+        public final void migrate(@NonNull SupportSQLiteDatabase database) {
+            long start = SystemClock.elapsedRealtime();
+            apply(database);
+            Log.i(TAG, "Migrated " + startVersion + " -> " + endVersion + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+    }
+
+    // Version 3 adds the persistent undo journal
+    static final Migration MIGRATION_2_3 = new TimedMigration(2, 3) {
+        @Override
+        void apply(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `edit_journal` ("
+                    + "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `photoId` INTEGER NOT NULL, "
+                    + "`kind` INTEGER NOT NULL, `beforeJson` TEXT, `afterJson` TEXT, "
+                    + "`undone` INTEGER NOT NULL, `createdAt` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`photoId`) REFERENCES `photos`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_edit_journal_photoId` ON `edit_journal` (`photoId`)");
+        }
+    };
+
+    // Version 4 adds the annotation version used to key photo thumbnails
+    static final Migration MIGRATION_3_4 = new TimedMigration(3, 4) {
+        @Override
+        void apply(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `photos` ADD COLUMN `annotationVersion` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Version 5 adds EXIF metadata read at import
+    static final Migration MIGRATION_4_5 = new TimedMigration(4, 5) {
+        @Override
+        void apply(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `photos` ADD COLUMN `captureTime` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `photos` ADD COLUMN `orientation` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Version 6 adds image size and file size read at import
+    static final Migration MIGRATION_5_6 = new TimedMigration(5, 6) {
+        @Override
+        void apply(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `photos` ADD COLUMN `width` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `photos` ADD COLUMN `height` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `photos` ADD COLUMN `fileSize` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Version 7 stores the annotation count on photos, so the paged list reads one table
+    static final Migration MIGRATION_6_7 = new TimedMigration(6, 7) {
+        @Override
+        void apply(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `photos` ADD COLUMN `annotationCount` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("UPDATE `photos` SET `annotationCount` = "
+                    + "(SELECT COUNT(*) FROM `annotations` WHERE `annotations`.`photoId` = `photos`.`id`)");
+        }
+    };
+
+    static final Migration[] ALL = {MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7};
+}
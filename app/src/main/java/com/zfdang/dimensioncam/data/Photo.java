@@ -1,5 +1,6 @@
 package com.zfdang.dimensioncam.data;
 
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.PrimaryKey;
 
@@ -11,6 +12,28 @@ public class Photo {
     public String originalPath; // URI string or file path
     public long createdAt;
 
+    // Incremented with every annotation write that changes how the photo is drawn, keys rendered
+    // thumbnails
+    @ColumnInfo(defaultValue = "0")
+    public long annotationVersion;
+    // Number of annotation rows, kept with annotationVersion so the list never reads annotations
+    @ColumnInfo(defaultValue = "0")
+    public int annotationCount;
+
+    // From EXIF at import; 0 when unknown
+    @ColumnInfo(defaultValue = "0")
+    public long captureTime; // ms since epoch
+    @ColumnInfo(defaultValue = "0")
+    public int orientation; // ExifInterface.ORIENTATION_* value
+
+    // Read once at import so decoders can pick a sample size without a bounds pass; 0 when unknown
+    @ColumnInfo(defaultValue = "0")
+    public int width; // stored pixels, before orientation is applied
+    @ColumnInfo(defaultValue = "0")
+    public int height;
+    @ColumnInfo(defaultValue = "0")
+    public long fileSize; // bytes
+
     public Photo(String originalPath, long createdAt) {
         this.originalPath = originalPath;
         this.createdAt = createdAt;
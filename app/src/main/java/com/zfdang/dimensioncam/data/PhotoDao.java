@@ -1,6 +1,7 @@
 package com.zfdang.dimensioncam.data;
 
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
@@ -10,9 +11,19 @@ import java.util.List;
 
 @Dao
 public interface PhotoDao {
-    @androidx.room.Transaction
+    // Paged rows for the photo list. Only the photos table is read, so annotation writes that leave
+    // annotationVersion alone do not invalidate the list
     @Query("SELECT * FROM photos ORDER BY createdAt DESC")
-    LiveData<List<PhotoWithAnnotations>> getPhotosWithAnnotations();
+    PagingSource<Integer, Photo> getPhotosPaged();
+
+    // Run in the transaction of every annotation write that changes the drawing. Recounting keeps
+    // annotationCount exact however the rows were written; annotations are indexed by photoId.
+    @Query("UPDATE photos SET annotationVersion = annotationVersion + 1, annotationCount = "
+            + "(SELECT COUNT(*) FROM annotations WHERE annotations.photoId = :photoId) WHERE id = :photoId")
+    void bumpAnnotationVersion(long photoId);
+
+    @Query("SELECT COUNT(*) FROM photos")
+    LiveData<Integer> getPhotoCount();
 
     @Query("SELECT * FROM photos ORDER BY createdAt DESC")
     LiveData<List<Photo>> getAllPhotos();
@@ -20,9 +31,24 @@ public interface PhotoDao {
     @Insert
     long insert(Photo photo);
 
+    // One transaction, so list observers see a bulk import as a single change
+    @Insert
+    List<Long> insertAll(List<Photo> photos);
+
     @Delete
     void delete(Photo photo);
     
+    // Photos sharing a stored file, which is only deleted with the last of them
+    @Query("SELECT COUNT(*) FROM photos WHERE originalPath = :path")
+    int countPhotosWithPath(String path);
+
+    @Query("SELECT * FROM photos WHERE originalPath = :path")
+    List<Photo> getPhotosWithPath(String path);
+
+    // Backfills metadata for rows imported before it was recorded
+    @Query("UPDATE photos SET width = :width, height = :height, orientation = :orientation WHERE id = :id")
+    void updateMetadata(long id, int width, int height, int orientation);
+
     @Query("SELECT * FROM photos WHERE id = :id")
     Photo getPhotoById(long id);
 }
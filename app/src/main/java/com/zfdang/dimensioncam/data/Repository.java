@@ -1,18 +1,39 @@
 package com.zfdang.dimensioncam.data;
 
 import android.app.Application;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 
+import java.io.File;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class Repository {
+    private static final String TAG = "Repository";
 
+    // Held while checking whether a stored file is still referenced and deleting it, and by
+    // PhotoImporter while moving files into place and inserting their rows
+    public static final Object STORED_FILES_LOCK = new Object();
+
+    // Receives the outcome of an annotation write on the main thread
+    public interface WriteCallback<T> {
+        void onWritten(T result);
+    }
+
+    private AppDatabase mDatabase;
     private PhotoDao mPhotoDao;
     private AnnotationDao mAnnotationDao;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     public Repository(Application application) {
         AppDatabase db = AppDatabase.getDatabase(application);
+        mDatabase = db;
         mPhotoDao = db.photoDao();
         mAnnotationDao = db.annotationDao();
     }
@@ -22,8 +43,13 @@ public class Repository {
         return mPhotoDao.getAllPhotos();
     }
 
-    public LiveData<List<PhotoWithAnnotations>> getPhotosWithAnnotations() {
-        return mPhotoDao.getPhotosWithAnnotations();
+    // A new source is needed for every Pager generation
+    public PagingSource<Integer, Photo> getPhotosPaged() {
+        return mPhotoDao.getPhotosPaged();
+    }
+
+    public LiveData<Integer> getPhotoCount() {
+        return mPhotoDao.getPhotoCount();
     }
 
     public void insertPhoto(Photo photo) {
@@ -32,41 +58,129 @@ public class Repository {
         });
     }
 
+    // Deletes the row, and the stored file once no other photo refers to it
     public void deletePhoto(Photo photo) {
         AppDatabase.databaseWriteExecutor.execute(() -> {
-            mPhotoDao.delete(photo);
+            synchronized (STORED_FILES_LOCK) {
+                int remaining = mDatabase.runInTransaction(() -> {
+                    mPhotoDao.delete(photo);
+                    return mPhotoDao.countPhotosWithPath(photo.originalPath);
+                });
+                if (remaining == 0)
+                    deleteStoredFile(photo.originalPath);
+            }
         });
     }
 
+    private static void deleteStoredFile(String path) {
+        try {
+            Uri uri = Uri.parse(path);
+            // Only files we own; content:// sources belong to other apps
+            if ("file".equals(uri.getScheme())) {
+                File file = new File(uri.getPath());
+                if (file.exists() && !file.delete()) {
+                    Log.w(TAG, "Failed to delete file: " + file.getAbsolutePath());
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to delete file: " + path, e);
+        }
+    }
+
     // Annotation methods
     public LiveData<List<Annotation>> getAnnotationsForPhoto(long photoId) {
         return mAnnotationDao.getAnnotationsForPhoto(photoId);
     }
 
-    public void insertAnnotation(Annotation annotation) {
-        AppDatabase.databaseWriteExecutor.execute(() -> {
-            mAnnotationDao.insert(annotation);
+    // Annotation writes run on a serial executor so undo/redo never overtakes the edit it reverts
+    // Every write that changes the drawing also bumps the photo's annotationVersion and count in the
+    // same transaction
+    // The generated id goes to the callback; the object itself is left alone, since the UI
+    // thread owns it
+    public void insertAnnotation(Annotation annotation, WriteCallback<Long> callback) {
+        AppDatabase.annotationWriteExecutor.execute(() -> {
+            long id = mDatabase.runInTransaction(() -> {
+                long rowId = mAnnotationDao.insert(annotation);
+                mPhotoDao.bumpAnnotationVersion(annotation.photoId);
+                return rowId;
+            });
+            mMainHandler.post(() -> callback.onWritten(id));
+        });
+    }
+
+    // Like updateAnnotation, and hands the stored row as it was before the update (null if it
+    // no longer exists) to the callback
+    public void updateAnnotation(Annotation annotation, WriteCallback<Annotation> callback) {
+        AppDatabase.annotationWriteExecutor.execute(() -> {
+            Annotation previous = mDatabase.runInTransaction(() -> {
+                Annotation stored = mAnnotationDao.getAnnotationById(annotation.id);
+                mAnnotationDao.update(annotation);
+                mPhotoDao.bumpAnnotationVersion(annotation.photoId);
+                return stored;
+            });
+            mMainHandler.post(() -> callback.onWritten(previous));
         });
     }
 
     public void updateAnnotation(Annotation annotation) {
-        AppDatabase.databaseWriteExecutor.execute(() -> {
-            mAnnotationDao.update(annotation);
+        AppDatabase.annotationWriteExecutor.execute(() -> {
+            mDatabase.runInTransaction(() -> {
+                mAnnotationDao.update(annotation);
+                mPhotoDao.bumpAnnotationVersion(annotation.photoId);
+            });
         });
     }
 
     public void deleteAnnotation(Annotation annotation) {
-        AppDatabase.databaseWriteExecutor.execute(() -> {
-            mAnnotationDao.delete(annotation);
+        AppDatabase.annotationWriteExecutor.execute(() -> {
+            mDatabase.runInTransaction(() -> {
+                mAnnotationDao.delete(annotation);
+                mPhotoDao.bumpAnnotationVersion(annotation.photoId);
+            });
         });
     }
 
-    // For Undo/Redo or bulk updates, we might need to replace all annotations for a
-    // photo
+    // For Undo/Redo or bulk updates: makes the stored annotations of a photo match the
+    // given list, writing only the rows that differ in one transaction so observers see
+    // a single change instead of an empty list followed by the new one
     public void replaceAnnotationsForPhoto(long photoId, List<Annotation> annotations) {
-        AppDatabase.databaseWriteExecutor.execute(() -> {
-            mAnnotationDao.deleteAllForPhoto(photoId);
-            mAnnotationDao.insertAll(annotations);
+        AppDatabase.annotationWriteExecutor.execute(() -> {
+            mDatabase.runInTransaction(() -> {
+                List<Annotation> current = mAnnotationDao.getAnnotationsForPhotoSync(photoId);
+                writeDiff(AnnotationDiff.compute(current, annotations));
+            });
+        });
+    }
+
+    // Applies a precomputed set of row changes in one transaction
+    public void applyAnnotationDiff(AnnotationDiff diff) {
+        if (diff.isEmpty())
+            return;
+        AppDatabase.annotationWriteExecutor.execute(() -> {
+            mDatabase.runInTransaction(() -> writeDiff(diff));
         });
     }
+
+    private void writeDiff(AnnotationDiff diff) {
+        if (!diff.deletes.isEmpty())
+            mAnnotationDao.deleteAll(diff.deletes);
+        if (!diff.updates.isEmpty())
+            mAnnotationDao.updateAll(diff.updates);
+        if (!diff.inserts.isEmpty())
+            mAnnotationDao.insertAll(diff.inserts);
+        Set<Long> photoIds = new HashSet<>();
+        collectPhotoIds(diff.deletes, photoIds);
+        if (diff.updatesChangeDrawing)
+            collectPhotoIds(diff.updates, photoIds);
+        collectPhotoIds(diff.inserts, photoIds);
+        for (long photoId : photoIds) {
+            mPhotoDao.bumpAnnotationVersion(photoId);
+        }
+    }
+
+    private static void collectPhotoIds(List<Annotation> annotations, Set<Long> photoIds) {
+        for (Annotation a : annotations) {
+            photoIds.add(a.photoId);
+        }
+    }
 }
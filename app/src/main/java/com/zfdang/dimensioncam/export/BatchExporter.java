@@ -0,0 +1,290 @@
+package com.zfdang.dimensioncam.export;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports many photos through a three-stage pipeline: decode, draw annotations, then JPEG encode and
+ * MediaStore write. Stages are linked by bounded queues, so decoding the next photo overlaps encoding
+ * the previous one.
+ * <p>
+ * Every bitmap holds one of ExportScheduler's memory slots from decode until it is recycled, so a
+ * batch shares the export memory budget with single exports and writes each photo at the same size
+ * a single export would. Started through ExportScheduler.startBatch.
+ */
+public class BatchExporter {
+    private static final String TAG = "BatchExporter";
+
+    private static final Item END = new Item(null, null);
+
+    private static final class Item {
+        final Photo photo;
+        final PhotoExporter.Decoded decoded;
+        final Bitmap bitmap;
+
+        Item(Photo photo, PhotoExporter.Decoded decoded) {
+            this.photo = photo;
+            this.decoded = decoded;
+            this.bitmap = decoded != null ? decoded.bitmap : null;
+        }
+    }
+
+    private final Context context;
+    private final ExportScheduler scheduler;
+    private final int parallelism;
+    private final List<Photo> photos;
+    private final RenderStyle style;
+    private final float maxScaleFactor;
+    private final PhotoExporter exporter;
+
+    private final BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(1);
+    private final BlockingQueue<Item> rendered = new ArrayBlockingQueue<>(1);
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger runningDecoders = new AtomicInteger();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger downscaled = new AtomicInteger();
+    private final AtomicInteger processed = new AtomicInteger();
+    private volatile boolean cancelled;
+    private ExecutorService executor;
+    private long startedAt;
+    private volatile float throughput;
+
+    private final MutableLiveData<Integer> state = new MutableLiveData<>(ExportJob.STATE_QUEUED);
+    private final MutableLiveData<Integer> progress = new MutableLiveData<>(0);
+
+    private final PhotoExporter.Progress cancelCheck = new PhotoExporter.Progress() {
+        @Override
+        public void onProgress(float fraction) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    };
+
+    // parallelism is the number of concurrent decoders; render and encode run one at a time. style
+    // is resolved by the caller from a localized context, since this class only keeps the
+    // application context
+    BatchExporter(Context context, ExportScheduler scheduler, List<Photo> photos, RenderStyle style,
+            float maxScaleFactor, int parallelism) {
+        this.context = context.getApplicationContext();
+        this.scheduler = scheduler;
+        this.photos = new ArrayList<>(photos);
+        this.style = style;
+        this.maxScaleFactor = maxScaleFactor;
+        this.parallelism = Math.max(1, parallelism);
+        this.exporter = new PhotoExporter(this.context, ExportScheduler.slotMemoryBudget(),
+                PhotoExporter.DEFAULT_STRIP_HEIGHT);
+    }
+
+    // Decoders left after reserving cores for render and encode. More decoders than memory slots
+    // would only wait for a slot, so the slot count caps it
+    public static int defaultParallelism() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores - 2, ExportScheduler.MEMORY_SLOTS));
+    }
+
+    // One of the ExportJob.STATE_* constants
+    public LiveData<Integer> getState() {
+        return state;
+    }
+
+    // Number of photos finished so far, successful, failed or skipped by cancel
+    public LiveData<Integer> getProgress() {
+        return progress;
+    }
+
+    public int getPhotoCount() {
+        return photos.size();
+    }
+
+    public int getSucceededCount() {
+        return succeeded.get();
+    }
+
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    // Photos written below full resolution to fit in memory
+    public int getDownscaledCount() {
+        return downscaled.get();
+    }
+
+    // Photos per second of the finished batch
+    public float getThroughput() {
+        return throughput;
+    }
+
+    void start() {
+        startedAt = SystemClock.elapsedRealtime();
+        state.setValue(ExportJob.STATE_RUNNING);
+        executor = Executors.newFixedThreadPool(parallelism + 2, r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "batch-export"));
+        runningDecoders.set(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            executor.execute(this::decodeStage);
+        }
+        executor.execute(this::renderStage);
+        executor.execute(this::encodeStage);
+        executor.shutdown();
+    }
+
+    // Photos already written stay in the gallery; the rest are skipped
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void decodeStage() {
+        try {
+            int index;
+            while (!cancelled && (index = nextIndex.getAndIncrement()) < photos.size()) {
+                Photo photo = photos.get(index);
+                scheduler.acquireMemorySlot(cancelCheck);
+                PhotoExporter.Decoded result = null;
+                try {
+                    result = exporter.decode(photo, cancelCheck);
+                } catch (CancellationException e) {
+                    scheduler.releaseMemorySlot();
+                    break;
+                } catch (Exception | OutOfMemoryError e) {
+                    Log.e(TAG, "Decoding photo " + photo.id + " failed", e);
+                }
+                if (result == null)
+                    scheduler.releaseMemorySlot();
+                decoded.put(new Item(photo, result));
+            }
+        } catch (CancellationException e) {
+            // Cancelled while waiting for a memory slot
+        } catch (InterruptedException e) {
+            cancelled = true;
+        } finally {
+            // The last decoder to finish closes the stage
+            if (runningDecoders.decrementAndGet() == 0) {
+                putQuietly(decoded, END);
+            }
+        }
+    }
+
+    private void renderStage() {
+        try {
+            while (true) {
+                Item item = decoded.take();
+                if (item == END)
+                    break;
+                if (item.bitmap == null) {
+                    failed.incrementAndGet();
+                    finishItem(item);
+                    continue;
+                }
+                if (cancelled) {
+                    finishItem(item);
+                    continue;
+                }
+                try {
+                    List<Annotation> annotations = AppDatabase.getDatabase(context).annotationDao()
+                            .getAnnotationsForPhotoSync(item.photo.id);
+                    exporter.drawAnnotations(item.bitmap, annotations, style, maxScaleFactor);
+                    rendered.put(item);
+                } catch (InterruptedException e) {
+                    finishItem(item);
+                    throw e;
+                } catch (Exception e) {
+                    Log.e(TAG, "Drawing photo " + item.photo.id + " failed", e);
+                    failed.incrementAndGet();
+                    finishItem(item);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+        } finally {
+            putQuietly(rendered, END);
+        }
+    }
+
+    private void encodeStage() {
+        try {
+            while (true) {
+                Item item = rendered.take();
+                if (item == END)
+                    break;
+                if (!cancelled) {
+                    try {
+                        exporter.save(item.photo, item.bitmap);
+                        succeeded.incrementAndGet();
+                        if (item.decoded.sampleSize > 1)
+                            downscaled.incrementAndGet();
+                    } catch (Exception e) {
+                        Log.e(TAG, "Saving photo " + item.photo.id + " failed", e);
+                        failed.incrementAndGet();
+                    }
+                }
+                finishItem(item);
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+        } finally {
+            finishBatch();
+        }
+    }
+
+    // Gives back the bitmap and its memory slot
+    private void finishItem(Item item) {
+        if (item.bitmap != null) {
+            item.bitmap.recycle();
+            scheduler.releaseMemorySlot();
+        }
+        progress.postValue(processed.incrementAndGet());
+    }
+
+    private void finishBatch() {
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startedAt);
+        throughput = succeeded.get() * 1000f / elapsed;
+        Log.i(TAG, "Exported " + succeeded.get() + "/" + photos.size() + " photos in " + elapsed + " ms ("
+                + throughput + " photos/s, " + parallelism + " decoders)");
+        scheduler.onBatchFinished(this);
+        if (cancelled) {
+            state.postValue(ExportJob.STATE_CANCELLED);
+        } else if (failed.get() > 0) {
+            state.postValue(ExportJob.STATE_FAILED);
+        } else {
+            state.postValue(ExportJob.STATE_SUCCEEDED);
+        }
+    }
+
+    private static void putQuietly(BlockingQueue<Item> queue, Item item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.zfdang.dimensioncam.export;
+
+import android.os.SystemClock;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.concurrent.Future;
+
+public class ExportJob implements PhotoExporter.Progress {
+    public static final int STATE_QUEUED = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_SUCCEEDED = 2;
+    public static final int STATE_FAILED = 3;
+    public static final int STATE_CANCELLED = 4;
+
+    private final long photoId;
+    private final long enqueuedAt;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile boolean cancelled;
+    private volatile int lastPercent = -1;
+    private volatile int sampleSize = 1;
+    private Future<?> future;
+
+    private final MutableLiveData<Integer> state = new MutableLiveData<>(STATE_QUEUED);
+    private final MutableLiveData<Integer> progress = new MutableLiveData<>(0);
+
+    ExportJob(long photoId) {
+        this.photoId = photoId;
+        this.enqueuedAt = SystemClock.elapsedRealtime();
+    }
+
+    public long getPhotoId() {
+        return photoId;
+    }
+
+    // One of the STATE_* constants
+    public LiveData<Integer> getState() {
+        return state;
+    }
+
+    // Percentage 0-100
+    public LiveData<Integer> getProgress() {
+        return progress;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean hasStarted() {
+        return startedAt != 0;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != 0;
+    }
+
+    // Power-of-two factor the written image was reduced by to fit in memory, 1 for full size
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    // Time spent waiting in the queue, in ms
+    public long getQueueLatency() {
+        return startedAt == 0 ? 0 : startedAt - enqueuedAt;
+    }
+
+    // Time from submission to completion, in ms
+    public long getTotalLatency() {
+        return finishedAt == 0 ? 0 : finishedAt - enqueuedAt;
+    }
+
+    @Override
+    public void onProgress(float fraction) {
+        int percent = Math.round(Math.max(0f, Math.min(1f, fraction)) * 100);
+        // Only post when the visible value changes
+        if (percent != lastPercent) {
+            lastPercent = percent;
+            progress.postValue(percent);
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+        Future<?> f;
+        synchronized (this) {
+            f = future;
+        }
+        // Queued jobs are dropped by the executor, running jobs stop at the next strip
+        if (f != null)
+            f.cancel(false);
+    }
+
+    void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    synchronized void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    void markStarted() {
+        startedAt = SystemClock.elapsedRealtime();
+        state.postValue(STATE_RUNNING);
+    }
+
+    // Returns false if the job had already finished
+    synchronized boolean markFinished(int finalState) {
+        if (finishedAt != 0)
+            return false;
+        if (startedAt == 0)
+            startedAt = SystemClock.elapsedRealtime();
+        finishedAt = SystemClock.elapsedRealtime();
+        if (finalState == STATE_SUCCEEDED)
+            onProgress(1f);
+        state.postValue(finalState);
+        return true;
+    }
+}
@@ -0,0 +1,243 @@
+package com.zfdang.dimensioncam.export;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs photo exports on a small, low-priority pool of their own so long JPEG encodes never
+ * hold up Room writes on AppDatabase.databaseWriteExecutor.
+ */
+public class ExportScheduler {
+    private static final String TAG = "ExportScheduler";
+
+    // Exports are memory heavy, so only a couple run at once
+    private static final int NUMBER_OF_THREADS = 2;
+    // Further submissions are refused until the queue drains
+    private static final int MAX_QUEUED_JOBS = 8;
+    // The export memory budget is split into this many equal slots, one per bitmap being exported
+    static final int MEMORY_SLOTS = NUMBER_OF_THREADS;
+    // How often a job waiting for a memory slot checks for cancellation
+    private static final long SLOT_POLL_MS = 200;
+
+    private static volatile ExportScheduler INSTANCE;
+
+    private final Context context;
+    private final ThreadPoolExecutor executor;
+    // Pending or running job per photo id, guarded by this
+    private final Map<Long, ExportJob> activeJobs = new HashMap<>();
+    // Held from decode until the bitmap is recycled, by scheduled jobs and batch exports alike
+    private final Semaphore memorySlots = new Semaphore(MEMORY_SLOTS, true);
+    // Kept here rather than in the screen that started it, so it outlives configuration changes
+    private volatile BatchExporter currentBatch;
+
+    private final MutableLiveData<Integer> queueDepth = new MutableLiveData<>(0);
+    private final AtomicInteger completedJobs = new AtomicInteger();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private volatile long lastLatency;
+
+    public static ExportScheduler getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (ExportScheduler.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ExportScheduler(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private ExportScheduler(Context context) {
+        this.context = context;
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, "export-" + count.incrementAndGet());
+            }
+        };
+        executor = new ThreadPoolExecutor(NUMBER_OF_THREADS, NUMBER_OF_THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_JOBS), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Returns the job for this photo, reusing a pending one, or null when the queue is full. The style
+    // must come from the activity context, which carries the in-app language; the scheduler only
+    // holds the application context
+    public ExportJob submit(Photo photo, RenderStyle style, float maxScaleFactor) {
+        ExportJob job;
+        synchronized (this) {
+            ExportJob existing = activeJobs.get(photo.id);
+            if (existing != null)
+                return existing;
+
+            job = new ExportJob(photo.id);
+            final ExportJob newJob = job;
+            try {
+                job.setFuture(executor.submit(() -> run(newJob, photo, style, maxScaleFactor)));
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Export queue full, rejecting photo " + photo.id);
+                return null;
+            }
+            activeJobs.put(photo.id, job);
+        }
+        updateQueueDepth();
+        return job;
+    }
+
+    // Starts a batch export, or returns null while another batch is still running. Must be called on
+    // the main thread; the style is captured once and used for every photo of the batch
+    public BatchExporter startBatch(List<Photo> photos, RenderStyle style, float maxScaleFactor) {
+        if (currentBatch != null)
+            return null;
+        BatchExporter batch = new BatchExporter(context, this, photos, style, maxScaleFactor,
+                BatchExporter.defaultParallelism());
+        currentBatch = batch;
+        batch.start();
+        return batch;
+    }
+
+    // The running batch export, or null
+    public BatchExporter getCurrentBatch() {
+        return currentBatch;
+    }
+
+    void onBatchFinished(BatchExporter batch) {
+        if (currentBatch == batch)
+            currentBatch = null;
+    }
+
+    public synchronized boolean isPending(long photoId) {
+        return activeJobs.containsKey(photoId);
+    }
+
+    public void cancel(long photoId) {
+        ExportJob job;
+        synchronized (this) {
+            job = activeJobs.get(photoId);
+        }
+        if (job == null)
+            return;
+        job.cancel();
+        // A queued job never reaches run(), so finish it here; a running one stops at its next strip
+        if (!job.hasStarted()) {
+            executor.purge();
+            finish(job, ExportJob.STATE_CANCELLED);
+        }
+    }
+
+    // Memory one export may use. Every export gets the same share, so the output size of a photo
+    // does not depend on how many exports run next to it
+    public static long slotMemoryBudget() {
+        return PhotoExporter.defaultMemoryBudget() / MEMORY_SLOTS;
+    }
+
+    // Blocks until a memory slot is free. Throws CancellationException once progress is cancelled
+    void acquireMemorySlot(PhotoExporter.Progress progress) throws InterruptedException {
+        while (!memorySlots.tryAcquire(SLOT_POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (progress.isCancelled())
+                throw new CancellationException();
+        }
+    }
+
+    void releaseMemorySlot() {
+        memorySlots.release();
+    }
+
+    // Number of jobs waiting or running
+    public LiveData<Integer> getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getCompletedJobCount() {
+        return completedJobs.get();
+    }
+
+    // Submission-to-completion time of the most recent job, in ms
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    public long getAverageLatency() {
+        int count = completedJobs.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    private void run(ExportJob job, Photo photo, RenderStyle style, float maxScaleFactor) {
+        if (job.isCancelled()) {
+            finish(job, ExportJob.STATE_CANCELLED);
+            return;
+        }
+        job.markStarted();
+        int finalState;
+        try {
+            List<Annotation> annotations = AppDatabase.getDatabase(context).annotationDao()
+                    .getAnnotationsForPhotoSync(photo.id);
+            PhotoExporter exporter = new PhotoExporter(context, slotMemoryBudget(),
+                    PhotoExporter.DEFAULT_STRIP_HEIGHT);
+            acquireMemorySlot(job);
+            try {
+                job.setSampleSize(exporter.export(photo, annotations, style, maxScaleFactor, job));
+            } finally {
+                releaseMemorySlot();
+            }
+            finalState = ExportJob.STATE_SUCCEEDED;
+        } catch (CancellationException | InterruptedException e) {
+            finalState = ExportJob.STATE_CANCELLED;
+        } catch (Exception | OutOfMemoryError e) {
+            Log.e(TAG, "Export of photo " + photo.id + " failed", e);
+            finalState = ExportJob.STATE_FAILED;
+        }
+        finish(job, finalState);
+    }
+
+    private void finish(ExportJob job, int finalState) {
+        if (!job.markFinished(finalState))
+            return;
+        synchronized (this) {
+            if (activeJobs.get(job.getPhotoId()) == job)
+                activeJobs.remove(job.getPhotoId());
+        }
+        if (finalState == ExportJob.STATE_SUCCEEDED) {
+            lastLatency = job.getTotalLatency();
+            totalLatency.addAndGet(lastLatency);
+            completedJobs.incrementAndGet();
+        }
+        Log.d(TAG, "Export of photo " + job.getPhotoId() + " finished in state " + finalState
+                + ", waited " + job.getQueueLatency() + " ms, total " + job.getTotalLatency() + " ms");
+        updateQueueDepth();
+    }
+
+    private void updateQueueDepth() {
+        int depth;
+        synchronized (this) {
+            depth = activeJobs.size();
+        }
+        queueDepth.postValue(depth);
+    }
+}
@@ -0,0 +1,265 @@
+package com.zfdang.dimensioncam.export;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.provider.MediaStore;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.annotation.AnnotationRenderer;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+import com.zfdang.dimensioncam.utils.Constants;
+import com.zfdang.dimensioncam.utils.ImageOrientation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Renders an annotated photo for export without holding a second full-size copy of the original.
+ * The source is decoded in horizontal strips with BitmapRegionDecoder, and the output resolution is
+ * chosen so the output bitmap plus one strip always fits in the memory budget.
+ * <p>
+ * Bitmap.compress only encodes a whole bitmap, so finished strips cannot be streamed into the JPEG
+ * encoder. A source too large for the budget is exported at a reduced size instead, and the sample
+ * size is returned so callers can tell the user.
+ */
+public class PhotoExporter {
+
+    // Height of one decoded strip, in output pixels
+    public static final int DEFAULT_STRIP_HEIGHT = 256;
+
+    // Rough share of total export time spent in each step, for progress reporting
+    private static final float DECODE_SHARE = 0.6f;
+    private static final float DRAW_SHARE = 0.05f;
+
+    // Progress sink for long exports; isCancelled() is polled between strips
+    public interface Progress {
+        void onProgress(float fraction);
+
+        boolean isCancelled();
+    }
+
+    static final Progress NO_PROGRESS = new Progress() {
+        @Override
+        public void onProgress(float fraction) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    // A decoded upright photo and the power-of-two factor it was reduced by to fit the budget
+    public static final class Decoded {
+        public final Bitmap bitmap;
+        public final int sampleSize;
+
+        Decoded(Bitmap bitmap, int sampleSize) {
+            this.bitmap = bitmap;
+            this.sampleSize = sampleSize;
+        }
+    }
+
+    // Only used for the content resolver; labels come from the RenderStyle passed in, which was
+    // built from the localized activity context
+    private final Context context;
+    private final long memoryBudget;
+    private final int stripHeight;
+
+    public PhotoExporter(Context context, long memoryBudget, int stripHeight) {
+        this.context = context.getApplicationContext();
+        this.memoryBudget = memoryBudget;
+        this.stripHeight = stripHeight;
+    }
+
+    // Total for all exports running at once; leaves most of the heap to the rest of the app
+    // (Glide caches, UI). ExportScheduler splits it between concurrent exports
+    public static long defaultMemoryBudget() {
+        return Runtime.getRuntime().maxMemory() / 3;
+    }
+
+    // Smallest power-of-two sample size whose output bitmap plus one strip fits in the budget
+    public static int computeSampleSize(int width, int height, long memoryBudget, int stripHeight) {
+        int sampleSize = 1;
+        while (true) {
+            long outWidth = (width + sampleSize - 1) / sampleSize;
+            long outHeight = (height + sampleSize - 1) / sampleSize;
+            long bytes = outWidth * (outHeight + stripHeight) * 4L;
+            if (bytes <= memoryBudget || outWidth <= 1 || outHeight <= 1) {
+                return sampleSize;
+            }
+            sampleSize *= 2;
+        }
+    }
+
+    public int export(Photo photo, List<Annotation> annotations, RenderStyle style, float maxScaleFactor)
+            throws IOException {
+        return export(photo, annotations, style, maxScaleFactor, NO_PROGRESS);
+    }
+
+    // Returns the sample size the photo was written at, 1 for full resolution.
+    // Throws CancellationException if progress reports cancellation before the image is written
+    public int export(Photo photo, List<Annotation> annotations, RenderStyle style, float maxScaleFactor,
+            Progress progress) throws IOException {
+        Decoded decoded = decode(photo, progress);
+        Bitmap bitmap = decoded.bitmap;
+        try {
+            drawAnnotations(bitmap, annotations, style, maxScaleFactor);
+            progress.onProgress(DECODE_SHARE + DRAW_SHARE);
+            checkCancelled(progress);
+            save(photo, bitmap);
+        } finally {
+            bitmap.recycle();
+        }
+        return decoded.sampleSize;
+    }
+
+    // Decodes the original into a mutable bitmap that fits the memory budget.
+    // Throws IOException if the original is missing or not a decodable image
+    public Decoded decode(Photo photo, Progress progress) throws IOException {
+        BitmapRegionDecoder decoder;
+        try (InputStream is = context.getContentResolver().openInputStream(Uri.parse(photo.originalPath))) {
+            if (is == null)
+                throw new IOException("Cannot open " + photo.originalPath);
+            decoder = BitmapRegionDecoder.newInstance(is, false);
+        }
+        if (decoder == null)
+            throw new IOException("Cannot decode " + photo.originalPath);
+
+        // Turning the result upright needs a second bitmap of the same size
+        boolean transformed = ImageOrientation.isTransformed(photo.orientation);
+        int sampleSize = computeSampleSize(decoder.getWidth(), decoder.getHeight(),
+                transformed ? memoryBudget / 2 : memoryBudget, stripHeight);
+        Bitmap bitmap;
+        try {
+            bitmap = decodeInStrips(decoder, sampleSize, progress);
+        } finally {
+            decoder.recycle();
+        }
+        if (bitmap == null)
+            throw new IOException("Cannot decode " + photo.originalPath);
+        if (!transformed)
+            return new Decoded(bitmap, sampleSize);
+        // Annotations are placed on the upright image the editor shows
+        boolean swap = ImageOrientation.swapsDimensions(photo.orientation);
+        Bitmap upright = Bitmap.createBitmap(swap ? bitmap.getHeight() : bitmap.getWidth(),
+                swap ? bitmap.getWidth() : bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        Matrix matrix = ImageOrientation.toUpright(photo.orientation, bitmap.getWidth(), bitmap.getHeight());
+        new Canvas(upright).drawBitmap(bitmap, matrix, null);
+        bitmap.recycle();
+        return new Decoded(upright, sampleSize);
+    }
+
+    public void drawAnnotations(Bitmap bitmap, List<Annotation> annotations, RenderStyle style, float maxScaleFactor) {
+        // Calculate scale factor relative to a standard screen width
+        // Use power scaling to prevent text/lines from becoming too large on high-res photos
+        float ratio = bitmap.getWidth() / Constants.STANDARD_SCREEN_WIDTH;
+        float scaleFactor = (float) Math.pow(ratio, 0.7);
+        // Limit scale factor to user-configured range [1.0, maxScaleFactor]
+        scaleFactor = Math.max(1f, Math.min(scaleFactor, maxScaleFactor));
+
+        Canvas canvas = new Canvas(bitmap);
+        RectF rect = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        AnnotationRenderer.getInstance().draw(canvas, annotations, rect, style, false, scaleFactor, false);
+    }
+
+    private Bitmap decodeInStrips(BitmapRegionDecoder decoder, int sampleSize, Progress progress) {
+        int srcWidth = decoder.getWidth();
+        int srcHeight = decoder.getHeight();
+        int outWidth = (srcWidth + sampleSize - 1) / sampleSize;
+        int outHeight = (srcHeight + sampleSize - 1) / sampleSize;
+
+        Bitmap result = Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(result);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        // Strip rows are a multiple of the sample size so strips land on exact output rows
+        int srcStripRows = stripHeight * sampleSize;
+        Rect region = new Rect();
+        Rect src = new Rect();
+        Rect dst = new Rect();
+        Bitmap strip = null;
+        for (int top = 0; top < srcHeight; top += srcStripRows) {
+            if (progress.isCancelled()) {
+                result.recycle();
+                if (strip != null)
+                    strip.recycle();
+                throw new CancellationException();
+            }
+            region.set(0, top, srcWidth, Math.min(srcHeight, top + srcStripRows));
+            // Reuse the previous strip's pixels; the last strip may be shorter than the buffer
+            options.inBitmap = strip;
+            strip = decoder.decodeRegion(region, options);
+            if (strip == null) {
+                result.recycle();
+                return null;
+            }
+            int outTop = top / sampleSize;
+            int rows = Math.min(strip.getHeight(), outHeight - outTop);
+            int cols = Math.min(strip.getWidth(), outWidth);
+            src.set(0, 0, cols, rows);
+            dst.set(0, outTop, cols, outTop + rows);
+            canvas.drawBitmap(strip, src, dst, null);
+            progress.onProgress(DECODE_SHARE * Math.min(srcHeight, top + srcStripRows) / srcHeight);
+        }
+        if (strip != null)
+            strip.recycle();
+        return result;
+    }
+
+    private static void checkCancelled(Progress progress) {
+        if (progress.isCancelled())
+            throw new CancellationException();
+    }
+
+    // Encodes the bitmap as JPEG into the gallery; throws IOException if nothing was written
+    public void save(Photo photo, Bitmap bitmap) throws IOException {
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        // Photo id keeps names unique when a batch finishes several exports within a second
+        String fileName = "DimensionCam_" + timeStamp + "_" + photo.id + ".jpg";
+
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, fileName);
+        values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            values.put(MediaStore.Images.Media.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + "/DimensionCam");
+        }
+
+        ContentResolver resolver = context.getContentResolver();
+        Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null)
+            throw new IOException("MediaStore did not create " + fileName);
+
+        try (OutputStream os = resolver.openOutputStream(uri)) {
+            if (os == null)
+                throw new IOException("Cannot open " + uri);
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, 100, os))
+                throw new IOException("Encoding " + fileName + " failed");
+        } catch (IOException | RuntimeException e) {
+            // Don't leave an empty entry in the gallery
+            resolver.delete(uri, null, null);
+            throw e;
+        }
+    }
+}
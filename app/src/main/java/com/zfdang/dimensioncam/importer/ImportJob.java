@@ -0,0 +1,65 @@
+package com.zfdang.dimensioncam.importer;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Progress and outcome of importing one or more images
+public class ImportJob {
+    public static final int STATE_RUNNING = 0;
+    public static final int STATE_SUCCEEDED = 1;
+    public static final int STATE_FAILED = 2;
+
+    private final int total;
+    private final AtomicInteger finished = new AtomicInteger();
+    private volatile int importedCount;
+    private volatile int duplicateCount;
+
+    private final MutableLiveData<Integer> state = new MutableLiveData<>(STATE_RUNNING);
+    private final MutableLiveData<Integer> progress = new MutableLiveData<>(0);
+
+    ImportJob(int total) {
+        this.total = total;
+    }
+
+    // One of the STATE_* constants; FAILED only when nothing could be imported
+    public LiveData<Integer> getState() {
+        return state;
+    }
+
+    // Percentage 0-100 of the images copied so far
+    public LiveData<Integer> getProgress() {
+        return progress;
+    }
+
+    public int getTotalCount() {
+        return total;
+    }
+
+    // Photos inserted, once finished
+    public int getImportedCount() {
+        return importedCount;
+    }
+
+    // Images that were already stored, once finished; their new photos share the existing file
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    // Byte-level progress, only reported for single-image imports
+    void onBytesCopied(long copied, long size) {
+        if (total == 1 && size > 0)
+            progress.postValue((int) Math.min(99, copied * 100 / size));
+    }
+
+    void onFinishedOne() {
+        progress.postValue(finished.incrementAndGet() * 100 / total);
+    }
+
+    void finish(int importedCount, int duplicateCount) {
+        this.importedCount = importedCount;
+        this.duplicateCount = duplicateCount;
+        state.postValue(importedCount > 0 ? STATE_SUCCEEDED : STATE_FAILED);
+    }
+}
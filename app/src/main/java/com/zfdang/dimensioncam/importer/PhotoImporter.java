@@ -0,0 +1,340 @@
+package com.zfdang.dimensioncam.importer;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.data.Repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies picked images into app storage off the main thread, a few at a time. Files are named by
+ * the SHA-256 of their content, computed while copying, so importing the same picture again reuses
+ * the stored file. Photo rows are the references: the file is deleted with the last row pointing
+ * at it. Copies are staged in the cache dir and only moved to their name together with inserting
+ * the rows, under Repository.STORED_FILES_LOCK, so a delete never removes a file a new row uses.
+ */
+public class PhotoImporter {
+    private static final String TAG = "PhotoImporter";
+
+    // Large reads keep the number of channel calls low for multi-megabyte photos
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // Copies are I/O bound; a few in parallel hide per-file latency of content providers
+    private static final int NUMBER_OF_THREADS = 3;
+    // EXIF sits in the first segments of a JPEG; parsed from the copy buffer instead of a second read
+    private static final int EXIF_PREFIX_SIZE = 128 * 1024;
+
+    private static volatile PhotoImporter INSTANCE;
+
+    private final Context context;
+    private final ExecutorService executor;
+
+    // Result of copying one image into storage, with the metadata cached on its photo row
+    static final class StoredFile {
+        final File file;
+        // Copy waiting to be moved to file, or null when the file is already in place
+        final File staged;
+        long captureTime;
+        int orientation = ExifInterface.ORIENTATION_UNDEFINED;
+        int width;
+        int height;
+        long fileSize;
+
+        StoredFile(File file, File staged) {
+            this.file = file;
+            this.staged = staged;
+        }
+
+        Photo toPhoto(long createdAt) {
+            Photo photo = new Photo(Uri.fromFile(file).toString(), createdAt);
+            photo.captureTime = captureTime;
+            photo.orientation = orientation;
+            photo.width = width;
+            photo.height = height;
+            photo.fileSize = fileSize;
+            return photo;
+        }
+    }
+
+    public static PhotoImporter getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (PhotoImporter.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new PhotoImporter(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private PhotoImporter(Context context) {
+        this.context = context;
+        this.executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS, r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "import"));
+    }
+
+    public ImportJob importPhoto(Uri source) {
+        return importPhotos(Collections.singletonList(source));
+    }
+
+    // Copies the images in parallel, then inserts all photo rows in one transaction
+    public ImportJob importPhotos(List<Uri> sources) {
+        ImportJob job = new ImportJob(sources.size());
+        if (sources.isEmpty()) {
+            job.finish(0, 0);
+            return job;
+        }
+        long start = SystemClock.elapsedRealtime();
+        StoredFile[] results = new StoredFile[sources.size()];
+        AtomicInteger remaining = new AtomicInteger(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            final int index = i;
+            final Uri source = sources.get(i);
+            executor.execute(() -> {
+                try {
+                    StoredFile stored = store(source, job);
+                    synchronized (results) {
+                        results[index] = stored;
+                    }
+                    job.onFinishedOne();
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Importing " + source + " failed", e);
+                    job.onFinishedOne();
+                }
+                // The last copy to finish writes the rows
+                if (remaining.decrementAndGet() == 0) {
+                    insertPhotos(job, results, start);
+                }
+            });
+        }
+        return job;
+    }
+
+    private void insertPhotos(ImportJob job, StoredFile[] results, long start) {
+        List<Photo> photos = new ArrayList<>();
+        // Files moved in by this import, removed again if the rows cannot be written
+        List<File> placed = new ArrayList<>();
+        int duplicates = 0;
+        long now = System.currentTimeMillis();
+        // Whether a file is already stored is decided here rather than while copying, since a
+        // delete may remove it in between
+        synchronized (Repository.STORED_FILES_LOCK) {
+            synchronized (results) {
+                for (int i = 0; i < results.length; i++) {
+                    StoredFile stored = results[i];
+                    if (stored == null)
+                        continue;
+                    try {
+                        if (place(stored)) {
+                            placed.add(stored.file);
+                        } else {
+                            duplicates++;
+                        }
+                    } catch (IOException e) {
+                        Log.e(TAG, "Storing " + stored.file.getName() + " failed", e);
+                        continue;
+                    }
+                    // Later picks sort as newer, keeping the picked order in the list
+                    photos.add(stored.toPhoto(now + i));
+                }
+            }
+            try {
+                if (!photos.isEmpty())
+                    AppDatabase.getDatabase(context).photoDao().insertAll(photos);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Inserting imported photos failed", e);
+                for (File file : placed) {
+                    if (!file.delete())
+                        Log.w(TAG, "Failed to delete " + file);
+                }
+                job.finish(0, 0);
+                return;
+            }
+        }
+        Log.d(TAG, "Imported " + photos.size() + "/" + results.length + " images in "
+                + (SystemClock.elapsedRealtime() - start) + " ms, " + duplicates + " already stored");
+        job.finish(photos.size(), duplicates);
+    }
+
+    // Moves the staged copy to its content name; false if that content is already stored
+    private static boolean place(StoredFile stored) throws IOException {
+        if (stored.file.exists()) {
+            if (!stored.staged.delete())
+                Log.w(TAG, "Failed to delete " + stored.staged);
+            return false;
+        }
+        if (!stored.staged.renameTo(stored.file)) {
+            stored.staged.delete();
+            throw new IOException("Cannot rename " + stored.staged + " to " + stored.file);
+        }
+        return true;
+    }
+
+    // Copies the image into the staging dir, hashing it on the way, and returns it with the
+    // content-named file it goes to
+    StoredFile store(Uri source, ImportJob job) throws IOException {
+        File dir = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        if (dir == null)
+            throw new IOException("External files dir unavailable");
+        // Same volume as dir, so the copy can be renamed into place; leftovers are the system's
+        // to clear
+        File stagingDir = context.getExternalCacheDir();
+        if (stagingDir == null)
+            stagingDir = dir;
+        ContentResolver resolver = context.getContentResolver();
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(source, "r");
+        if (pfd == null)
+            throw new FileNotFoundException(source.toString());
+
+        MessageDigest digest = sha256();
+        long start = SystemClock.elapsedRealtime();
+        long total = pfd.getStatSize();
+        long copied = 0;
+        byte[] prefix = new byte[EXIF_PREFIX_SIZE];
+        int prefixLength = 0;
+        File tmp = File.createTempFile("import_", ".tmp", stagingDir);
+        // Bytes pass through our buffer rather than transferFrom so they can be hashed in the same pass
+        try (FileInputStream fis = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+                FileChannel in = fis.getChannel();
+                FileOutputStream fos = new FileOutputStream(tmp);
+                FileChannel out = fos.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer.array(), 0, buffer.position());
+                if (prefixLength < prefix.length) {
+                    int n = Math.min(prefix.length - prefixLength, buffer.position());
+                    System.arraycopy(buffer.array(), 0, prefix, prefixLength, n);
+                    prefixLength += n;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+                copied += read;
+                job.onBytesCopied(copied, total);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!tmp.delete())
+                Log.w(TAG, "Failed to delete " + tmp);
+            throw e;
+        }
+
+        File dest = new File(dir, toHex(digest.digest()) + "." + extensionOf(source));
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        Log.d(TAG, "Copied " + copied + " bytes in " + elapsed + " ms (" + (copied / 1024 * 1000 / elapsed)
+                + " KB/s)");
+        StoredFile stored = new StoredFile(dest, tmp);
+        readMetadata(stored, tmp, prefix, prefixLength, copied);
+        return stored;
+    }
+
+    // Adds a photo the camera wrote straight into storage, reading its metadata first
+    public void addCapturedPhoto(File file, long createdAt) {
+        executor.execute(() -> {
+            StoredFile stored = new StoredFile(file, null);
+            readMetadata(stored, file, new byte[0], 0, file.length());
+            try {
+                AppDatabase.getDatabase(context).photoDao().insert(stored.toPhoto(createdAt));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Adding " + file.getName() + " failed", e);
+            }
+        });
+    }
+
+    // Fills in EXIF date and orientation plus the pixel size, preferring the bytes already in memory
+    // over reading file
+    private static void readMetadata(StoredFile stored, File file, byte[] prefix, int prefixLength, long fileSize) {
+        stored.fileSize = fileSize;
+        ExifInterface exif = readExif(prefix, prefixLength, file);
+        if (exif != null) {
+            Long dateTime = exif.getDateTimeOriginal();
+            if (dateTime == null)
+                dateTime = exif.getDateTime();
+            stored.captureTime = dateTime != null ? dateTime : 0;
+            stored.orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_UNDEFINED);
+        }
+
+        // The JPEG frame header usually follows EXIF within the prefix; only the header is parsed
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (prefixLength > 0)
+            BitmapFactory.decodeByteArray(prefix, 0, prefixLength, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            BitmapFactory.decodeFile(file.getPath(), options);
+        stored.width = Math.max(0, options.outWidth);
+        stored.height = Math.max(0, options.outHeight);
+    }
+
+    // Parses EXIF from the start of the file, falling back to the copied file when the header runs
+    // past the prefix or the format keeps metadata elsewhere
+    private static ExifInterface readExif(byte[] prefix, int length, File file) {
+        if (length > 0) {
+            try {
+                return new ExifInterface(new ByteArrayInputStream(prefix, 0, length));
+            } catch (IOException | RuntimeException e) {
+                // Fall through
+            }
+        }
+        try {
+            return new ExifInterface(file);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "No EXIF in " + file.getName());
+            return null;
+        }
+    }
+
+    private String extensionOf(Uri source) {
+        String type = context.getContentResolver().getType(source);
+        String extension = type != null ? MimeTypeMap.getSingleton().getExtensionFromMimeType(type) : null;
+        return extension != null ? extension : "jpg";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+}
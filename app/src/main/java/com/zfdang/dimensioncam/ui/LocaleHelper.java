@@ -11,7 +11,7 @@ import java.util.Locale;
 public class LocaleHelper {
 
     public static Context onAttach(Context context) {
-        String lang = new SettingsManager(context).getLanguage();
+        String lang = SettingsManager.getInstance(context).getLanguage();
         return setLocale(context, lang);
     }
 
@@ -1,25 +1,59 @@
 package com.zfdang.dimensioncam.ui.annotation;
 
-import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 
 import com.zfdang.dimensioncam.data.Annotation;
 import com.zfdang.dimensioncam.ui.settings.SettingsManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-public class AnnotationDrawer {
+// Not thread-safe: Paint state changes while drawing. Use it through AnnotationRenderer.
+class AnnotationDrawer {
+    // Labels below this on-screen size (in pixels) are unreadable specks. A label is also dropped
+    // when its line is shorter than the text is tall, since it would only cover the line.
+    private static final float MIN_LABEL_TEXT_SIZE = 12f;
+    // Lines shorter than this (in on-screen pixels) are grouped per cell of this size when zoomed out
+    private static final float CLUSTER_CELL_SIZE = 48f;
+    private static final float CLUSTER_BADGE_RADIUS = 18f;
+    private static final String[] COUNT_LABELS = new String[100];
+
+    static {
+        for (int i = 0; i < COUNT_LABELS.length; i++) {
+            COUNT_LABELS[i] = Integer.toString(i);
+        }
+    }
 
-    private Context context;
     private Paint paint;
     private Paint textPaint;
     private Paint controlPointPaint;
+    // Cached per-annotation render values, indexed by list position
+    private final ArrayList<AnnotationRenderModel> models = new ArrayList<>();
+    // Normalized endpoints (startX, startY, endX, endY per annotation) and their mapped positions
+    private float[] points = new float[0];
+    private float[] mappedPoints = new float[0];
+    // Normalized image space to canvas space, rebuilt from the display rect once per draw
+    private final Matrix displayMatrix = new Matrix();
+    // Overlay level of detail
+    private final Rect clipBounds = new Rect();
+    private final ClusterGrid clusters = new ClusterGrid();
+    private final Paint clusterPaint;
+    private final Paint clusterTextPaint;
+    // Labels are blitted from LabelCache; labelPaint only draws into new label bitmaps
+    private final LabelCache labelCache = LabelCache.getInstance();
+    private final LabelCache.Key labelKey = new LabelCache.Key();
+    private final Paint labelPaint;
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF labelRect = new RectF();
 
-    public AnnotationDrawer(Context context) {
-        this.context = context;
+    AnnotationDrawer() {
         paint = new Paint();
         paint.setAntiAlias(true);
         paint.setStyle(Paint.Style.STROKE);
@@ -38,127 +72,257 @@ public class AnnotationDrawer {
         controlPointPaint.setColor(Color.YELLOW);
         controlPointPaint.setStyle(Paint.Style.FILL);
         controlPointPaint.setAlpha(150);
+
+        clusterPaint = new Paint();
+        clusterPaint.setAntiAlias(true);
+        clusterPaint.setColor(Color.BLACK);
+        clusterPaint.setStyle(Paint.Style.FILL);
+        clusterPaint.setAlpha(160);
+
+        labelPaint = new Paint();
+        labelPaint.setAntiAlias(true);
+        labelPaint.setStyle(Paint.Style.FILL);
+        labelPaint.setTextAlign(Paint.Align.CENTER);
+
+        clusterTextPaint = new Paint();
+        clusterTextPaint.setAntiAlias(true);
+        clusterTextPaint.setColor(Color.WHITE);
+        clusterTextPaint.setTextAlign(Paint.Align.CENTER);
     }
 
-    public void draw(Canvas canvas, List<Annotation> annotations, RectF rect, int arrowStyle, boolean drawControlPoints,
-            float scaleFactor, boolean showId) {
+    void draw(Canvas canvas, List<Annotation> annotations, RectF rect, RenderStyle style, boolean drawControlPoints,
+            float scaleFactor, boolean showId, boolean overlay) {
         // Scale text size and stroke width based on image size (for export)
         // scaleFactor = 1.0 for screen view, > 1.0 for high-res export
 
         float originalTextSize = com.zfdang.dimensioncam.utils.Constants.BASE_TEXT_SIZE;
-        textPaint.setTextSize(originalTextSize * scaleFactor);
+        float textSize = originalTextSize * scaleFactor;
+        textPaint.setTextSize(textSize);
         textPaint.setShadowLayer(com.zfdang.dimensioncam.utils.Constants.SHADOW_RADIUS * scaleFactor, 0, 0,
                 Color.BLACK);
 
         float controlRadius = com.zfdang.dimensioncam.utils.Constants.CONTROL_POINT_RADIUS * scaleFactor;
+        float aspect = rect.width() > 0 ? rect.height() / rect.width() : 1f;
+
+        // Indexed loop: no iterator allocation and the index doubles as the label ID
+        int count = annotations.size();
+        ensurePointCapacity(count);
+        for (int i = 0; i < count; i++) {
+            Annotation annotation = annotations.get(i);
+            AnnotationRenderModel model = getModel(i);
+            if (!model.isValidFor(annotation, i, showId, aspect, style)) {
+                model.update(style, annotation, i, showId, aspect);
+                points[i * 4] = annotation.startX;
+                points[i * 4 + 1] = annotation.startY;
+                points[i * 4 + 2] = annotation.endX;
+                points[i * 4 + 3] = annotation.endY;
+            }
+        }
+
+        int arrowStyle = style.getArrowStyle();
+        // Pan and zoom only change this transform; all endpoints are mapped in one pass
+        displayMatrix.setScale(rect.width(), rect.height());
+        displayMatrix.postTranslate(rect.left, rect.top);
+        displayMatrix.mapPoints(mappedPoints, 0, points, 0, count * 2);
+
+        // The editor overlay skips what cannot be seen or read: lines outside the view, labels too
+        // small to read, and piles of tiny lines, which collapse into a counted badge.
+        // Thumbnails and export always draw everything.
+        boolean cull = overlay && canvas.getClipBounds(clipBounds);
+        boolean drawLabels = !overlay || textSize >= MIN_LABEL_TEXT_SIZE;
+        if (cull)
+            clusters.begin(clipBounds, CLUSTER_CELL_SIZE, count);
+
+        for (int i = 0; i < count; i++) {
+            Annotation annotation = annotations.get(i);
+            AnnotationRenderModel model = models.get(i);
+
+            float startX = mappedPoints[i * 4];
+            float startY = mappedPoints[i * 4 + 1];
+            float endX = mappedPoints[i * 4 + 2];
+            float endY = mappedPoints[i * 4 + 3];
+            float size = endpointSize(annotation, scaleFactor);
+            float length = model.length * rect.width();
+            if (cull) {
+                // Endpoint decorations, control points and the label reach past the line itself
+                float margin = Math.max(size, controlRadius) + textSize * model.label.length() / 2f;
+                if (Math.max(startX, endX) + margin < clipBounds.left
+                        || Math.min(startX, endX) - margin > clipBounds.right
+                        || Math.max(startY, endY) + margin < clipBounds.top
+                        || Math.min(startY, endY) - margin > clipBounds.bottom)
+                    continue;
+                if (length < CLUSTER_CELL_SIZE
+                        && clusters.add(i, (startX + endX) / 2, (startY + endY) / 2))
+                    continue;
+            }
+            drawAnnotation(canvas, annotation, model, startX, startY, endX, endY, arrowStyle, scaleFactor, size,
+                    !overlay || length >= size, drawLabels && (!overlay || length >= textSize),
+                    drawControlPoints, controlRadius);
+        }
+
+        if (cull) {
+            // Tiny lines that did not end up in a crowded cell are drawn as usual
+            for (int k = 0; k < clusters.deferredCount; k++) {
+                int i = clusters.deferred[k];
+                int cell = clusters.deferredCells[k];
+                if (clusters.isCluster(cell)) {
+                    if (clusters.claim(cell))
+                        drawClusterBadge(canvas, clusters.centerX(cell), clusters.centerY(cell),
+                                clusters.counts[cell]);
+                    continue;
+                }
+                Annotation annotation = annotations.get(i);
+                AnnotationRenderModel model = models.get(i);
+                float startX = mappedPoints[i * 4];
+                float startY = mappedPoints[i * 4 + 1];
+                float endX = mappedPoints[i * 4 + 2];
+                float endY = mappedPoints[i * 4 + 3];
+                float size = endpointSize(annotation, scaleFactor);
+                float length = model.length * rect.width();
+                drawAnnotation(canvas, annotation, model, startX, startY, endX, endY, arrowStyle,
+                        scaleFactor, size, length >= size, drawLabels && length >= textSize,
+                        drawControlPoints, controlRadius);
+            }
+            clusters.end();
+        }
+
+        // Reset text size
+        textPaint.setTextSize(originalTextSize);
+    }
 
-        for (Annotation annotation : annotations) {
-            float startX = mapX(annotation.startX, rect);
-            float startY = mapY(annotation.startY, rect);
-            float endX = mapX(annotation.endX, rect);
-            float endY = mapY(annotation.endY, rect);
+    private static float endpointSize(Annotation annotation, float scaleFactor) {
+        return Math.max(annotation.width * scaleFactor * 5, com.zfdang.dimensioncam.utils.Constants.MIN_ARROW_SIZE);
+    }
 
-            paint.setColor(annotation.color);
-            paint.setStrokeWidth(annotation.width * scaleFactor);
+    private void drawAnnotation(Canvas canvas, Annotation annotation, AnnotationRenderModel model, float startX,
+            float startY, float endX, float endY, int arrowStyle, float scaleFactor, float size,
+            boolean drawDecorations, boolean drawLabel, boolean drawControlPoints, float controlRadius) {
+        paint.setColor(annotation.color);
+        paint.setStrokeWidth(annotation.width * scaleFactor);
 
-            // Draw line
-            canvas.drawLine(startX, startY, endX, endY, paint);
+        // Draw line
+        canvas.drawLine(startX, startY, endX, endY, paint);
 
-            // Draw endpoints based on style
+        // Draw endpoints based on style; on lines shorter than the arrow they would hide the line
+        if (drawDecorations) {
             if (arrowStyle == SettingsManager.STYLE_T_ARROW_T) {
                 // |<----->| T型+箭头+T型：每个端点同时绘制T型和箭头
-                drawEndpointShape(canvas, startX, startY, endX, endY, annotation.width * scaleFactor, "T");
-                drawEndpointShape(canvas, startX, startY, endX, endY, annotation.width * scaleFactor, "ARROW");
-                drawEndpointShape(canvas, endX, endY, startX, startY, annotation.width * scaleFactor, "T");
-                drawEndpointShape(canvas, endX, endY, startX, startY, annotation.width * scaleFactor, "ARROW");
+                drawT(canvas, startX, startY, model, size);
+                drawArrow(canvas, startX, startY, model, size, 1);
+                drawT(canvas, endX, endY, model, size);
+                drawArrow(canvas, endX, endY, model, size, -1);
             } else if (arrowStyle == SettingsManager.STYLE_T_T) {
                 // |-----| T型+T型：两端都是T型
-                drawEndpointShape(canvas, startX, startY, endX, endY, annotation.width * scaleFactor, "T");
-                drawEndpointShape(canvas, endX, endY, startX, startY, annotation.width * scaleFactor, "T");
+                drawT(canvas, startX, startY, model, size);
+                drawT(canvas, endX, endY, model, size);
             } else if (arrowStyle == SettingsManager.STYLE_ARROW_ARROW) {
                 // <-----> 箭头+箭头：两端都是箭头
-                drawEndpointShape(canvas, startX, startY, endX, endY, annotation.width * scaleFactor, "ARROW");
-                drawEndpointShape(canvas, endX, endY, startX, startY, annotation.width * scaleFactor, "ARROW");
+                drawArrow(canvas, startX, startY, model, size, 1);
+                drawArrow(canvas, endX, endY, model, size, -1);
             }
+        }
 
-            // Draw text
+        // Draw text
+        if (drawLabel) {
             // Set text color to match annotation color
             textPaint.setColor(annotation.color);
-
-            // Show value and ID (1-based index) if requested
-            String unitString = context.getString(Annotation.getUnitStringResource(annotation.unit));
-            String text;
-            if (showId) {
-                int index = annotations.indexOf(annotation);
-                text = String.format("%.0f %s (#%d)", annotation.measuredValue, unitString, index + 1);
-            } else {
-                text = String.format("%.0f %s", annotation.measuredValue, unitString);
-            }
             float midX = (startX + endX) / 2;
             float midY = (startY + endY) / 2;
 
-            // Calculate angle
-            float deltaX = endX - startX;
-            float deltaY = endY - startY;
-            float angleDegrees = (float) Math.toDegrees(Math.atan2(deltaY, deltaX));
-
-            // Keep text readable (not upside down)
-            if (angleDegrees > 90) {
-                angleDegrees -= 180;
-            } else if (angleDegrees < -90) {
-                angleDegrees += 180;
-            }
-
             canvas.save();
-            canvas.rotate(angleDegrees, midX, midY);
+            canvas.rotate(model.labelAngle, midX, midY);
             // Draw text centered and slightly above the line
-            canvas.drawText(text, midX, midY - (10 * scaleFactor), textPaint);
+            float baselineY = midY - (10 * scaleFactor);
+            if (!drawCachedLabel(canvas, model.label, annotation.color, textPaint.getTextSize(), midX, baselineY))
+                canvas.drawText(model.label, midX, baselineY, textPaint);
             canvas.restore();
+        }
 
-            // Draw control points
-            if (drawControlPoints) {
-                canvas.drawCircle(startX, startY, controlRadius, controlPointPaint);
-                canvas.drawCircle(endX, endY, controlRadius, controlPointPaint);
-            }
+        // Draw control points
+        if (drawControlPoints) {
+            canvas.drawCircle(startX, startY, controlRadius, controlPointPaint);
+            canvas.drawCircle(endX, endY, controlRadius, controlPointPaint);
         }
+    }
 
-        // Reset text size
-        textPaint.setTextSize(originalTextSize);
+    // Blits the label from the cache, rendering it first on a miss. Returns false when the label is
+    // too small or too large to cache and has to be drawn as text.
+    private boolean drawCachedLabel(Canvas canvas, String text, int color, float textSize, float x, float baselineY) {
+        if (textSize < LabelCache.MIN_TEXT_SIZE)
+            return false;
+        int bucket = LabelCache.sizeBucket(textSize);
+        labelKey.set(text, color, bucket);
+        LabelCache.Label label = labelCache.get(labelKey);
+        float bucketSize = LabelCache.bucketSize(bucket);
+        if (label == null) {
+            label = rasterizeLabel(text, color, bucketSize);
+            if (label == null)
+                return false;
+            labelCache.put(new LabelCache.Key(text, color, bucket), label);
+        }
+        // Buckets round down, so the bitmap is scaled up by less than SIZE_STEP
+        float ratio = textSize / bucketSize;
+        float width = label.bitmap.getWidth() * ratio;
+        float top = baselineY - label.baseline * ratio;
+        labelRect.set(x - width / 2, top, x + width / 2, top + label.bitmap.getHeight() * ratio);
+        canvas.drawBitmap(label.bitmap, null, labelRect, bitmapPaint);
+        return true;
+    }
+
+    private LabelCache.Label rasterizeLabel(String text, int color, float textSize) {
+        // Shadow grows with the text, as with textPaint
+        float shadowRadius = com.zfdang.dimensioncam.utils.Constants.SHADOW_RADIUS * textSize
+                / com.zfdang.dimensioncam.utils.Constants.BASE_TEXT_SIZE;
+        labelPaint.setTextSize(textSize);
+        labelPaint.setColor(color);
+        labelPaint.setShadowLayer(shadowRadius, 0, 0, Color.BLACK);
+        int padding = (int) Math.ceil(shadowRadius) + 1;
+        float ascent = labelPaint.ascent();
+        int width = (int) Math.ceil(labelPaint.measureText(text)) + 2 * padding;
+        int height = (int) Math.ceil(labelPaint.descent() - ascent) + 2 * padding;
+        if (!labelCache.fits(width, height))
+            return null;
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        float baseline = padding - ascent;
+        new Canvas(bitmap).drawText(text, width / 2f, baseline, labelPaint);
+        return new LabelCache.Label(bitmap, baseline);
+    }
+
+    // 聚合标记: a dot with the number of tiny lines it stands for
+    private void drawClusterBadge(Canvas canvas, float x, float y, int count) {
+        float radius = CLUSTER_BADGE_RADIUS;
+        canvas.drawCircle(x, y, radius, clusterPaint);
+        clusterTextPaint.setTextSize(radius);
+        String text = count < COUNT_LABELS.length ? COUNT_LABELS[count] : "99+";
+        canvas.drawText(text, x, y + radius / 3, clusterTextPaint);
+    }
+
+    private void ensurePointCapacity(int count) {
+        if (points.length < count * 4) {
+            points = Arrays.copyOf(points, count * 4);
+            mappedPoints = new float[count * 4];
+        }
     }
 
-    // 绘制端点形状
-    private void drawEndpointShape(Canvas canvas, float tipX, float tipY, float tailX, float tailY, float width,
-            String shapeType) {
-        float angle = (float) Math.atan2(tailY - tipY, tailX - tipX);
-        float size = width * 5;
-        if (size < com.zfdang.dimensioncam.utils.Constants.MIN_ARROW_SIZE)
-            size = com.zfdang.dimensioncam.utils.Constants.MIN_ARROW_SIZE;
-
-        if (shapeType.equals("T")) {
-            // 绘制T型端点
-            float tAngle = (float) Math.toRadians(90);
-            float x1 = (float) (tipX + Math.cos(angle + tAngle) * (size / 2));
-            float y1 = (float) (tipY + Math.sin(angle + tAngle) * (size / 2));
-            float x2 = (float) (tipX + Math.cos(angle - tAngle) * (size / 2));
-            float y2 = (float) (tipY + Math.sin(angle - tAngle) * (size / 2));
-            canvas.drawLine(x1, y1, x2, y2, paint);
-        } else if (shapeType.equals("ARROW")) {
-            // 绘制箭头端点
-            float arrowAngle = (float) Math.toRadians(30);
-            float x1 = (float) (tipX + Math.cos(angle + arrowAngle) * size);
-            float y1 = (float) (tipY + Math.sin(angle + arrowAngle) * size);
-            float x2 = (float) (tipX + Math.cos(angle - arrowAngle) * size);
-            float y2 = (float) (tipY + Math.sin(angle - arrowAngle) * size);
-            canvas.drawLine(tipX, tipY, x1, y1, paint);
-            canvas.drawLine(tipX, tipY, x2, y2, paint);
+    private AnnotationRenderModel getModel(int index) {
+        while (models.size() <= index) {
+            models.add(new AnnotationRenderModel());
         }
+        return models.get(index);
     }
 
-    private float mapX(float x, RectF rect) {
-        return rect.left + x * rect.width();
+    // 绘制T型端点: a bar across the line, centered on the tip
+    private void drawT(Canvas canvas, float tipX, float tipY, AnnotationRenderModel model, float size) {
+        float offsetX = -model.dirY * (size / 2);
+        float offsetY = model.dirX * (size / 2);
+        canvas.drawLine(tipX + offsetX, tipY + offsetY, tipX - offsetX, tipY - offsetY, paint);
     }
 
-    private float mapY(float y, RectF rect) {
-        return rect.top + y * rect.height();
+    // 绘制箭头端点: direction is 1 at the start point and -1 at the end point
+    private void drawArrow(Canvas canvas, float tipX, float tipY, AnnotationRenderModel model, float size,
+            int direction) {
+        float length = size * direction;
+        canvas.drawLine(tipX, tipY, tipX + model.wing1X * length, tipY + model.wing1Y * length, paint);
+        canvas.drawLine(tipX, tipY, tipX + model.wing2X * length, tipY + model.wing2Y * length, paint);
     }
 }
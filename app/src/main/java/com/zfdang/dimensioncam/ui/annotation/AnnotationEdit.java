@@ -0,0 +1,92 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AnnotationDiff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One undoable edit, stored as the before and after state of only the rows it touched.
+ */
+class AnnotationEdit {
+    static final int KIND_ADD = 0;
+    static final int KIND_DELETE = 1;
+    static final int KIND_MOVE = 2;
+    static final int KIND_PROPERTIES = 3;
+    static final int KIND_REORDER = 4;
+
+    // Rough heap cost of one Annotation copy and of the edit's own bookkeeping
+    static final int ANNOTATION_BYTES = 72;
+    private static final int EDIT_OVERHEAD_BYTES = 64;
+    // Consecutive drags of the same annotation within this window undo as one step
+    static final long COALESCE_WINDOW_MS = 1000;
+    // Timestamp of edits read back from the journal, far enough back to never coalesce
+    static final long RESTORED_TIMESTAMP = -COALESCE_WINDOW_MS - 1;
+
+    final int kind;
+    long timestamp;
+    // Row id in the edit journal, 0 until written; only accessed on the annotation write executor
+    long journalId;
+    // Parallel row states: a null before means the row was added, a null after means it was deleted
+    final List<Annotation> before = new ArrayList<>();
+    final List<Annotation> after = new ArrayList<>();
+
+    AnnotationEdit(int kind, long timestamp) {
+        this.kind = kind;
+        this.timestamp = timestamp;
+    }
+
+    void add(Annotation before, Annotation after) {
+        this.before.add(before);
+        this.after.add(after);
+    }
+
+    boolean isEmpty() {
+        return before.isEmpty();
+    }
+
+    int estimatedBytes() {
+        int rows = 0;
+        for (int i = 0; i < before.size(); i++) {
+            if (before.get(i) != null)
+                rows++;
+            if (after.get(i) != null)
+                rows++;
+        }
+        return EDIT_OVERHEAD_BYTES + rows * ANNOTATION_BYTES;
+    }
+
+    boolean canCoalesce(AnnotationEdit next) {
+        return kind == KIND_MOVE && next.kind == KIND_MOVE
+                && before.size() == 1 && next.before.size() == 1
+                && after.get(0).id == next.after.get(0).id
+                && next.timestamp - timestamp <= COALESCE_WINDOW_MS;
+    }
+
+    // Keeps this edit's original state and takes the newer edit's result
+    void coalesce(AnnotationEdit next) {
+        after.set(0, next.after.get(0));
+        timestamp = next.timestamp;
+    }
+
+    // Row changes that restore the state before (undo) or after (redo) the edit
+    AnnotationDiff toDiff(boolean undo) {
+        AnnotationDiff diff = new AnnotationDiff();
+        diff.updatesChangeDrawing = kind != KIND_REORDER;
+        List<Annotation> target = undo ? before : after;
+        List<Annotation> other = undo ? after : before;
+        for (int i = 0; i < target.size(); i++) {
+            Annotation t = target.get(i);
+            Annotation o = other.get(i);
+            if (t == null) {
+                diff.deletes.add(o);
+            } else if (o == null) {
+                diff.inserts.add(t);
+            } else {
+                diff.updates.add(t);
+            }
+        }
+        return diff;
+    }
+}
@@ -29,14 +29,13 @@ import com.github.chrisbanes.photoview.PhotoView;
 import com.zfdang.dimensioncam.R;
 import com.zfdang.dimensioncam.data.Annotation;
 
-import java.util.Collections;
-import java.util.List;
 
 public class AnnotationFragment extends Fragment
         implements AnnotationListAdapter.OnAnnotationActionListener, DrawView.OnAnnotationChangeListener {
 
     private AnnotationViewModel viewModel;
     private PhotoView photoView;
+    private TileView tileView;
     private DrawView drawView;
     private RecyclerView recyclerView;
     private AnnotationListAdapter adapter;
@@ -56,6 +55,7 @@ public class AnnotationFragment extends Fragment
 
         photoView = view.findViewById(R.id.photo_view);
         photoView.setMaximumScale(6.0f); // Set max zoom to 600%
+        tileView = view.findViewById(R.id.tile_view);
         drawView = view.findViewById(R.id.draw_view);
         drawView.setPhotoView(photoView);
         drawView.setListener(this);
@@ -75,9 +75,7 @@ public class AnnotationFragment extends Fragment
                             @NonNull RecyclerView.ViewHolder viewHolder, @NonNull RecyclerView.ViewHolder target) {
                         int fromPos = viewHolder.getAdapterPosition();
                         int toPos = target.getAdapterPosition();
-                        List<Annotation> list = adapter.getAnnotations();
-                        Collections.swap(list, fromPos, toPos);
-                        adapter.notifyItemMoved(fromPos, toPos);
+                        adapter.moveAnnotation(fromPos, toPos);
                         return true;
                     }
 
@@ -100,7 +98,10 @@ public class AnnotationFragment extends Fragment
             if (photo != null) {
                 emptyHint.setVisibility(View.GONE);
                 photoView.setVisibility(View.VISIBLE);
+                tileView.setVisibility(View.VISIBLE);
                 drawView.setVisibility(View.VISIBLE);
+                // Glide gives a screen-sized preview quickly; sharp tiles follow when zooming in
+                tileView.setImage(photo);
                 Glide.with(this)
                         .load(photo.originalPath)
                         .listener(new com.bumptech.glide.request.RequestListener<android.graphics.drawable.Drawable>() {
@@ -124,6 +125,8 @@ public class AnnotationFragment extends Fragment
             } else {
                 emptyHint.setVisibility(View.VISIBLE);
                 photoView.setVisibility(View.GONE);
+                tileView.setVisibility(View.GONE);
+                tileView.setImage(null);
                 drawView.setVisibility(View.GONE);
             }
         });
@@ -132,16 +135,31 @@ public class AnnotationFragment extends Fragment
             drawView.setAnnotations(annotations);
             adapter.setAnnotations(annotations);
             if (getActivity() != null) {
-                getActivity().invalidateOptionsMenu(); // Update undo button state
+                getActivity().invalidateOptionsMenu(); // Update undo/redo button state
             }
         });
 
-        // PhotoView zoom listener to invalidate DrawView
-        photoView.setOnMatrixChangeListener(rect -> drawView.invalidate());
+        viewModel.getHistoryRestored().observe(getViewLifecycleOwner(), restored -> {
+            if (getActivity() != null) {
+                getActivity().invalidateOptionsMenu(); // Undo steps from the last session are available
+            }
+        });
+
+        // PhotoView zoom listener hands the new display rect to the tile and drawing layers
+        photoView.setOnMatrixChangeListener(rect -> {
+            tileView.setDisplayRect(rect);
+            drawView.setDisplayRect(rect);
+        });
 
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        tileView.release();
+        super.onDestroyView();
+    }
+
     @Override
     public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
         inflater.inflate(R.menu.menu_annotation, menu);
@@ -155,6 +173,10 @@ public class AnnotationFragment extends Fragment
         if (undoItem != null && viewModel != null) {
             undoItem.setEnabled(viewModel.canUndo());
         }
+        MenuItem redoItem = menu.findItem(R.id.action_redo);
+        if (redoItem != null && viewModel != null) {
+            redoItem.setEnabled(viewModel.canRedo());
+        }
     }
 
     @Override
@@ -166,6 +188,9 @@ public class AnnotationFragment extends Fragment
         } else if (itemId == R.id.action_undo) {
             viewModel.undo();
             return true;
+        } else if (itemId == R.id.action_redo) {
+            viewModel.redo();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
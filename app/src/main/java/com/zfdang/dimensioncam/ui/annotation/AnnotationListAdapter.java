@@ -8,17 +8,21 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.zfdang.dimensioncam.R;
 import com.zfdang.dimensioncam.data.Annotation;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class AnnotationListAdapter extends RecyclerView.Adapter<AnnotationListAdapter.ViewHolder> {
 
     private List<Annotation> annotations = new ArrayList<>();
+    // Copies of the values each row was last bound with; the dialogs edit the live objects in place
+    private final List<Annotation> bound = new ArrayList<>();
     private OnAnnotationActionListener listener;
 
     public interface OnAnnotationActionListener {
@@ -32,8 +36,49 @@ public class AnnotationListAdapter extends RecyclerView.Adapter<AnnotationListAd
     }
 
     public void setAnnotations(List<Annotation> annotations) {
-        this.annotations = annotations;
-        notifyDataSetChanged();
+        List<Annotation> newList = annotations != null ? new ArrayList<>(annotations) : new ArrayList<>();
+        // Rebind only rows whose visible text changed; moving endpoints changes none of it
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return bound.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newList.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return bound.get(oldItemPosition).id == newList.get(newItemPosition).id;
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                // The row shows its position as the ID
+                return oldItemPosition == newItemPosition
+                        && isDisplayedSame(bound.get(oldItemPosition), newList.get(newItemPosition));
+            }
+        });
+        this.annotations = newList;
+        bound.clear();
+        for (Annotation a : newList) {
+            bound.add(new Annotation(a));
+        }
+        result.dispatchUpdatesTo(this);
+    }
+
+    // Moves a row while it is being dragged in the list
+    public void moveAnnotation(int fromPos, int toPos) {
+        Collections.swap(annotations, fromPos, toPos);
+        Collections.swap(bound, fromPos, toPos);
+        notifyItemMoved(fromPos, toPos);
+    }
+
+    private static boolean isDisplayedSame(Annotation a, Annotation b) {
+        return a.measuredValue == b.measuredValue && a.unit == b.unit
+                && a.width == b.width && a.color == b.color && a.order == b.order;
     }
 
     public List<Annotation> getAnnotations() {
@@ -65,8 +110,17 @@ public class AnnotationListAdapter extends RecyclerView.Adapter<AnnotationListAd
 
         holder.colorIndicator.setBackgroundColor(annotation.color);
 
-        holder.itemView.setOnClickListener(v -> listener.onAnnotationClick(annotation));
-        holder.btnDelete.setOnClickListener(v -> listener.onDeleteClick(annotation));
+        // Rows are not rebound after every change, so look the annotation up when clicked
+        holder.itemView.setOnClickListener(v -> {
+            int pos = holder.getAdapterPosition();
+            if (pos != RecyclerView.NO_POSITION)
+                listener.onAnnotationClick(annotations.get(pos));
+        });
+        holder.btnDelete.setOnClickListener(v -> {
+            int pos = holder.getAdapterPosition();
+            if (pos != RecyclerView.NO_POSITION)
+                listener.onDeleteClick(annotations.get(pos));
+        });
     }
 
     @Override
@@ -0,0 +1,106 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import com.zfdang.dimensioncam.data.Annotation;
+
+/**
+ * Values AnnotationDrawer derives from one annotation: label text, label angle and endpoint
+ * directions. They only depend on the annotation's fields and the image aspect ratio, so they are
+ * rebuilt when those change instead of on every frame.
+ */
+class AnnotationRenderModel {
+    private static final float COS_30 = (float) Math.cos(Math.toRadians(30));
+    private static final float SIN_30 = (float) Math.sin(Math.toRadians(30));
+    // Relative aspect change tolerated before rebuilding, absorbs float noise while zooming
+    private static final float ASPECT_TOLERANCE = 1e-4f;
+
+    // Snapshot of the inputs the cached values were built from
+    private Annotation source;
+    private float startX;
+    private float startY;
+    private float endX;
+    private float endY;
+    private float measuredValue;
+    private int unit;
+    private int index;
+    private boolean showId;
+    private RenderStyle style;
+    private float aspect;
+
+    String label;
+    // Label rotation in degrees, kept between -90 and 90 so text is never upside down
+    float labelAngle;
+    // Start to end distance in display widths; times rect.width() gives pixels
+    float length;
+    // Unit vector from start to end, in pixel space
+    float dirX;
+    float dirY;
+    // Arrow wing directions at the start point (end point uses the negated vectors)
+    float wing1X;
+    float wing1Y;
+    float wing2X;
+    float wing2Y;
+
+    // aspect is the display height / width of the image
+    boolean isValidFor(Annotation annotation, int index, boolean showId, float aspect, RenderStyle style) {
+        return source == annotation && this.style == style
+                && startX == annotation.startX && startY == annotation.startY
+                && endX == annotation.endX && endY == annotation.endY
+                && measuredValue == annotation.measuredValue && unit == annotation.unit
+                && this.index == index && this.showId == showId
+                && Math.abs(this.aspect - aspect) <= ASPECT_TOLERANCE * aspect;
+    }
+
+    void update(RenderStyle style, Annotation annotation, int index, boolean showId, float aspect) {
+        boolean labelChanged = label == null || measuredValue != annotation.measuredValue
+                || unit != annotation.unit || this.index != index || this.showId != showId
+                || this.style != style;
+
+        source = annotation;
+        startX = annotation.startX;
+        startY = annotation.startY;
+        endX = annotation.endX;
+        endY = annotation.endY;
+        measuredValue = annotation.measuredValue;
+        unit = annotation.unit;
+        this.index = index;
+        this.showId = showId;
+        this.aspect = aspect;
+        this.style = style;
+
+        if (labelChanged) {
+            // Show value and ID (1-based index) if requested
+            String unitString = style.getUnitLabel(unit);
+            if (showId) {
+                label = String.format("%.0f %s (#%d)", measuredValue, unitString, index + 1);
+            } else {
+                label = String.format("%.0f %s", measuredValue, unitString);
+            }
+        }
+
+        // Directions in pixel space: y is scaled by the aspect ratio relative to x
+        float dx = endX - startX;
+        float dy = (endY - startY) * aspect;
+        length = (float) Math.hypot(dx, dy);
+        if (length > 0) {
+            dirX = dx / length;
+            dirY = dy / length;
+        } else {
+            dirX = 1;
+            dirY = 0;
+        }
+
+        float angleDegrees = (float) Math.toDegrees(Math.atan2(dirY, dirX));
+        if (angleDegrees > 90) {
+            angleDegrees -= 180;
+        } else if (angleDegrees < -90) {
+            angleDegrees += 180;
+        }
+        labelAngle = angleDegrees;
+
+        // Rotate the direction by +/-30 degrees for the arrow wings
+        wing1X = dirX * COS_30 - dirY * SIN_30;
+        wing1Y = dirX * SIN_30 + dirY * COS_30;
+        wing2X = dirX * COS_30 + dirY * SIN_30;
+        wing2Y = -dirX * SIN_30 + dirY * COS_30;
+    }
+}
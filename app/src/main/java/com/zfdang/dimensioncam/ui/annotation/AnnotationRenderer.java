@@ -0,0 +1,76 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.utils.Constants;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Process-wide entry point for drawing annotations, shared by the editor, list thumbnails and
+ * export. AnnotationDrawer mutates its Paints while drawing, so every thread gets its own drawer;
+ * styles are immutable snapshots and can be passed between threads freely.
+ */
+public final class AnnotationRenderer {
+
+    private static final AnnotationRenderer INSTANCE = new AnnotationRenderer();
+    private static final int MAX_STYLES = 4;
+
+    private final ThreadLocal<AnnotationDrawer> drawers = new ThreadLocal<AnnotationDrawer>() {
+        @Override
+        protected AnnotationDrawer initialValue() {
+            return new AnnotationDrawer();
+        }
+    };
+    // Recently built styles. Activity and application contexts can differ in language, so a
+    // single cached entry would be rebuilt back and forth. Replaced as a whole, never mutated.
+    private volatile RenderStyle[] styles = new RenderStyle[0];
+
+    public static AnnotationRenderer getInstance() {
+        return INSTANCE;
+    }
+
+    private AnnotationRenderer() {
+    }
+
+    // The context is only read here, never kept
+    public RenderStyle getStyle(Context context, int arrowStyle) {
+        Locale locale = RenderStyle.localeOf(context);
+        RenderStyle[] current = styles;
+        for (RenderStyle style : current) {
+            if (style.getArrowStyle() == arrowStyle && style.getLocale().equals(locale))
+                return style;
+        }
+        RenderStyle style = RenderStyle.create(context, arrowStyle);
+        int keep = Math.min(current.length, MAX_STYLES - 1);
+        RenderStyle[] updated = new RenderStyle[keep + 1];
+        updated[0] = style;
+        System.arraycopy(current, 0, updated, 1, keep);
+        styles = updated;
+        return style;
+    }
+
+    // scaleFactor = 1.0 for screen view, > 1.0 for high-res export
+    public void draw(Canvas canvas, List<Annotation> annotations, RectF rect, RenderStyle style,
+            boolean drawControlPoints, float scaleFactor, boolean showId) {
+        drawers.get().draw(canvas, annotations, rect, style, drawControlPoints, scaleFactor, showId, false);
+    }
+
+    // Editor overlay: culls annotations outside the canvas clip, drops decorations too small to
+    // read and collapses crowds of tiny lines into counted badges.
+    // Labels and strokes are sized for a photo shown STANDARD_SCREEN_WIDTH pixels wide, the width
+    // export sizes them for. They keep that size when the photo is shown wider and shrink with it
+    // when it is shown narrower, so the readability limits apply to what is actually on screen.
+    public void drawOverlay(Canvas canvas, List<Annotation> annotations, RectF rect, RenderStyle style) {
+        drawers.get().draw(canvas, annotations, rect, style, true, overlayScaleFactor(rect.width()), true, true);
+    }
+
+    // displayWidth is the photo's width on screen: its fit-to-view width times the zoom
+    static float overlayScaleFactor(float displayWidth) {
+        return displayWidth > 0 ? Math.min(1f, displayWidth / Constants.STANDARD_SCREEN_WIDTH) : 1f;
+    }
+}
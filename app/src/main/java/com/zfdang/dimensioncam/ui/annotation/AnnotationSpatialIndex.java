@@ -0,0 +1,288 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import android.graphics.RectF;
+
+import com.zfdang.dimensioncam.data.Annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Uniform grid over normalized image space for touch hit-testing. Each annotation is registered in
+ * every cell its line passes through, so a query only looks at the few cells around the touch point
+ * instead of every annotation.
+ */
+class AnnotationSpatialIndex {
+    static final int PART_START = 0;
+    static final int PART_END = 1;
+    static final int PART_LINE = 2;
+
+    private static final int GRID_SIZE = 32;
+    // Widens the cell walk slightly so float rounding never drops a cell the line touches
+    private static final float EPSILON = 1e-4f;
+
+    private static final class Entry {
+        final Annotation annotation;
+        // Position in the list; higher is drawn on top and wins ties
+        final int order;
+        // Geometry the entry is currently filed under
+        float startX;
+        float startY;
+        float endX;
+        float endY;
+        // Last query that visited this entry, to skip duplicates from neighbouring cells
+        int stamp;
+        // Cells the entry is filed in and its position in each, so removal needs no search
+        int[] cellIndexes = new int[4];
+        int[] slots = new int[4];
+        int cellCount;
+
+        Entry(Annotation annotation, int order) {
+            this.annotation = annotation;
+            this.order = order;
+            capture();
+        }
+
+        void capture() {
+            startX = annotation.startX;
+            startY = annotation.startY;
+            endX = annotation.endX;
+            endY = annotation.endY;
+        }
+
+        void addCell(int cellIndex, int slot) {
+            if (cellCount == cellIndexes.length) {
+                cellIndexes = Arrays.copyOf(cellIndexes, cellCount * 2);
+                slots = Arrays.copyOf(slots, cellCount * 2);
+            }
+            cellIndexes[cellCount] = cellIndex;
+            slots[cellCount] = slot;
+            cellCount++;
+        }
+
+        void moveSlot(int cellIndex, int slot) {
+            for (int k = 0; k < cellCount; k++) {
+                if (cellIndexes[k] == cellIndex) {
+                    slots[k] = slot;
+                    return;
+                }
+            }
+        }
+    }
+
+    private final ArrayList<Entry>[] cells;
+    private final IdentityHashMap<Annotation, Entry> entries = new IdentityHashMap<>();
+    private int stamp;
+
+    // Result of the last successful find call
+    Annotation hitAnnotation;
+    int hitPart;
+
+    @SuppressWarnings("unchecked")
+    AnnotationSpatialIndex() {
+        cells = new ArrayList[GRID_SIZE * GRID_SIZE];
+    }
+
+    void rebuild(List<Annotation> annotations) {
+        for (ArrayList<Entry> cell : cells) {
+            if (cell != null)
+                cell.clear();
+        }
+        entries.clear();
+        for (int i = 0; i < annotations.size(); i++) {
+            insert(annotations.get(i), i);
+        }
+    }
+
+    void insert(Annotation annotation, int order) {
+        Entry entry = new Entry(annotation, order);
+        entries.put(annotation, entry);
+        fileEntry(entry);
+    }
+
+    void remove(Annotation annotation) {
+        Entry entry = entries.remove(annotation);
+        if (entry != null)
+            unfileEntry(entry);
+    }
+
+    // Re-files an annotation after its endpoints moved
+    void update(Annotation annotation) {
+        Entry entry = entries.get(annotation);
+        if (entry == null)
+            return;
+        unfileEntry(entry);
+        entry.capture();
+        fileEntry(entry);
+    }
+
+    // Finds the endpoint closest to the touch point within threshold screen pixels
+    boolean findEndpoint(float x, float y, RectF rect, float threshold) {
+        Entry best = null;
+        int bestPart = PART_START;
+        float bestDist = threshold;
+        stamp++;
+        int row0 = cellOf(unmapY(y - threshold, rect));
+        int row1 = cellOf(unmapY(y + threshold, rect));
+        int col0 = cellOf(unmapX(x - threshold, rect));
+        int col1 = cellOf(unmapX(x + threshold, rect));
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                ArrayList<Entry> cell = cells[row * GRID_SIZE + col];
+                if (cell == null)
+                    continue;
+                for (int i = 0; i < cell.size(); i++) {
+                    Entry e = cell.get(i);
+                    if (e.stamp == stamp)
+                        continue;
+                    e.stamp = stamp;
+                    float ds = dist(x, y, mapX(e.startX, rect), mapY(e.startY, rect));
+                    if (isBetter(ds, e, bestDist, best)) {
+                        best = e;
+                        bestPart = PART_START;
+                        bestDist = ds;
+                    }
+                    float de = dist(x, y, mapX(e.endX, rect), mapY(e.endY, rect));
+                    if (isBetter(de, e, bestDist, best)) {
+                        best = e;
+                        bestPart = PART_END;
+                        bestDist = de;
+                    }
+                }
+            }
+        }
+        return setHit(best, bestPart);
+    }
+
+    // Finds the line closest to the touch point within threshold screen pixels
+    boolean findSegment(float x, float y, RectF rect, float threshold) {
+        Entry best = null;
+        float bestDist = threshold;
+        stamp++;
+        int row0 = cellOf(unmapY(y - threshold, rect));
+        int row1 = cellOf(unmapY(y + threshold, rect));
+        int col0 = cellOf(unmapX(x - threshold, rect));
+        int col1 = cellOf(unmapX(x + threshold, rect));
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                ArrayList<Entry> cell = cells[row * GRID_SIZE + col];
+                if (cell == null)
+                    continue;
+                for (int i = 0; i < cell.size(); i++) {
+                    Entry e = cell.get(i);
+                    if (e.stamp == stamp)
+                        continue;
+                    e.stamp = stamp;
+                    float d = distToSegment(x, y, mapX(e.startX, rect), mapY(e.startY, rect),
+                            mapX(e.endX, rect), mapY(e.endY, rect));
+                    if (isBetter(d, e, bestDist, best)) {
+                        best = e;
+                        bestDist = d;
+                    }
+                }
+            }
+        }
+        return setHit(best, PART_LINE);
+    }
+
+    private boolean setHit(Entry best, int part) {
+        if (best == null) {
+            hitAnnotation = null;
+            return false;
+        }
+        hitAnnotation = best.annotation;
+        hitPart = part;
+        return true;
+    }
+
+    private static boolean isBetter(float dist, Entry entry, float bestDist, Entry best) {
+        if (best == null)
+            return dist < bestDist;
+        return dist < bestDist || (dist == bestDist && entry.order > best.order);
+    }
+
+    // Adds the entry to every cell its line crosses, one grid row at a time
+    private void fileEntry(Entry e) {
+        float minY = Math.min(e.startY, e.endY);
+        float maxY = Math.max(e.startY, e.endY);
+        float dy = e.endY - e.startY;
+        int row0 = cellOf(minY - EPSILON);
+        int row1 = cellOf(maxY + EPSILON);
+        for (int row = row0; row <= row1; row++) {
+            float x0;
+            float x1;
+            if (dy == 0) {
+                x0 = e.startX;
+                x1 = e.endX;
+            } else {
+                // Part of the line inside this row's band
+                float bandTop = Math.max(minY, row / (float) GRID_SIZE);
+                float bandBottom = Math.min(maxY, (row + 1) / (float) GRID_SIZE);
+                x0 = e.startX + (bandTop - e.startY) / dy * (e.endX - e.startX);
+                x1 = e.startX + (bandBottom - e.startY) / dy * (e.endX - e.startX);
+            }
+            int col0 = cellOf(Math.min(x0, x1) - EPSILON);
+            int col1 = cellOf(Math.max(x0, x1) + EPSILON);
+            for (int col = col0; col <= col1; col++) {
+                int index = row * GRID_SIZE + col;
+                if (cells[index] == null)
+                    cells[index] = new ArrayList<>();
+                e.addCell(index, cells[index].size());
+                cells[index].add(e);
+            }
+        }
+    }
+
+    // Takes the entry out of the cells it is filed in. The last entry of each cell moves into the
+    // freed slot, so a removal costs the same however crowded the cell is
+    private void unfileEntry(Entry e) {
+        for (int k = 0; k < e.cellCount; k++) {
+            int index = e.cellIndexes[k];
+            ArrayList<Entry> cell = cells[index];
+            Entry last = cell.remove(cell.size() - 1);
+            if (last != e) {
+                cell.set(e.slots[k], last);
+                last.moveSlot(index, e.slots[k]);
+            }
+        }
+        e.cellCount = 0;
+    }
+
+    private static int cellOf(float v) {
+        int cell = (int) Math.floor(v * GRID_SIZE);
+        return Math.max(0, Math.min(GRID_SIZE - 1, cell));
+    }
+
+    private static float mapX(float x, RectF rect) {
+        return rect.left + x * rect.width();
+    }
+
+    private static float mapY(float y, RectF rect) {
+        return rect.top + y * rect.height();
+    }
+
+    private static float unmapX(float x, RectF rect) {
+        return (x - rect.left) / rect.width();
+    }
+
+    private static float unmapY(float y, RectF rect) {
+        return (y - rect.top) / rect.height();
+    }
+
+    private static float dist(float x1, float y1, float x2, float y2) {
+        return (float) Math.hypot(x2 - x1, y2 - y1);
+    }
+
+    private static float distToSegment(float px, float py, float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0)
+            return dist(px, py, x1, y1);
+        float t = ((px - x1) * dx + (py - y1) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return dist(px, py, x1 + t * dx, y1 + t * dy);
+    }
+}
@@ -1,6 +1,7 @@
 package com.zfdang.dimensioncam.ui.annotation;
 
 import android.app.Application;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
@@ -9,14 +10,19 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
 
 import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AnnotationDiff;
 import com.zfdang.dimensioncam.data.Photo;
 import com.zfdang.dimensioncam.data.PhotoDao;
 import com.zfdang.dimensioncam.data.Repository;
 import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.ui.photos.ThumbnailStore;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.Set;
 
 public class AnnotationViewModel extends AndroidViewModel {
 
@@ -25,20 +31,48 @@ public class AnnotationViewModel extends AndroidViewModel {
     private MutableLiveData<Photo> mCurrentPhoto = new MutableLiveData<>();
     private MutableLiveData<Long> mPhotoId = new MutableLiveData<>();
     private LiveData<List<Annotation>> mAnnotations;
-    
-    // Undo Stack: Stores snapshots of the annotation list
-    private Stack<List<Annotation>> undoStack = new Stack<>();
+
+    // Undo/Redo: stores only the rows each edit touched
+    private final EditHistory mHistory = new EditHistory();
+    // Copies of the last known stored state by id, used as the "before" side of edits.
+    // The annotation objects handed to the UI get modified in place while editing.
+    private final Map<Long, Annotation> mCommitted = new HashMap<>();
+    // Set by the first emission for the photo. From then on every write of its annotations goes
+    // through here and updates mCommitted right away, while later emissions can lag behind them.
+    private boolean mCommittedSeeded;
+    // Added annotations whose insert has not returned a row id yet. Edits to them are held back
+    // and saved once the id is known; deletes are remembered in mPendingDeletes.
+    private final Set<Annotation> mPendingInserts = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Annotation> mPendingDeletes = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Persistent copy of the history, so undo works after the app restarts
+    private final EditJournal mJournal;
+    private final MutableLiveData<Boolean> mHistoryRestored = new MutableLiveData<>();
 
     public AnnotationViewModel(@NonNull Application application) {
         super(application);
         mRepository = new Repository(application);
         mPhotoDao = AppDatabase.getDatabase(application).photoDao();
-        
+        mJournal = new EditJournal(application);
+
         // Initialize mAnnotations to observe mPhotoId changes
-        mAnnotations = Transformations.switchMap(mPhotoId, id -> mRepository.getAnnotationsForPhoto(id));
+        mAnnotations = Transformations.map(
+                Transformations.switchMap(mPhotoId, id -> mRepository.getAnnotationsForPhoto(id)),
+                annotations -> {
+                    onAnnotationsLoaded(annotations);
+                    return annotations;
+                });
     }
 
     public void loadPhoto(long photoId) {
+        Long current = mPhotoId.getValue();
+        if (current == null || current != photoId) {
+            if (current != null)
+                ThumbnailStore.getInstance(getApplication()).refresh(current);
+            mHistory.clear();
+            mCommitted.clear();
+            mCommittedSeeded = false;
+            mJournal.restore(photoId, this::onHistoryRestored);
+        }
         mPhotoId.setValue(photoId);
         AppDatabase.databaseWriteExecutor.execute(() -> {
             Photo photo = mPhotoDao.getPhotoById(photoId);
@@ -54,52 +88,198 @@ public class AnnotationViewModel extends AndroidViewModel {
         return mAnnotations;
     }
 
+    // Emits when undo/redo steps were read back from the journal
+    public LiveData<Boolean> getHistoryRestored() {
+        return mHistoryRestored;
+    }
+
     public void addAnnotation(Annotation annotation) {
-        saveStateForUndo();
-        mRepository.insertAnnotation(annotation);
+        // Recorded once the insert returns the row id, so undo and the journal can address the row
+        AnnotationEdit edit = newEdit(AnnotationEdit.KIND_ADD);
+        Annotation inserted = new Annotation(annotation);
+        mPendingInserts.add(annotation);
+        mRepository.insertAnnotation(inserted, id -> onAnnotationInserted(annotation, inserted, id, edit));
+    }
+
+    private void onAnnotationInserted(Annotation annotation, Annotation inserted, long id, AnnotationEdit edit) {
+        mPendingInserts.remove(annotation);
+        boolean deleted = mPendingDeletes.remove(annotation);
+        annotation.id = id;
+        inserted.id = id;
+        if (!isCurrentPhoto(inserted.photoId)) {
+            // The editor moved on to another photo; only save what was held back
+            if (deleted) {
+                mRepository.deleteAnnotation(annotation);
+            } else if (!inserted.hasSameValues(annotation)) {
+                mRepository.updateAnnotation(new Annotation(annotation));
+            }
+            return;
+        }
+        mCommitted.put(id, inserted);
+        edit.add(null, inserted);
+        record(edit);
+        if (deleted) {
+            deleteAnnotation(annotation);
+        } else {
+            updateAnnotation(annotation);
+        }
     }
 
     public void updateAnnotation(Annotation annotation) {
-        saveStateForUndo();
-        mRepository.updateAnnotation(annotation);
+        if (mPendingInserts.contains(annotation))
+            return;
+        Annotation before = mCommitted.get(annotation.id);
+        Annotation after = new Annotation(annotation);
+        if (before != null && before.hasSameValues(after))
+            return;
+        mCommitted.put(after.id, after);
+        if (before == null) {
+            // Stored state unknown here; record the edit against the row the update replaced
+            mRepository.updateAnnotation(after, previous -> {
+                if (previous != null && !previous.hasSameValues(after) && isCurrentPhoto(after.photoId))
+                    record(newEdit(previous, after));
+            });
+            return;
+        }
+        mRepository.updateAnnotation(after);
+        record(newEdit(before, after));
     }
 
     public void deleteAnnotation(Annotation annotation) {
-        saveStateForUndo();
+        if (mPendingInserts.contains(annotation)) {
+            mPendingDeletes.add(annotation);
+            return;
+        }
+        Annotation before = mCommitted.remove(annotation.id);
+        AnnotationEdit edit = newEdit(AnnotationEdit.KIND_DELETE);
+        edit.add(before != null ? before : new Annotation(annotation), null);
         mRepository.deleteAnnotation(annotation);
+        record(edit);
     }
-    
+
     public void reorderAnnotations(List<Annotation> annotations) {
-        saveStateForUndo();
-        // Update order field and save all
+        // Update order field and save only the rows whose position changed
+        AnnotationEdit edit = newEdit(AnnotationEdit.KIND_REORDER);
+        AnnotationDiff diff = new AnnotationDiff();
+        diff.updatesChangeDrawing = false;
         for (int i = 0; i < annotations.size(); i++) {
-            annotations.get(i).order = i;
-        }
-        if (mCurrentPhoto.getValue() != null) {
-            mRepository.replaceAnnotationsForPhoto(mCurrentPhoto.getValue().id, annotations);
+            Annotation a = annotations.get(i);
+            a.order = i;
+            Annotation before = mCommitted.get(a.id);
+            if (before != null && before.order != i) {
+                Annotation after = new Annotation(before);
+                after.order = i;
+                edit.add(before, after);
+                mCommitted.put(after.id, after);
+                diff.updates.add(after);
+            }
         }
+        if (edit.isEmpty())
+            return;
+        mRepository.applyAnnotationDiff(diff);
+        record(edit);
     }
 
-    private void saveStateForUndo() {
-        if (mAnnotations != null && mAnnotations.getValue() != null) {
-            List<Annotation> snapshot = new ArrayList<>();
-            for (Annotation a : mAnnotations.getValue()) {
-                snapshot.add(new Annotation(a)); // Deep copy
-            }
-            undoStack.push(snapshot);
+    public void undo() {
+        AnnotationEdit edit = mHistory.undo();
+        if (edit != null) {
+            apply(edit.toDiff(true));
+            mJournal.setUndone(edit, true);
         }
     }
 
-    public void undo() {
-        if (!undoStack.isEmpty()) {
-            List<Annotation> previousState = undoStack.pop();
-            if (mCurrentPhoto.getValue() != null) {
-                mRepository.replaceAnnotationsForPhoto(mCurrentPhoto.getValue().id, previousState);
-            }
+    public void redo() {
+        AnnotationEdit edit = mHistory.redo();
+        if (edit != null) {
+            apply(edit.toDiff(false));
+            mJournal.setUndone(edit, false);
         }
     }
-    
+
     public boolean canUndo() {
-        return !undoStack.isEmpty();
+        return mHistory.canUndo();
+    }
+
+    public boolean canRedo() {
+        return mHistory.canRedo();
+    }
+
+    private void apply(AnnotationDiff diff) {
+        for (Annotation a : diff.deletes) {
+            mCommitted.remove(a.id);
+        }
+        for (Annotation a : diff.updates) {
+            mCommitted.put(a.id, a);
+        }
+        // Rows brought back keep their ids, so they can be edited before the next emission
+        for (Annotation a : diff.inserts) {
+            mCommitted.put(a.id, a);
+        }
+        mRepository.applyAnnotationDiff(diff);
+    }
+
+    // Edits are recorded once their rows have ids, so the journal serializes them right away and
+    // writes the entry on the annotation write executor, behind every row write submitted so far
+    private void record(AnnotationEdit edit) {
+        AnnotationEdit top = mHistory.record(edit);
+        Long photoId = mPhotoId.getValue();
+        if (top == edit) {
+            if (photoId != null)
+                mJournal.append(photoId, edit);
+        } else {
+            mJournal.rewrite(top);
+        }
+    }
+
+    private void onHistoryRestored(long photoId, List<AnnotationEdit> undo, List<AnnotationEdit> redo) {
+        Long current = mPhotoId.getValue();
+        // Ignore if the user moved on, or already edited before the journal was read
+        if (current == null || current != photoId || mHistory.canUndo() || mHistory.canRedo())
+            return;
+        if (undo.isEmpty() && redo.isEmpty())
+            return;
+        mHistory.restore(undo, redo);
+        mHistoryRestored.setValue(true);
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        mJournal.flush();
+        // Have the list thumbnail ready with the edits made here
+        Long photoId = mPhotoId.getValue();
+        if (photoId != null)
+            ThumbnailStore.getInstance(getApplication()).refresh(photoId);
+    }
+
+    // Seeds mCommitted once per photo. Re-seeding on every emission let a list written before an
+    // undo or redo arrive after it and replace the state that undo or redo had just set.
+    private void onAnnotationsLoaded(List<Annotation> annotations) {
+        if (mCommittedSeeded || annotations == null)
+            return;
+        mCommittedSeeded = true;
+        for (Annotation a : annotations) {
+            // Rows written before the first emission arrived are already newer here
+            if (!mCommitted.containsKey(a.id))
+                mCommitted.put(a.id, new Annotation(a));
+        }
+    }
+
+    private boolean isCurrentPhoto(long photoId) {
+        Long current = mPhotoId.getValue();
+        return current != null && current == photoId;
+    }
+
+    private AnnotationEdit newEdit(int kind) {
+        return new AnnotationEdit(kind, SystemClock.uptimeMillis());
+    }
+
+    // A single-row edit, a move if an endpoint changed
+    private AnnotationEdit newEdit(Annotation before, Annotation after) {
+        boolean moved = before.startX != after.startX || before.startY != after.startY
+                || before.endX != after.endX || before.endY != after.endY;
+        AnnotationEdit edit = newEdit(moved ? AnnotationEdit.KIND_MOVE : AnnotationEdit.KIND_PROPERTIES);
+        edit.add(before, after);
+        return edit;
     }
 }
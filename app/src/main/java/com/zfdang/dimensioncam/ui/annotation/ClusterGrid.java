@@ -0,0 +1,97 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import android.graphics.Rect;
+
+/**
+ * Screen-space grid that groups tiny annotations for one overlay frame. Lines too short to read are
+ * deferred into the cell of their midpoint; a cell that collects enough of them is drawn as one
+ * counted badge instead. Arrays are kept between frames so drawing allocates nothing.
+ */
+class ClusterGrid {
+    // Fewer lines than this in a cell are still drawn one by one
+    private static final int MIN_CLUSTER_SIZE = 3;
+
+    private float left;
+    private float top;
+    private float cellSize;
+    private int cols;
+    private int rows;
+
+    int[] counts = new int[0];
+    private float[] sumX = new float[0];
+    private float[] sumY = new float[0];
+    private boolean[] claimed = new boolean[0];
+
+    // Annotation indexes set aside this frame, and the cell each went into
+    int[] deferred = new int[0];
+    int[] deferredCells = new int[0];
+    int deferredCount;
+
+    void begin(Rect bounds, float cellSize, int capacity) {
+        this.left = bounds.left;
+        this.top = bounds.top;
+        this.cellSize = cellSize;
+        cols = (int) Math.ceil(bounds.width() / cellSize) + 1;
+        rows = (int) Math.ceil(bounds.height() / cellSize) + 1;
+        int cells = cols * rows;
+        if (counts.length < cells) {
+            counts = new int[cells];
+            sumX = new float[cells];
+            sumY = new float[cells];
+            claimed = new boolean[cells];
+        }
+        if (deferred.length < capacity) {
+            deferred = new int[capacity];
+            deferredCells = new int[capacity];
+        }
+        deferredCount = 0;
+    }
+
+    // Defers the annotation, or returns false when its midpoint lies outside the grid
+    boolean add(int index, float x, float y) {
+        int col = (int) Math.floor((x - left) / cellSize);
+        int row = (int) Math.floor((y - top) / cellSize);
+        if (col < 0 || col >= cols || row < 0 || row >= rows)
+            return false;
+        int cell = row * cols + col;
+        counts[cell]++;
+        sumX[cell] += x;
+        sumY[cell] += y;
+        deferred[deferredCount] = index;
+        deferredCells[deferredCount] = cell;
+        deferredCount++;
+        return true;
+    }
+
+    boolean isCluster(int cell) {
+        return counts[cell] >= MIN_CLUSTER_SIZE;
+    }
+
+    // True the first time it is called for a cell this frame, so each badge is drawn once
+    boolean claim(int cell) {
+        if (claimed[cell])
+            return false;
+        claimed[cell] = true;
+        return true;
+    }
+
+    float centerX(int cell) {
+        return sumX[cell] / counts[cell];
+    }
+
+    float centerY(int cell) {
+        return sumY[cell] / counts[cell];
+    }
+
+    // Clears only the cells used this frame
+    void end() {
+        for (int k = 0; k < deferredCount; k++) {
+            int cell = deferredCells[k];
+            counts[cell] = 0;
+            sumX[cell] = 0;
+            sumY[cell] = 0;
+            claimed[cell] = false;
+        }
+        deferredCount = 0;
+    }
+}
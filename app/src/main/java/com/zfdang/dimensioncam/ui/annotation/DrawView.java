@@ -2,6 +2,7 @@ package com.zfdang.dimensioncam.ui.annotation;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Picture;
 import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
@@ -17,15 +18,40 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class DrawView extends View {
+    // Pan and zoom count as one gesture until the matrix has been still this long
+    private static final long SETTLE_DELAY_MS = 120;
 
     private PhotoView photoView;
+    // Own copy of the list, so a drag can swap in its working copy
     private List<Annotation> annotations = new ArrayList<>();
+    // Values of what is on screen, to recognise Room echoing back a change we already show
+    private final List<Annotation> shown = new ArrayList<>();
     private SettingsManager settingsManager;
-    private AnnotationDrawer drawer;
-
-    // Interaction state
+    // Last display rect reported by PhotoView, so drawing never has to query the matrix
+    private final RectF displayRect = new RectF();
+    // While the matrix is changing, the overlay is recorded once and replayed transformed; a full
+    // render follows when it settles. The recording extends half a view past each edge so panning
+    // and zooming out do not reveal culled annotations right away.
+    private Picture gestureLayer;
+    private final RectF gestureLayerRect = new RectF();
+    private int gestureLayerMarginX;
+    private int gestureLayerMarginY;
+    private final Runnable settleRunnable = this::dropGestureLayer;
+    // Only turned off to measure full renders during gestures against the recording
+    private boolean gestureLayerEnabled = true;
+
+    // Interaction state. During a drag activeAnnotation is a working copy standing in for
+    // draggedOriginal, so the objects owned by LiveData are never touched mid-gesture
     private Annotation activeAnnotation = null;
-    private int activeControlPoint = -1; // 0: start, 1: end, -1: none
+    private Annotation draggedOriginal = null;
+    private int activeIndex = -1;
+    // List that arrived mid-gesture
+    private List<Annotation> pendingAnnotations = null;
+    private int activeControlPoint = -1; // 0: start, 1: end, 2: whole line, -1: none
+    // Last touch position in normalized coordinates, for dragging a whole line
+    private float lastTouchX;
+    private float lastTouchY;
+    private final AnnotationSpatialIndex spatialIndex = new AnnotationSpatialIndex();
     private OnAnnotationChangeListener listener;
 
     public interface OnAnnotationChangeListener {
@@ -45,19 +71,107 @@ public class DrawView extends View {
     }
 
     private void init(Context context) {
-        settingsManager = new SettingsManager(context);
-        drawer = new AnnotationDrawer(context);
+        settingsManager = SettingsManager.getInstance(context);
+    }
+
+    // Only the arrow style is drawn from settings; everything else is read where it is used
+    private final SettingsManager.OnSettingsChangedListener settingsListener = (oldSettings, newSettings) -> {
+        if (oldSettings.arrowStyle != newSettings.arrowStyle)
+            post(this::dropGestureLayer);
+    };
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        settingsManager.addListener(settingsListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(settleRunnable);
+        gestureLayer = null;
+        settingsManager.removeListener(settingsListener);
+        super.onDetachedFromWindow();
     }
 
     public void setPhotoView(PhotoView photoView) {
         this.photoView = photoView;
     }
 
+    // Called from PhotoView's matrix change listener during pan and zoom
+    public void setDisplayRect(RectF rect) {
+        // First change of a gesture: record what is on screen now
+        if (gestureLayerEnabled && gestureLayer == null && activeAnnotation == null && !displayRect.isEmpty()
+                && !displayRect.equals(rect))
+            recordGestureLayer();
+        displayRect.set(rect);
+        removeCallbacks(settleRunnable);
+        postDelayed(settleRunnable, SETTLE_DELAY_MS);
+        invalidate();
+    }
+
+    private void recordGestureLayer() {
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0 || annotations.isEmpty())
+            return;
+        gestureLayerMarginX = width / 2;
+        gestureLayerMarginY = height / 2;
+        Picture picture = new Picture();
+        Canvas canvas = picture.beginRecording(width + 2 * gestureLayerMarginX, height + 2 * gestureLayerMarginY);
+        canvas.translate(gestureLayerMarginX, gestureLayerMarginY);
+        drawOverlay(canvas, displayRect);
+        picture.endRecording();
+        gestureLayer = picture;
+        gestureLayerRect.set(displayRect);
+    }
+
+    void setGestureLayerEnabled(boolean enabled) {
+        gestureLayerEnabled = enabled;
+        dropGestureLayer();
+    }
+
+    // Back to full rendering at the current matrix
+    private void dropGestureLayer() {
+        removeCallbacks(settleRunnable);
+        gestureLayer = null;
+        invalidate();
+    }
+
+    private RectF getDisplayRect() {
+        if (displayRect.isEmpty() && photoView != null) {
+            RectF rect = photoView.getDisplayRect();
+            if (rect != null)
+                displayRect.set(rect);
+        }
+        return displayRect.isEmpty() ? null : displayRect;
+    }
+
     public void setAnnotations(List<Annotation> annotations) {
-        this.annotations = annotations;
+        if (annotations == null)
+            annotations = new ArrayList<>();
+        // Applied when the current gesture ends
+        if (activeAnnotation != null) {
+            pendingAnnotations = annotations;
+            return;
+        }
+        // The write at the end of a drag comes back unchanged; nothing to rebuild or redraw
+        if (isShown(annotations))
+            return;
+        this.annotations = new ArrayList<>(annotations);
+        shown.clear();
+        for (Annotation a : annotations) {
+            shown.add(new Annotation(a));
+        }
+        spatialIndex.rebuild(this.annotations);
+        gestureLayer = null;
         invalidate();
     }
 
+    private boolean isShown(List<Annotation> list) {
+        return shown.equals(list);
+    }
+
     public void setListener(OnAnnotationChangeListener listener) {
         this.listener = listener;
     }
@@ -68,12 +182,29 @@ public class DrawView extends View {
         if (photoView == null || annotations == null)
             return;
 
-        RectF displayRect = photoView.getDisplayRect();
-        if (displayRect == null)
+        RectF rect = getDisplayRect();
+        if (rect == null)
             return;
 
-        int arrowStyle = settingsManager.getArrowStyle();
-        drawer.draw(canvas, annotations, displayRect, arrowStyle, true, 1.0f, true);
+        if (gestureLayer != null && gestureLayerRect.width() > 0) {
+            // Same content, moved and scaled from where it was recorded to the current rect
+            float scale = rect.width() / gestureLayerRect.width();
+            int saveCount = canvas.save();
+            canvas.translate(rect.left, rect.top);
+            canvas.scale(scale, scale);
+            canvas.translate(-gestureLayerRect.left - gestureLayerMarginX, -gestureLayerRect.top - gestureLayerMarginY);
+            canvas.drawPicture(gestureLayer);
+            canvas.restoreToCount(saveCount);
+            return;
+        }
+        drawOverlay(canvas, rect);
+    }
+
+    private void drawOverlay(Canvas canvas, RectF rect) {
+        AnnotationRenderer renderer = AnnotationRenderer.getInstance();
+        RenderStyle style = renderer.getStyle(getContext(), settingsManager.getArrowStyle());
+        // The rect alone gives the on-screen size the overlay is scaled for
+        renderer.drawOverlay(canvas, annotations, rect, style);
     }
 
     // Interaction logic remains the same, need to duplicate mapping logic or expose
@@ -81,14 +212,6 @@ public class DrawView extends View {
     // Drawer mapping is private. Let's keep interaction logic here as it depends on
     // View coordinates.
 
-    private float mapX(float x, RectF rect) {
-        return rect.left + x * rect.width();
-    }
-
-    private float mapY(float y, RectF rect) {
-        return rect.top + y * rect.height();
-    }
-
     private float unmapX(float x, RectF rect) {
         return (x - rect.left) / rect.width();
     }
@@ -101,7 +224,7 @@ public class DrawView extends View {
     public boolean onTouchEvent(MotionEvent event) {
         if (photoView == null)
             return false;
-        RectF rect = photoView.getDisplayRect();
+        RectF rect = getDisplayRect();
         if (rect == null)
             return false;
 
@@ -110,30 +233,20 @@ public class DrawView extends View {
 
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
-                activeAnnotation = null;
-                activeControlPoint = -1;
+                cancelDrag();
                 float threshold = com.zfdang.dimensioncam.utils.Constants.TOUCH_THRESHOLD_DP;
 
-                for (int i = annotations.size() - 1; i >= 0; i--) {
-                    Annotation a = annotations.get(i);
-                    float sx = mapX(a.startX, rect);
-                    float sy = mapY(a.startY, rect);
-                    float ex = mapX(a.endX, rect);
-                    float ey = mapY(a.endY, rect);
-
-                    if (dist(x, y, sx, sy) < threshold) {
-                        activeAnnotation = a;
-                        activeControlPoint = 0;
-                        if (listener != null)
-                            listener.onAnnotationSelected(a);
-                        return true;
-                    } else if (dist(x, y, ex, ey) < threshold) {
-                        activeAnnotation = a;
-                        activeControlPoint = 1;
-                        if (listener != null)
-                            listener.onAnnotationSelected(a);
-                        return true;
-                    }
+                // Endpoints take priority over the line itself
+                if (spatialIndex.findEndpoint(x, y, rect, threshold)
+                        || spatialIndex.findSegment(x, y, rect, threshold / 2)) {
+                    if (!startDrag(spatialIndex.hitAnnotation))
+                        return false;
+                    activeControlPoint = spatialIndex.hitPart;
+                    lastTouchX = unmapX(x, rect);
+                    lastTouchY = unmapY(y, rect);
+                    if (listener != null)
+                        listener.onAnnotationSelected(draggedOriginal);
+                    return true;
                 }
                 return false;
 
@@ -142,16 +255,24 @@ public class DrawView extends View {
                     float newX = unmapX(x, rect);
                     float newY = unmapY(y, rect);
 
-                    newX = Math.max(0, Math.min(1, newX));
-                    newY = Math.max(0, Math.min(1, newY));
-
-                    if (activeControlPoint == 0) {
-                        activeAnnotation.startX = newX;
-                        activeAnnotation.startY = newY;
+                    if (activeControlPoint == AnnotationSpatialIndex.PART_LINE) {
+                        moveLine(activeAnnotation, newX - lastTouchX, newY - lastTouchY);
+                        lastTouchX = newX;
+                        lastTouchY = newY;
                     } else {
-                        activeAnnotation.endX = newX;
-                        activeAnnotation.endY = newY;
+                        newX = Math.max(0, Math.min(1, newX));
+                        newY = Math.max(0, Math.min(1, newY));
+
+                        if (activeControlPoint == AnnotationSpatialIndex.PART_START) {
+                            activeAnnotation.startX = newX;
+                            activeAnnotation.startY = newY;
+                        } else {
+                            activeAnnotation.endX = newX;
+                            activeAnnotation.endY = newY;
+                        }
                     }
+                    spatialIndex.update(activeAnnotation);
+                    // Partial invalidation is ignored by hardware-accelerated views, so redraw all
                     invalidate();
                     return true;
                 }
@@ -159,11 +280,30 @@ public class DrawView extends View {
 
             case MotionEvent.ACTION_UP:
                 if (activeAnnotation != null) {
-                    if (listener != null) {
-                        listener.onAnnotationModified(activeAnnotation);
-                    }
+                    Annotation result = activeAnnotation;
+                    // Keep showing the working copy; the stored list catches up with the same values
+                    shown.set(activeIndex, new Annotation(result));
+                    boolean changed = !result.hasSameValues(draggedOriginal);
+                    if (changed)
+                        mergeIntoPending(draggedOriginal, result);
                     activeAnnotation = null;
+                    draggedOriginal = null;
+                    activeIndex = -1;
                     activeControlPoint = -1;
+                    // One write per gesture
+                    if (changed && listener != null) {
+                        listener.onAnnotationModified(result);
+                    }
+                    applyPendingAnnotations();
+                    return true;
+                }
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                if (activeAnnotation != null) {
+                    cancelDrag();
+                    invalidate();
+                    applyPendingAnnotations();
                     return true;
                 }
                 break;
@@ -171,7 +311,71 @@ public class DrawView extends View {
         return false;
     }
 
-    private float dist(float x1, float y1, float x2, float y2) {
-        return (float) Math.hypot(x2 - x1, y2 - y1);
+    private boolean startDrag(Annotation hit) {
+        int index = -1;
+        for (int i = 0; i < annotations.size(); i++) {
+            if (annotations.get(i) == hit) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0)
+            return false;
+        gestureLayer = null;
+        draggedOriginal = hit;
+        activeAnnotation = new Annotation(hit);
+        activeIndex = index;
+        annotations.set(index, activeAnnotation);
+        spatialIndex.remove(hit);
+        spatialIndex.insert(activeAnnotation, index);
+        return true;
+    }
+
+    // A list that arrived mid-gesture predates the write made on release. Show the dropped line in
+    // it until that write comes back, instead of snapping it back to where the drag started.
+    private void mergeIntoPending(Annotation original, Annotation result) {
+        if (pendingAnnotations == null)
+            return;
+        for (int i = 0; i < pendingAnnotations.size(); i++) {
+            Annotation a = pendingAnnotations.get(i);
+            if (a == original || (original.id != 0 && a.id == original.id)) {
+                // The list belongs to LiveData; change a copy
+                List<Annotation> merged = new ArrayList<>(pendingAnnotations);
+                merged.set(i, result);
+                pendingAnnotations = merged;
+                return;
+            }
+        }
+    }
+
+    private void applyPendingAnnotations() {
+        if (pendingAnnotations == null)
+            return;
+        List<Annotation> pending = pendingAnnotations;
+        pendingAnnotations = null;
+        setAnnotations(pending);
+    }
+
+    // Puts the original back in place of the working copy
+    private void cancelDrag() {
+        if (activeAnnotation == null)
+            return;
+        annotations.set(activeIndex, draggedOriginal);
+        spatialIndex.remove(activeAnnotation);
+        spatialIndex.insert(draggedOriginal, activeIndex);
+        activeAnnotation = null;
+        draggedOriginal = null;
+        activeIndex = -1;
+        activeControlPoint = -1;
+    }
+
+    // Shifts both endpoints, limited so the whole line stays inside the image
+    private void moveLine(Annotation a, float dx, float dy) {
+        dx = Math.max(-Math.min(a.startX, a.endX), Math.min(1 - Math.max(a.startX, a.endX), dx));
+        dy = Math.max(-Math.min(a.startY, a.endY), Math.min(1 - Math.max(a.startY, a.endY), dy));
+        a.startX += dx;
+        a.startY += dy;
+        a.endX += dx;
+        a.endY += dy;
     }
 }
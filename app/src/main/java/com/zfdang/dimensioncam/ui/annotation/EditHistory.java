@@ -0,0 +1,102 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Undo/redo stacks of AnnotationEdit deltas with a memory budget. When the budget is exceeded the
+ * oldest undo steps are dropped first.
+ */
+class EditHistory {
+    static final long DEFAULT_BUDGET_BYTES = 256 * 1024;
+
+    // Newest edit is at the end of each deque
+    private final ArrayDeque<AnnotationEdit> undoStack = new ArrayDeque<>();
+    private final ArrayDeque<AnnotationEdit> redoStack = new ArrayDeque<>();
+    private final long budgetBytes;
+    private long usedBytes;
+
+    EditHistory() {
+        this(DEFAULT_BUDGET_BYTES);
+    }
+
+    EditHistory(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    // Returns the edit now on top of the undo stack: the given one, or the one it was merged into
+    AnnotationEdit record(AnnotationEdit edit) {
+        // A new edit ends the redo branch
+        for (AnnotationEdit e : redoStack) {
+            usedBytes -= e.estimatedBytes();
+        }
+        redoStack.clear();
+
+        AnnotationEdit top = undoStack.peekLast();
+        if (top != null && top.canCoalesce(edit)) {
+            usedBytes -= top.estimatedBytes();
+            top.coalesce(edit);
+            usedBytes += top.estimatedBytes();
+        } else {
+            undoStack.addLast(edit);
+            usedBytes += edit.estimatedBytes();
+            top = edit;
+        }
+        trim();
+        return top;
+    }
+
+    // Replaces the stacks with edits read back from the journal
+    void restore(List<AnnotationEdit> undo, List<AnnotationEdit> redo) {
+        clear();
+        for (AnnotationEdit e : undo) {
+            undoStack.addLast(e);
+            usedBytes += e.estimatedBytes();
+        }
+        for (AnnotationEdit e : redo) {
+            redoStack.addLast(e);
+            usedBytes += e.estimatedBytes();
+        }
+        trim();
+    }
+
+    private void trim() {
+        while (usedBytes > budgetBytes && undoStack.size() > 1) {
+            usedBytes -= undoStack.pollFirst().estimatedBytes();
+        }
+    }
+
+    // Returns the edit to revert, or null if there is none
+    AnnotationEdit undo() {
+        AnnotationEdit edit = undoStack.pollLast();
+        if (edit != null)
+            redoStack.addLast(edit);
+        return edit;
+    }
+
+    // Returns the edit to re-apply, or null if there is none
+    AnnotationEdit redo() {
+        AnnotationEdit edit = redoStack.pollLast();
+        if (edit != null)
+            undoStack.addLast(edit);
+        return edit;
+    }
+
+    boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        usedBytes = 0;
+    }
+}
@@ -0,0 +1,173 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.EditJournalDao;
+import com.zfdang.dimensioncam.data.EditJournalEntry;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Mirrors EditHistory into the edit_journal table so undo and redo survive process death.
+ * Operations are queued on the main thread and written in one transaction per flush on the
+ * annotation write executor, after the annotation writes they describe.
+ */
+class EditJournal {
+    private static final String TAG = "EditJournal";
+
+    // Older entries of a photo are dropped beyond this, so restoring stays fast
+    static final int MAX_ENTRIES_PER_PHOTO = 200;
+    // Edits made within this delay share one transaction
+    private static final long FLUSH_DELAY_MS = 500;
+
+    private static final Type ROWS_TYPE = new TypeToken<List<Annotation>>() {}.getType();
+
+    interface RestoreCallback {
+        // Both lists in stack order, the next edit to undo or redo last
+        void onRestored(long photoId, List<AnnotationEdit> undo, List<AnnotationEdit> redo);
+    }
+
+    private final AppDatabase database;
+    private final EditJournalDao dao;
+    // Must be the executor the annotation rows are written on
+    private final Executor writeExecutor;
+    private final Gson gson = new Gson();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Only touched on the main thread
+    private final List<Runnable> pending = new ArrayList<>();
+    private final Set<Long> appendedPhotos = new HashSet<>();
+    private final Runnable flushRunnable = this::flush;
+
+    EditJournal(Context context) {
+        this(AppDatabase.getDatabase(context), AppDatabase.annotationWriteExecutor);
+    }
+
+    // For tests with an in-memory database
+    EditJournal(AppDatabase database, Executor writeExecutor) {
+        this.database = database;
+        this.dao = database.editJournalDao();
+        this.writeExecutor = writeExecutor;
+    }
+
+    // Rows are serialized on the caller's thread, since coalescing keeps changing edit.after there
+    // while the entry waits for its flush. Row ids are known by the time an edit is recorded
+    void append(long photoId, AnnotationEdit edit) {
+        appendedPhotos.add(photoId);
+        String beforeJson = gson.toJson(edit.before, ROWS_TYPE);
+        String afterJson = gson.toJson(edit.after, ROWS_TYPE);
+        long createdAt = System.currentTimeMillis();
+        enqueue(() -> {
+            // A new edit ends the redo branch
+            dao.deleteUndone(photoId);
+            edit.journalId = dao.insert(new EditJournalEntry(photoId, edit.kind, beforeJson, afterJson, createdAt));
+        });
+    }
+
+    // Rewrites the result of an edit that absorbed a later one
+    void rewrite(AnnotationEdit edit) {
+        String afterJson = gson.toJson(edit.after, ROWS_TYPE);
+        long updatedAt = System.currentTimeMillis();
+        enqueue(() -> {
+            if (edit.journalId != 0)
+                dao.updateAfter(edit.journalId, afterJson, updatedAt);
+        });
+    }
+
+    void setUndone(AnnotationEdit edit, boolean undone) {
+        enqueue(() -> {
+            if (edit.journalId != 0)
+                dao.setUndone(edit.journalId, undone);
+        });
+    }
+
+    // Reads the journal of a photo after everything queued so far has been written
+    void restore(long photoId, RestoreCallback callback) {
+        flush();
+        writeExecutor.execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            List<EditJournalEntry> entries = dao.getEntriesForPhoto(photoId);
+            List<AnnotationEdit> undo = new ArrayList<>();
+            List<AnnotationEdit> redo = new ArrayList<>();
+            for (EditJournalEntry entry : entries) {
+                AnnotationEdit edit = toEdit(entry);
+                if (edit == null)
+                    continue;
+                if (entry.undone) {
+                    // The first undone entry is the next one to redo, so it goes on top
+                    redo.add(0, edit);
+                } else {
+                    undo.add(edit);
+                }
+            }
+            Log.d(TAG, "Restored " + entries.size() + " edits of photo " + photoId + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            handler.post(() -> callback.onRestored(photoId, undo, redo));
+        });
+    }
+
+    // Writes queued operations now instead of waiting for the flush delay
+    void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (pending.isEmpty())
+            return;
+        // Taken on the main thread, so the batch only covers annotation writes already submitted
+        List<Runnable> batch = new ArrayList<>(pending);
+        List<Long> photos = new ArrayList<>(appendedPhotos);
+        pending.clear();
+        appendedPhotos.clear();
+        writeExecutor.execute(() -> {
+            try {
+                database.runInTransaction(() -> {
+                    for (Runnable op : batch) {
+                        op.run();
+                    }
+                    // Compaction: older steps are beyond any useful undo depth
+                    for (long photoId : photos) {
+                        dao.trim(photoId, MAX_ENTRIES_PER_PHOTO);
+                    }
+                });
+            } catch (Exception e) {
+                // Losing journal entries only shortens undo after a restart
+                Log.e(TAG, "Writing edit journal failed", e);
+            }
+        });
+    }
+
+    private void enqueue(Runnable op) {
+        pending.add(op);
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+    }
+
+    private AnnotationEdit toEdit(EditJournalEntry entry) {
+        try {
+            List<Annotation> before = gson.fromJson(entry.beforeJson, ROWS_TYPE);
+            List<Annotation> after = gson.fromJson(entry.afterJson, ROWS_TYPE);
+            if (before == null || after == null || before.size() != after.size())
+                return null;
+            // Restored edits never coalesce with new ones
+            AnnotationEdit edit = new AnnotationEdit(entry.kind, AnnotationEdit.RESTORED_TIMESTAMP);
+            for (int i = 0; i < before.size(); i++) {
+                edit.add(before.get(i), after.get(i));
+            }
+            edit.journalId = entry.id;
+            return edit;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Skipping unreadable journal entry " + entry.id, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Objects;
+
+/**
+ * Process-wide cache of rasterized labels. Text with a shadow layer is slow to draw, so each
+ * distinct label is drawn once with its shadow into a bitmap that is then blitted, rotated, every
+ * time it appears. Bitmaps are immutable once cached and shared by all drawing threads; evicted ones
+ * are left to the garbage collector since another thread may still be drawing them.
+ */
+final class LabelCache {
+    // Text sizes are rounded down to steps of this ratio, so zooming and scale factors reuse bitmaps.
+    // A cached label is scaled up by less than this when blitted, which stays sharp
+    static final float SIZE_STEP = 1.04f;
+    private static final double LOG_SIZE_STEP = Math.log(SIZE_STEP);
+    // Smaller text is drawn directly: its shadow is cheap, and upscaling would blur it the most
+    static final float MIN_TEXT_SIZE = 16f;
+
+    private static volatile LabelCache INSTANCE;
+
+    static final class Key {
+        String text;
+        int color;
+        int sizeBucket;
+
+        Key() {
+        }
+
+        Key(String text, int color, int sizeBucket) {
+            set(text, color, sizeBucket);
+        }
+
+        void set(String text, int color, int sizeBucket) {
+            this.text = text;
+            this.color = color;
+            this.sizeBucket = sizeBucket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return color == other.color && sizeBucket == other.sizeBucket && Objects.equals(text, other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text != null ? text.hashCode() : 0;
+            result = 31 * result + color;
+            result = 31 * result + sizeBucket;
+            return result;
+        }
+    }
+
+    static final class Label {
+        final Bitmap bitmap;
+        // Distance from the bitmap's top to the text baseline
+        final float baseline;
+
+        Label(Bitmap bitmap, float baseline) {
+            this.bitmap = bitmap;
+            this.baseline = baseline;
+        }
+    }
+
+    private final LruCache<Key, Label> cache;
+    // Larger labels are drawn directly; one would push most others out of the cache
+    private final int maxLabelBytes;
+
+    static LabelCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (LabelCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new LabelCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private LabelCache() {
+        this((int) Math.min(16L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 32));
+    }
+
+    // budget is in bytes of label bitmaps
+    LabelCache(int budget) {
+        maxLabelBytes = budget / 8;
+        cache = new LruCache<Key, Label>(budget) {
+            @Override
+            protected int sizeOf(Key key, Label value) {
+                return value.bitmap.getByteCount();
+            }
+        };
+    }
+
+    // bucketSize(sizeBucket(size)) is at most size, and more than size / SIZE_STEP
+    static int sizeBucket(float textSize) {
+        int bucket = (int) Math.floor(Math.log(textSize) / LOG_SIZE_STEP);
+        // Rounding in log() can land an exact step one bucket off
+        if (bucketSize(bucket + 1) <= textSize)
+            return bucket + 1;
+        return bucketSize(bucket) > textSize ? bucket - 1 : bucket;
+    }
+
+    static float bucketSize(int sizeBucket) {
+        return (float) Math.pow(SIZE_STEP, sizeBucket);
+    }
+
+    // Bytes of label bitmaps currently cached
+    int size() {
+        return cache.size();
+    }
+
+    Label get(Key key) {
+        return cache.get(key);
+    }
+
+    // The key must not be changed afterwards
+    void put(Key key, Label label) {
+        if (label.bitmap.getByteCount() <= maxLabelBytes)
+            cache.put(key, label);
+    }
+
+    boolean fits(int width, int height) {
+        return (long) width * height * 4 <= maxLabelBytes;
+    }
+}
@@ -0,0 +1,79 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import android.content.Context;
+import android.content.res.Configuration;
+
+import com.zfdang.dimensioncam.data.Annotation;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Immutable snapshot of everything annotation rendering reads from settings and resources. Built
+ * once per style change and shared between threads; nothing here refers back to a Context.
+ */
+public final class RenderStyle {
+    private static final int[] UNITS = {Annotation.UNIT_MM, Annotation.UNIT_CM, Annotation.UNIT_DM, Annotation.UNIT_M};
+
+    private final int arrowStyle;
+    private final Locale locale;
+    // Localized unit names indexed by Annotation.UNIT_*
+    private final String[] unitLabels;
+
+    // unitLabels is indexed by Annotation.UNIT_* and must not be changed afterwards
+    RenderStyle(int arrowStyle, Locale locale, String[] unitLabels) {
+        this.arrowStyle = arrowStyle;
+        this.locale = locale;
+        this.unitLabels = unitLabels;
+    }
+
+    // Resolves unit names with the context's resources, so labels follow the in-app language
+    public static RenderStyle create(Context context, int arrowStyle) {
+        String[] labels = new String[UNITS.length];
+        for (int unit : UNITS) {
+            labels[unit] = context.getString(Annotation.getUnitStringResource(unit));
+        }
+        return new RenderStyle(arrowStyle, localeOf(context), labels);
+    }
+
+    // Same labels and locale with another arrow style, for code that holds no localized context
+    public RenderStyle withArrowStyle(int arrowStyle) {
+        return arrowStyle == this.arrowStyle ? this : new RenderStyle(arrowStyle, locale, unitLabels);
+    }
+
+    static Locale localeOf(Context context) {
+        Configuration config = context.getResources().getConfiguration();
+        return config.getLocales().isEmpty() ? Locale.getDefault() : config.getLocales().get(0);
+    }
+
+    public int getArrowStyle() {
+        return arrowStyle;
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    String getUnitLabel(int unit) {
+        return unit >= 0 && unit < unitLabels.length ? unitLabels[unit] : unitLabels[Annotation.UNIT_CM];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof RenderStyle))
+            return false;
+        RenderStyle other = (RenderStyle) o;
+        return arrowStyle == other.arrowStyle && locale.equals(other.locale)
+                && Arrays.equals(unitLabels, other.unitLabels);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = arrowStyle;
+        result = 31 * result + locale.hashCode();
+        result = 31 * result + Arrays.hashCode(unitLabels);
+        return result;
+    }
+}
@@ -0,0 +1,369 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.LruCache;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.utils.ImageOrientation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sharp tiles of the original image drawn over PhotoView's screen-sized preview once the user zooms
+ * in. Tiles are decoded with BitmapRegionDecoder at the sample size matching the current zoom, kept
+ * in an LRU cache, and only requested while they are visible.
+ */
+public class TileView extends View {
+    private static final String TAG = "TileView";
+
+    // Edge of a tile in decoded pixels
+    private static final int TILE_SIZE = 512;
+    // Below this zoom (relative to fitting the view) the preview is already sharp enough
+    private static final float MIN_TILED_ZOOM = 1.1f;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF displayRect = new RectF();
+    private final RectF tileRect = new RectF();
+    private final RectF visibleRect = new RectF();
+    // Stored pixels to screen, and back
+    private final Matrix toScreen = new Matrix();
+    private final Matrix toSource = new Matrix();
+    private static final long[] NO_TILES = new long[0];
+
+    // Tiles are keyed by tileKey(), so drawing allocates nothing per tile. The LRU cache holds the
+    // byte budget and eviction order; tiles mirrors it for lookups without boxing. Main thread only.
+    private final LruCache<Long, Bitmap> cache;
+    private final LongSparseArray<Bitmap> tiles = new LongSparseArray<>();
+    // Tiles with a decode in flight; main thread only
+    private final LongSparseArray<Boolean> requested = new LongSparseArray<>();
+    // Tiles visible in the last complete frame, replaced as a whole so the decode thread never sees
+    // a frame half built. Read there to skip tiles scrolled or zoomed away while queued.
+    private volatile long[] wanted = NO_TILES;
+    // Tiles of the frame being drawn; main thread only
+    private long[] frameTiles = new long[64];
+    private int frameTileCount;
+    private int missingTileCount;
+
+    // One thread: BitmapRegionDecoder serializes decodes internally anyway
+    private ExecutorService executor;
+    // Only touched on the executor
+    private BitmapRegionDecoder decoder;
+    // Bumped for every new image, so results for an earlier one are dropped
+    private volatile int generation;
+    // Stored (unrotated) size of the image, and the transform that turns it upright
+    private int srcWidth;
+    private int srcHeight;
+    private int orientation;
+    private Matrix uprightMatrix;
+    private String path;
+
+    public TileView(Context context) {
+        this(context, null);
+    }
+
+    public TileView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        int cacheBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        cache = new LruCache<Long, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                if (newValue == null)
+                    tiles.remove(key);
+            }
+        };
+    }
+
+    // Sample size, column and row packed into one long; columns and rows stay far below 2^24
+    static long tileKey(int sampleSize, int col, int row) {
+        return ((long) sampleSize << 48) | ((long) col << 24) | row;
+    }
+
+    private static boolean contains(long[] keys, long key) {
+        for (long k : keys) {
+            if (k == key)
+                return true;
+        }
+        return false;
+    }
+
+    // Orientation comes from the photo row; rows from before it was recorded read EXIF here
+    public void setImage(@Nullable Photo photo) {
+        String path = photo != null ? photo.originalPath : null;
+        // The photo observer fires again for the same photo; keep the tiles
+        if (path != null && path.equals(this.path) && executor != null)
+            return;
+        this.path = path;
+        final int gen = ++generation;
+        srcWidth = 0;
+        srcHeight = 0;
+        cache.evictAll();
+        requested.clear();
+        wanted = NO_TILES;
+        invalidate();
+        if (path == null)
+            return;
+        final int knownOrientation = photo.width > 0 ? photo.orientation : ExifInterface.ORIENTATION_UNDEFINED;
+        executor().execute(() -> openDecoder(path, knownOrientation, gen));
+    }
+
+    // Called with PhotoView's display rect whenever it pans or zooms
+    public void setDisplayRect(RectF rect) {
+        displayRect.set(rect);
+        invalidate();
+    }
+
+    // Stops decoding and frees the tiles; the view can be given a new image afterwards
+    public void release() {
+        generation++;
+        path = null;
+        cache.evictAll();
+        requested.clear();
+        wanted = NO_TILES;
+        srcWidth = 0;
+        srcHeight = 0;
+        if (executor != null) {
+            executor.execute(this::closeDecoder);
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                r.run();
+            }, "tiles"));
+        }
+        return executor;
+    }
+
+    private void openDecoder(String path, int knownOrientation, int gen) {
+        closeDecoder();
+        long start = SystemClock.elapsedRealtime();
+        Uri uri = Uri.parse(path);
+        int exifOrientation = knownOrientation;
+        try {
+            if (exifOrientation == ExifInterface.ORIENTATION_UNDEFINED) {
+                try (InputStream is = getContext().getContentResolver().openInputStream(uri)) {
+                    if (is == null)
+                        return;
+                    exifOrientation = new ExifInterface(is).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                            ExifInterface.ORIENTATION_NORMAL);
+                }
+            }
+            try (InputStream is = getContext().getContentResolver().openInputStream(uri)) {
+                if (is == null)
+                    return;
+                decoder = BitmapRegionDecoder.newInstance(is, false);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot open " + path + " for tiling", e);
+            return;
+        }
+        if (decoder == null)
+            return;
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        int imageOrientation = exifOrientation;
+        Log.d(TAG, "Opened " + width + "x" + height + " for tiling in " + (SystemClock.elapsedRealtime() - start)
+                + " ms");
+        post(() -> {
+            if (gen != generation)
+                return;
+            srcWidth = width;
+            srcHeight = height;
+            orientation = imageOrientation;
+            uprightMatrix = ImageOrientation.toUpright(imageOrientation, width, height);
+            invalidate();
+        });
+    }
+
+    private void closeDecoder() {
+        if (decoder != null) {
+            decoder.recycle();
+            decoder = null;
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        frameTileCount = 0;
+        drawTiles(canvas);
+        publishWanted();
+        // Requested once the frame is published, so the decode thread sees these tiles as wanted
+        missingTileCount = 0;
+        for (int i = 0; i < frameTileCount; i++) {
+            long key = frameTiles[i];
+            if (tiles.get(key) == null) {
+                missingTileCount++;
+                requestTile(key);
+            }
+        }
+    }
+
+    // Whether the image is open for tiling
+    boolean isReady() {
+        return srcWidth > 0;
+    }
+
+    // Whether the last frame needed tiles and drew all of them
+    boolean isSharp() {
+        return frameTileCount > 0 && missingTileCount == 0;
+    }
+
+    private void drawTiles(Canvas canvas) {
+        if (srcWidth == 0 || displayRect.isEmpty())
+            return;
+        // Region decoding ignores EXIF orientation, so tiles are cut from the stored pixels and
+        // turned upright when drawn, matching the preview
+        boolean swap = ImageOrientation.swapsDimensions(orientation);
+        int uprightWidth = swap ? srcHeight : srcWidth;
+        int uprightHeight = swap ? srcWidth : srcHeight;
+        // Preview covers it until the image is zoomed past fitting the view
+        float fitScale = Math.min(getWidth() / (float) uprightWidth, getHeight() / (float) uprightHeight);
+        float scale = displayRect.width() / uprightWidth; // screen pixels per source pixel
+        if (scale < fitScale * MIN_TILED_ZOOM)
+            return;
+
+        // Largest power of two that still gives at least one decoded pixel per screen pixel
+        int sampleSize = 1;
+        while (sampleSize * 2 <= 1 / scale) {
+            sampleSize *= 2;
+        }
+        int tileSrc = TILE_SIZE * sampleSize;
+
+        toScreen.set(uprightMatrix);
+        toScreen.postScale(scale, scale);
+        toScreen.postTranslate(displayRect.left, displayRect.top);
+        if (!toScreen.invert(toSource))
+            return;
+
+        // Visible part of the image in stored pixels
+        visibleRect.set(0, 0, getWidth(), getHeight());
+        toSource.mapRect(visibleRect);
+        float left = Math.max(0, visibleRect.left);
+        float top = Math.max(0, visibleRect.top);
+        float right = Math.min(srcWidth, visibleRect.right);
+        float bottom = Math.min(srcHeight, visibleRect.bottom);
+        if (right <= left || bottom <= top)
+            return;
+
+        int col0 = (int) (left / tileSrc);
+        int col1 = (int) ((right - 1) / tileSrc);
+        int row0 = (int) (top / tileSrc);
+        int row1 = (int) ((bottom - 1) / tileSrc);
+        int saveCount = canvas.save();
+        canvas.concat(toScreen);
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                long key = tileKey(sampleSize, col, row);
+                addFrameTile(key);
+                Bitmap tile = tiles.get(key);
+                if (tile == null)
+                    continue;
+                tileRect.set(col * tileSrc, row * tileSrc,
+                        Math.min(srcWidth, (col + 1) * tileSrc), Math.min(srcHeight, (row + 1) * tileSrc));
+                canvas.drawBitmap(tile, null, tileRect, paint);
+            }
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    private void addFrameTile(long key) {
+        if (frameTileCount == frameTiles.length)
+            frameTiles = Arrays.copyOf(frameTiles, frameTileCount * 2);
+        frameTiles[frameTileCount++] = key;
+    }
+
+    // A new snapshot only when the visible tiles change, which panning does every tile or so
+    private void publishWanted() {
+        long[] current = wanted;
+        if (current.length == frameTileCount) {
+            boolean same = true;
+            for (int i = 0; i < frameTileCount && same; i++) {
+                same = current[i] == frameTiles[i];
+            }
+            if (same)
+                return;
+        }
+        long[] keys = frameTileCount == 0 ? NO_TILES : Arrays.copyOf(frameTiles, frameTileCount);
+        wanted = keys;
+        // Drawing reads the mirror, so tell the LRU cache which tiles are in use
+        for (long key : keys) {
+            cache.get(key);
+        }
+    }
+
+    private void requestTile(long key) {
+        if (requested.get(key) != null)
+            return;
+        requested.put(key, Boolean.TRUE);
+        final int sampleSize = (int) (key >>> 48);
+        final int col = (int) ((key >>> 24) & 0xFFFFFF);
+        final int row = (int) (key & 0xFFFFFF);
+        final int tileSrc = TILE_SIZE * sampleSize;
+        final int gen = generation;
+        final int width = srcWidth;
+        final int height = srcHeight;
+        executor().execute(() -> {
+            Bitmap tile = null;
+            // Skip tiles scrolled or zoomed away while queued
+            boolean skipped = gen != generation || !contains(wanted, key) || decoder == null;
+            if (!skipped) {
+                Rect region = new Rect(col * tileSrc, row * tileSrc,
+                        Math.min(width, (col + 1) * tileSrc), Math.min(height, (row + 1) * tileSrc));
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = sampleSize;
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                try {
+                    tile = decoder.decodeRegion(region, options);
+                } catch (RuntimeException | OutOfMemoryError e) {
+                    Log.w(TAG, "Decoding tile " + sampleSize + "/" + col + "/" + row + " failed", e);
+                }
+            }
+            final Bitmap result = tile;
+            post(() -> {
+                if (gen != generation)
+                    return;
+                requested.remove(key);
+                if (result != null) {
+                    tiles.put(key, result);
+                    cache.put(key, result);
+                    invalidate();
+                } else if (skipped && contains(wanted, key)) {
+                    // Came back into view after it was skipped; the next frame asks again
+                    invalidate();
+                }
+            });
+        });
+    }
+}
@@ -1,8 +1,9 @@
 package com.zfdang.dimensioncam.ui.photos;
 
-import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.RectF;
 
 import androidx.annotation.NonNull;
@@ -10,77 +11,127 @@ import androidx.annotation.NonNull;
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
 import com.zfdang.dimensioncam.data.Annotation;
-import com.zfdang.dimensioncam.ui.annotation.AnnotationDrawer;
-import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+import com.zfdang.dimensioncam.data.AnnotationDao;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.ui.annotation.AnnotationRenderer;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+import com.zfdang.dimensioncam.utils.Constants;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.List;
 
 public class AnnotationTransformation extends BitmapTransformation {
 
-    private static final String ID = "com.zfdang.dimensioncam.ui.photos.AnnotationTransformation.v2";
+    private static final String ID = "com.zfdang.dimensioncam.ui.photos.AnnotationTransformation.v6";
     private static final byte[] ID_BYTES = ID.getBytes(CHARSET);
+    // Keeps lines and labels legible on very small thumbnails
+    private static final float MIN_SCALE_FACTOR = 0.2f;
+    private static final Paint BITMAP_PAINT = new Paint(Paint.DITHER_FLAG | Paint.FILTER_BITMAP_FLAG);
 
-    private final List<Annotation> annotations;
-    private final int arrowStyle;
-    private final AnnotationDrawer drawer;
+    // Created on every bind, so it only holds a DAO handle and the shared style snapshot
+    private final AnnotationDao annotationDao;
+    private final long photoId;
+    // Version the bound row had; only annotations of this version are drawn under this key
+    private final long annotationVersion;
+    // Whether the bound row had annotations at that version
+    private final boolean annotated;
+    private final RenderStyle style;
+    // Everything the rendered pixels depend on; shared by the memory and disk cache keys
+    private final byte[] key;
 
-    public AnnotationTransformation(Context context, List<Annotation> annotations) {
-        this.annotations = annotations;
-        SettingsManager settingsManager = new SettingsManager(context);
-        this.arrowStyle = settingsManager.getArrowStyle();
-        this.drawer = new AnnotationDrawer(context);
+    public AnnotationTransformation(AnnotationDao annotationDao, Photo photo, long annotationVersion,
+            RenderStyle style) {
+        this.annotationDao = annotationDao;
+        this.photoId = photo.id;
+        this.annotationVersion = annotationVersion;
+        this.annotated = photo.annotationCount > 0;
+        this.style = style;
+        this.key = buildKey(photo, annotationVersion, style);
+    }
+
+    // annotationVersion changes with every annotation write that alters the drawing, so it stands in
+    // for the annotation values. The path is included because SQLite can hand a deleted photo's id
+    // to a new photo, whose version then starts over.
+    static byte[] buildKey(Photo photo, long annotationVersion, RenderStyle style) {
+        byte[] path = String.valueOf(photo.originalPath).getBytes(CHARSET);
+        byte[] localeBytes = style.getLocale().toString().getBytes(CHARSET);
+        return ByteBuffer.allocate(ID_BYTES.length + 20 + path.length + localeBytes.length)
+                .put(ID_BYTES)
+                .putLong(photo.id)
+                .putLong(annotationVersion)
+                .putInt(style.getArrowStyle())
+                .put(path)
+                .put(localeBytes)
+                .array();
     }
 
     @Override
     protected Bitmap transform(@NonNull BitmapPool pool, @NonNull Bitmap toTransform, int outWidth, int outHeight) {
-        if (annotations == null || annotations.isEmpty()) {
+        // Runs on a Glide worker thread, and only on a cache miss
+        List<Annotation> annotations = annotationDao.getAnnotationsAtVersion(photoId, annotationVersion);
+        if (annotated && (annotations == null || annotations.isEmpty())) {
+            // The photo has moved past the version in the key. The result is cached under this key
+            // all the same, so draw the current rows rather than caching the photo bare; the list
+            // rebinds with the new version anyway
+            annotations = annotationDao.getAnnotationsForPhotoSync(photoId);
+        }
+        boolean hasAnnotations = annotations != null && !annotations.isEmpty();
+        if (!hasAnnotations && toTransform.getWidth() == outWidth && toTransform.getHeight() == outHeight) {
             return toTransform;
         }
 
-        // We need a mutable bitmap to draw on. 
-        // Glide's toTransform might be immutable or recycled if we return a different one.
-        // Best practice: create a new bitmap or copy.
-        // Since we want to draw ON TOP of the image, we can try to copy.
-        
-        Bitmap result = pool.get(toTransform.getWidth(), toTransform.getHeight(), Bitmap.Config.ARGB_8888);
-        result.setHasAlpha(true);
-        
+        // Center-crop to exactly the requested size here instead of in a separate CenterCrop, so we
+        // know where the whole image lands and annotations line up with the cropped pixels
+        int srcWidth = toTransform.getWidth();
+        int srcHeight = toTransform.getHeight();
+        float scale = Math.max(outWidth / (float) srcWidth, outHeight / (float) srcHeight);
+        float imageWidth = srcWidth * scale;
+        float imageHeight = srcHeight * scale;
+        float left = (outWidth - imageWidth) / 2f;
+        float top = (outHeight - imageHeight) / 2f;
+
+        // Photos have no alpha, so half the bytes per pixel is enough
+        boolean hasAlpha = toTransform.hasAlpha();
+        Bitmap result = pool.get(outWidth, outHeight, hasAlpha ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
+        result.setHasAlpha(hasAlpha);
+
         Canvas canvas = new Canvas(result);
-        canvas.drawBitmap(toTransform, 0, 0, null);
-        
-        RectF rect = new RectF(0, 0, result.getWidth(), result.getHeight());
-        
-        // Scale factor: Adjust for thumbnail size vs full screen
-        // Assuming thumbnail is small, we might want thicker lines relative to the image size?
-        // Or just use 1.0f and let it be small. 
-        // Let's try 1.0f first.
-        
-        drawer.draw(canvas, annotations, rect, arrowStyle, false, 1.0f, false);
-        
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(left, top);
+        canvas.drawBitmap(toTransform, matrix, BITMAP_PAINT);
+
+        if (hasAnnotations) {
+            RectF rect = new RectF(left, top, left + imageWidth, top + imageHeight);
+            AnnotationRenderer.getInstance().draw(canvas, annotations, rect, style, false,
+                    thumbnailScaleFactor(imageWidth), false);
+        }
+        canvas.setBitmap(null);
         return result;
     }
 
+    // Lines and labels shrink with the image, as if the editor view were scaled down to this width
+    static float thumbnailScaleFactor(float imageWidth) {
+        return Math.max(MIN_SCALE_FACTOR, imageWidth / Constants.STANDARD_SCREEN_WIDTH);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o instanceof AnnotationTransformation) {
-            AnnotationTransformation other = (AnnotationTransformation) o;
-            return annotations.equals(other.annotations) && arrowStyle == other.arrowStyle;
+            return Arrays.equals(key, ((AnnotationTransformation) o).key);
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return ID.hashCode() + annotations.hashCode() + arrowStyle;
+        return Arrays.hashCode(key);
     }
 
     @Override
     public void updateDiskCacheKey(@NonNull MessageDigest messageDigest) {
-        messageDigest.update(ID_BYTES);
-        // We should also include annotations hash in cache key so it updates when annotations change
-        messageDigest.update(String.valueOf(annotations.hashCode()).getBytes(CHARSET));
-        // Include locale in cache key to support language changes
-        messageDigest.update(java.util.Locale.getDefault().toString().getBytes(CHARSET));
+        messageDigest.update(key);
     }
 }
@@ -4,45 +4,117 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.CheckBox;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.paging.PagingDataAdapter;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy;
 import com.bumptech.glide.load.resource.bitmap.CenterCrop;
 import com.zfdang.dimensioncam.R;
+import com.zfdang.dimensioncam.data.AnnotationDao;
+import com.zfdang.dimensioncam.data.AppDatabase;
 import com.zfdang.dimensioncam.data.Photo;
-import com.zfdang.dimensioncam.data.PhotoWithAnnotations;
+import com.zfdang.dimensioncam.ui.annotation.AnnotationRenderer;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 
-public class PhotoAdapter extends RecyclerView.Adapter<PhotoAdapter.PhotoViewHolder> {
+public class PhotoAdapter extends PagingDataAdapter<Photo, PhotoAdapter.PhotoViewHolder> {
 
-    private List<PhotoWithAnnotations> photos = new ArrayList<>();
     private Context context;
     private OnPhotoClickListener listener;
+    private final ThumbnailStore thumbnailStore;
+    private final SettingsManager settingsManager;
+    private final AnnotationDao annotationDao;
+    // Reused across binds; only touched on the main thread
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+
+    // Multi-select for batch export. Photos are kept by id since their page may be dropped
+    private boolean selectionMode = false;
+    private final Map<Long, Photo> selectedPhotos = new LinkedHashMap<>();
 
     public interface OnPhotoClickListener {
         void onPhotoClick(Photo photo);
         void onDeleteClick(Photo photo);
         void onExportClick(Photo photo);
+        void onSelectionChanged(int selectedCount);
     }
 
+    // Diffs run on a background thread inside the paging library
+    private static final DiffUtil.ItemCallback<Photo> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Photo>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull Photo oldItem, @NonNull Photo newItem) {
+                    return oldItem.id == newItem.id;
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull Photo oldItem, @NonNull Photo newItem) {
+                    return oldItem.createdAt == newItem.createdAt
+                            && Objects.equals(oldItem.originalPath, newItem.originalPath)
+                            && oldItem.annotationCount == newItem.annotationCount
+                            && oldItem.annotationVersion == newItem.annotationVersion;
+                }
+            };
+
     public PhotoAdapter(Context context, OnPhotoClickListener listener) {
+        super(DIFF_CALLBACK);
         this.context = context;
         this.listener = listener;
+        this.thumbnailStore = ThumbnailStore.getInstance(context);
+        this.settingsManager = SettingsManager.getInstance(context);
+        this.annotationDao = AppDatabase.getDatabase(context).annotationDao();
+        // No stable ids: PagingDataAdapter rejects setHasStableIds, and DIFF_CALLBACK already keeps
+        // rows matched by photo id across page loads
+    }
+
+    // Forgets a photo that is being deleted
+    public void removeSelection(long photoId) {
+        if (selectedPhotos.remove(photoId) != null) {
+            listener.onSelectionChanged(selectedPhotos.size());
+        }
+    }
+
+    public boolean isSelectionMode() {
+        return selectionMode;
+    }
+
+    public void setSelectionMode(boolean enabled) {
+        selectionMode = enabled;
+        selectedPhotos.clear();
+        notifyItemRangeChanged(0, getItemCount());
+        listener.onSelectionChanged(0);
+    }
+
+    public List<Photo> getSelectedPhotos() {
+        return new ArrayList<>(selectedPhotos.values());
     }
 
-    public void setPhotos(List<PhotoWithAnnotations> photos) {
-        this.photos = photos;
-        notifyDataSetChanged();
+    private void toggleSelection(Photo photo, int position) {
+        if (selectedPhotos.remove(photo.id) == null) {
+            selectedPhotos.put(photo.id, photo);
+        }
+        if (position != RecyclerView.NO_POSITION)
+            notifyItemChanged(position);
+        listener.onSelectionChanged(selectedPhotos.size());
     }
 
     @NonNull
@@ -54,36 +126,74 @@ public class PhotoAdapter extends RecyclerView.Adapter<PhotoAdapter.PhotoViewHol
 
     @Override
     public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position) {
-        PhotoWithAnnotations item = photos.get(position);
-        Photo photo = item.photo;
-        
-        Glide.with(context)
-                .load(photo.originalPath)
-                .transform(new CenterCrop(), new AnnotationTransformation(context, item.annotations))
-                .into(holder.imageView);
+        Photo photo = getItem(position);
+        if (photo == null)
+            return;
+
+        // Built from the activity context, so labels follow the in-app language
+        RenderStyle style = AnnotationRenderer.getInstance().getStyle(context, settingsManager.getArrowStyle());
+        File thumbnail = thumbnailStore.get(photo, style);
+        if (thumbnail != null) {
+            // Pre-rendered on disk; already annotated and small, so nothing to transform or cache
+            Glide.with(context)
+                    .load(thumbnail)
+                    .diskCacheStrategy(DiskCacheStrategy.NONE)
+                    .transform(new CenterCrop())
+                    .into(holder.imageView);
+        } else if (photo.annotationCount > 0) {
+            // Until the stored thumbnail is ready: annotations are read by the transformation,
+            // only when Glide has nothing cached
+            // The transformation center-crops itself. Glide already samples the decode down to the
+            // view size; RGB_565 halves it again since photos carry no alpha
+            Glide.with(context)
+                    .load(photo.originalPath)
+                    .format(DecodeFormat.PREFER_RGB_565)
+                    .downsample(DownsampleStrategy.CENTER_OUTSIDE)
+                    .transform(new AnnotationTransformation(annotationDao, photo, photo.annotationVersion, style))
+                    .into(holder.imageView);
+        } else {
+            Glide.with(context)
+                    .load(photo.originalPath)
+                    .format(DecodeFormat.PREFER_RGB_565)
+                    .downsample(DownsampleStrategy.CENTER_OUTSIDE)
+                    .transform(new CenterCrop())
+                    .into(holder.imageView);
+        }
 
         // Set annotation count
-        int annotationCount = item.annotations != null ? item.annotations.size() : 0;
-        String countText = context.getString(R.string.annotation_count, annotationCount);
+        String countText = context.getString(R.string.annotation_count, photo.annotationCount);
         holder.annotationCountText.setText(countText);
 
         // Set creation time
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
         String timeText = dateFormat.format(new Date(photo.createdAt));
         holder.creationTimeText.setText(timeText);
 
-        holder.itemView.setOnClickListener(v -> listener.onPhotoClick(photo));
+        holder.selectBox.setVisibility(selectionMode ? View.VISIBLE : View.GONE);
+        holder.selectBox.setChecked(selectedPhotos.containsKey(photo.id));
+        holder.selectBox.setOnClickListener(v -> toggleSelection(photo, holder.getAdapterPosition()));
+
+        holder.itemView.setOnClickListener(v -> {
+            if (selectionMode) {
+                toggleSelection(photo, holder.getAdapterPosition());
+            } else {
+                listener.onPhotoClick(photo);
+            }
+        });
+        // Long press starts multi-select with this photo selected
+        holder.itemView.setOnLongClickListener(v -> {
+            if (!selectionMode) {
+                setSelectionMode(true);
+                toggleSelection(photo, holder.getAdapterPosition());
+            }
+            return true;
+        });
         holder.deleteButton.setOnClickListener(v -> listener.onDeleteClick(photo));
         holder.exportButton.setOnClickListener(v -> listener.onExportClick(photo));
     }
 
-    @Override
-    public int getItemCount() {
-        return photos.size();
-    }
-
     static class PhotoViewHolder extends RecyclerView.ViewHolder {
         ImageView imageView;
+        CheckBox selectBox;
         TextView annotationCountText;
         TextView creationTimeText;
         ImageButton deleteButton;
@@ -92,6 +202,7 @@ public class PhotoAdapter extends RecyclerView.Adapter<PhotoAdapter.PhotoViewHol
         public PhotoViewHolder(@NonNull View itemView) {
             super(itemView);
             imageView = itemView.findViewById(R.id.iv_photo);
+            selectBox = itemView.findViewById(R.id.cb_select);
             annotationCountText = itemView.findViewById(R.id.tv_annotation_count);
             creationTimeText = itemView.findViewById(R.id.tv_creation_time);
             deleteButton = itemView.findViewById(R.id.btn_delete);
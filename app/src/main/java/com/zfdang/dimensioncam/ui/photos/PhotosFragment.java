@@ -2,15 +2,8 @@ package com.zfdang.dimensioncam.ui.photos;
 
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.RectF;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.provider.MediaStore;
@@ -33,18 +26,21 @@ import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.android.material.snackbar.Snackbar;
 import com.zfdang.dimensioncam.R;
-import com.zfdang.dimensioncam.data.Annotation;
-import com.zfdang.dimensioncam.data.AppDatabase;
 import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.export.BatchExporter;
+import com.zfdang.dimensioncam.export.ExportJob;
+import com.zfdang.dimensioncam.export.ExportScheduler;
+import com.zfdang.dimensioncam.importer.ImportJob;
+import com.zfdang.dimensioncam.importer.PhotoImporter;
 import com.zfdang.dimensioncam.ui.MainActivity;
-import com.zfdang.dimensioncam.ui.annotation.AnnotationDrawer;
+import com.zfdang.dimensioncam.ui.annotation.AnnotationRenderer;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
 import com.zfdang.dimensioncam.ui.settings.SettingsManager;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -57,41 +53,31 @@ public class PhotosFragment extends Fragment implements PhotoAdapter.OnPhotoClic
     private PhotoAdapter adapter;
     private Uri currentPhotoUri;
     private SettingsManager settingsManager;
+    private int appliedArrowStyle;
     private TextView emptyHint;
 
     private File currentPhotoFile;
+    // Progress of the running batch export, with its cancel action
+    private Snackbar batchSnackbar;
 
     private final ActivityResultLauncher<Intent> takePictureLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
             result -> {
                 if (result.getResultCode() == Activity.RESULT_OK) {
                     if (currentPhotoFile != null && currentPhotoFile.exists()) {
-                        // Use Uri.fromFile to get file:// URI which is persistent
-                        Uri fileUri = Uri.fromFile(currentPhotoFile);
-                        Photo photo = new Photo(fileUri.toString(), System.currentTimeMillis());
-                        photosViewModel.insert(photo);
+                        // Stored as a file:// URI, which is persistent; size and EXIF are read first
+                        PhotoImporter.getInstance(requireContext())
+                                .addCapturedPhoto(currentPhotoFile, System.currentTimeMillis());
                     }
                 }
             });
 
     private final ActivityResultLauncher<String> pickImageLauncher = registerForActivityResult(
-            new ActivityResultContracts.GetContent(),
-            uri -> {
-                if (uri != null) {
-                    // Copy selected image to internal storage
-                    try {
-                        Uri localUri = copyImageToInternalStorage(uri);
-                        if (localUri != null) {
-                            Photo photo = new Photo(localUri.toString(), System.currentTimeMillis());
-                            photosViewModel.insert(photo);
-                        } else {
-                            Toast.makeText(getContext(), "Failed to import image", Toast.LENGTH_SHORT).show();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        Toast.makeText(getContext(), "Error importing image: " + e.getMessage(), Toast.LENGTH_SHORT)
-                                .show();
-                    }
+            new ActivityResultContracts.GetMultipleContents(),
+            uris -> {
+                if (uris != null && !uris.isEmpty()) {
+                    // Copied into internal storage in the background
+                    importPhotos(uris);
                 }
             });
 
@@ -106,7 +92,7 @@ public class PhotosFragment extends Fragment implements PhotoAdapter.OnPhotoClic
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
             @Nullable Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_photos, container, false);
-        settingsManager = new SettingsManager(getContext());
+        settingsManager = SettingsManager.getInstance(getContext());
 
         recyclerView = view.findViewById(R.id.rv_photos);
         emptyHint = view.findViewById(R.id.tv_empty_hint);
@@ -116,9 +102,11 @@ public class PhotosFragment extends Fragment implements PhotoAdapter.OnPhotoClic
         recyclerView.setAdapter(adapter);
 
         photosViewModel = new ViewModelProvider(this).get(PhotosViewModel.class);
-        photosViewModel.getAllPhotos().observe(getViewLifecycleOwner(), photos -> {
-            adapter.setPhotos(photos);
-            if (photos == null || photos.isEmpty()) {
+        photosViewModel.getPhotos().observe(getViewLifecycleOwner(),
+                pagingData -> adapter.submitData(getViewLifecycleOwner().getLifecycle(), pagingData));
+        // Pages only hold part of the library, so emptiness comes from a count query
+        photosViewModel.getPhotoCount().observe(getViewLifecycleOwner(), count -> {
+            if (count == null || count == 0) {
                 emptyHint.setVisibility(View.VISIBLE);
                 recyclerView.setVisibility(View.GONE);
             } else {
@@ -126,25 +114,125 @@ public class PhotosFragment extends Fragment implements PhotoAdapter.OnPhotoClic
                 recyclerView.setVisibility(View.VISIBLE);
             }
         });
+        // Rows bound with the old arrow style show it until rebound
+        appliedArrowStyle = settingsManager.getArrowStyle();
+        settingsManager.getSettingsLiveData().observe(getViewLifecycleOwner(), settings -> {
+            if (settings.arrowStyle != appliedArrowStyle) {
+                appliedArrowStyle = settings.arrowStyle;
+                adapter.notifyItemRangeChanged(0, adapter.getItemCount());
+            }
+        });
+
+        // A batch started before a rotation is still running in the scheduler
+        BatchExporter batch = ExportScheduler.getInstance(getContext()).getCurrentBatch();
+        if (batch != null)
+            observeBatch(view, batch);
 
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        batchSnackbar = null;
+    }
+
     @Override
     public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
         inflater.inflate(R.menu.menu_photos, menu);
         super.onCreateOptionsMenu(menu, inflater);
     }
 
+    @Override
+    public void onPrepareOptionsMenu(@NonNull Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        boolean selecting = adapter != null && adapter.isSelectionMode();
+        MenuItem addItem = menu.findItem(R.id.action_add_photo);
+        MenuItem exportItem = menu.findItem(R.id.action_export_selected);
+        MenuItem cancelItem = menu.findItem(R.id.action_cancel_selection);
+        if (addItem != null)
+            addItem.setVisible(!selecting);
+        if (exportItem != null) {
+            exportItem.setVisible(selecting);
+            exportItem.setEnabled(!adapter.getSelectedPhotos().isEmpty());
+        }
+        if (cancelItem != null)
+            cancelItem.setVisible(selecting);
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
-        if (item.getItemId() == R.id.action_add_photo) {
+        int itemId = item.getItemId();
+        if (itemId == R.id.action_add_photo) {
             showAddPhotoDialog();
             return true;
+        } else if (itemId == R.id.action_export_selected) {
+            exportSelectedPhotos();
+            return true;
+        } else if (itemId == R.id.action_cancel_selection) {
+            adapter.setSelectionMode(false);
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    public void onSelectionChanged(int selectedCount) {
+        if (getActivity() != null) {
+            getActivity().invalidateOptionsMenu();
+        }
+    }
+
+    private void exportSelectedPhotos() {
+        List<Photo> selected = adapter.getSelectedPhotos();
+        if (selected.isEmpty())
+            return;
+
+        // Decode, draw and encode run as overlapping pipeline stages. Labels are resolved once, here,
+        // with the activity's localized resources
+        RenderStyle style = AnnotationRenderer.getInstance().getStyle(requireContext(), settingsManager.getArrowStyle());
+        BatchExporter batch = ExportScheduler.getInstance(getContext()).startBatch(selected, style,
+                settingsManager.getMaxScaleFactor());
+        if (batch == null) {
+            Toast.makeText(getContext(), R.string.msg_batch_export_running, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        adapter.setSelectionMode(false);
+        observeBatch(requireView(), batch);
+    }
+
+    private void observeBatch(View view, BatchExporter batch) {
+        int total = batch.getPhotoCount();
+        batchSnackbar = Snackbar.make(view, getString(R.string.msg_batch_export_started, total),
+                Snackbar.LENGTH_INDEFINITE)
+                .setAction(R.string.action_cancel_export, v -> batch.cancel());
+        batchSnackbar.show();
+        batch.getProgress().observe(getViewLifecycleOwner(), done -> {
+            if (batchSnackbar != null && done > 0 && !batch.isCancelled()) {
+                batchSnackbar.setText(getString(R.string.msg_batch_export_progress, done, total));
+            }
+        });
+        batch.getState().observe(getViewLifecycleOwner(), state -> {
+            if (state == ExportJob.STATE_QUEUED || state == ExportJob.STATE_RUNNING)
+                return;
+            if (batchSnackbar != null) {
+                batchSnackbar.dismiss();
+                batchSnackbar = null;
+            }
+            if (state == ExportJob.STATE_CANCELLED) {
+                Toast.makeText(getContext(), getString(R.string.msg_batch_export_cancelled,
+                        batch.getSucceededCount(), total), Toast.LENGTH_SHORT).show();
+            } else if (batch.getDownscaledCount() > 0) {
+                Toast.makeText(getContext(), getString(R.string.msg_batch_export_finished_downscaled,
+                        batch.getSucceededCount(), total, batch.getDownscaledCount()),
+                        Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(getContext(), getString(R.string.msg_batch_export_finished,
+                        batch.getSucceededCount(), total), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
     private final ActivityResultLauncher<String> requestPermissionLauncher = registerForActivityResult(
             new ActivityResultContracts.RequestPermission(), isGranted -> {
                 if (isGranted) {
@@ -205,27 +293,20 @@ public class PhotosFragment extends Fragment implements PhotoAdapter.OnPhotoClic
         return File.createTempFile(imageFileName, ".jpg", storageDir);
     }
 
-    private Uri copyImageToInternalStorage(Uri sourceUri) throws IOException {
-        if (getContext() == null)
-            return null;
-
-        // Create destination file
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-        String imageFileName = "JPEG_" + timeStamp + "_" + java.util.UUID.randomUUID().toString() + ".jpg";
-        File storageDir = getContext().getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-        File destFile = new File(storageDir, imageFileName);
-
-        // Copy content
-        try (InputStream is = getContext().getContentResolver().openInputStream(sourceUri);
-                OutputStream os = new java.io.FileOutputStream(destFile)) {
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = is.read(buffer)) > 0) {
-                os.write(buffer, 0, length);
+    private void importPhotos(List<Uri> uris) {
+        ImportJob job = PhotoImporter.getInstance(getContext()).importPhotos(uris);
+        job.getState().observe(getViewLifecycleOwner(), state -> {
+            if (state == ImportJob.STATE_FAILED) {
+                Toast.makeText(getContext(), R.string.msg_import_failed, Toast.LENGTH_SHORT).show();
+            } else if (state == ImportJob.STATE_SUCCEEDED) {
+                if (job.getTotalCount() > 1) {
+                    Toast.makeText(getContext(), getString(R.string.msg_import_finished, job.getImportedCount(),
+                            job.getTotalCount()), Toast.LENGTH_SHORT).show();
+                } else if (job.getDuplicateCount() > 0) {
+                    Toast.makeText(getContext(), R.string.msg_import_duplicate, Toast.LENGTH_SHORT).show();
+                }
             }
-        }
-
-        return Uri.fromFile(destFile);
+        });
     }
 
     @Override
@@ -241,23 +322,9 @@ public class PhotosFragment extends Fragment implements PhotoAdapter.OnPhotoClic
                 .setTitle(R.string.confirm_delete_title)
                 .setMessage(R.string.confirm_delete_message)
                 .setPositiveButton(R.string.action_delete, (dialog, which) -> {
-                    // Delete physical file if it exists in our app storage
-                    try {
-                        Uri uri = Uri.parse(photo.originalPath);
-                        if ("file".equals(uri.getScheme())) {
-                            File file = new File(uri.getPath());
-                            if (file.exists()) {
-                                boolean deleted = file.delete();
-                                if (!deleted) {
-                                    android.util.Log.w("PhotosFragment",
-                                            "Failed to delete file: " + file.getAbsolutePath());
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    // Delete from database
+                    // Delete from database; the stored file goes with the last photo using it
+                    adapter.removeSelection(photo.id);
+                    ThumbnailStore.getInstance(getContext()).remove(photo.id);
                     photosViewModel.delete(photo);
                 })
                 .setNegativeButton(android.R.string.cancel, null)
@@ -266,86 +333,36 @@ public class PhotosFragment extends Fragment implements PhotoAdapter.OnPhotoClic
 
     @Override
     public void onExportClick(Photo photo) {
-        // Run on background thread
-        AppDatabase.databaseWriteExecutor.execute(() -> {
-            try {
-                exportPhoto(photo);
-            } catch (Exception e) {
-                e.printStackTrace();
-                if (getActivity() != null) {
-                    getActivity().runOnUiThread(
-                            () -> Toast.makeText(getContext(), R.string.error_save_failed, Toast.LENGTH_SHORT).show());
-                }
-            }
-        });
-    }
-
-    private void exportPhoto(Photo photo) throws IOException {
-        // 1. Load original bitmap
-        Uri uri = Uri.parse(photo.originalPath);
-        InputStream is = getContext().getContentResolver().openInputStream(uri);
-        Bitmap originalBitmap = BitmapFactory.decodeStream(is);
-        is.close();
-
-        if (originalBitmap == null)
+        ExportScheduler scheduler = ExportScheduler.getInstance(getContext());
+        if (scheduler.isPending(photo.id)) {
+            new AlertDialog.Builder(getContext())
+                    .setMessage(R.string.msg_export_in_progress)
+                    .setPositiveButton(R.string.action_cancel_export, (dialog, which) -> scheduler.cancel(photo.id))
+                    .setNegativeButton(android.R.string.cancel, null)
+                    .show();
             return;
-
-        // 2. Create mutable bitmap for drawing
-        Bitmap resultBitmap = originalBitmap.copy(Bitmap.Config.ARGB_8888, true);
-        Canvas canvas = new Canvas(resultBitmap);
-
-        // 3. Get annotations
-        List<Annotation> annotations = AppDatabase.getDatabase(getContext()).annotationDao()
-                .getAnnotationsForPhotoSync(photo.id);
-
-        // 4. Draw
-        AnnotationDrawer drawer = new AnnotationDrawer(getContext());
-        RectF rect = new RectF(0, 0, resultBitmap.getWidth(), resultBitmap.getHeight());
-        int arrowStyle = settingsManager.getArrowStyle();
-
-        // Calculate scale factor relative to a standard screen width
-        // Use square root scaling to prevent text/lines from becoming too large on
-        // high-res photos
-        // For 1080px: factor=1.0, 2160px: factor=1.41, 4320px: factor=2.0
-        float ratio = resultBitmap.getWidth() / com.zfdang.dimensioncam.utils.Constants.STANDARD_SCREEN_WIDTH;
-        float scaleFactor = (float) Math.pow(ratio, 0.7);
-        // Limit scale factor to user-configured range [1.0, maxScaleFactor]
-        float maxScaleFactor = settingsManager.getMaxScaleFactor();
-        scaleFactor = Math.max(1f, Math.min(scaleFactor, maxScaleFactor));
-
-        drawer.draw(canvas, annotations, rect, arrowStyle, false, scaleFactor, false);
-
-        // 5. Save to Gallery
-        saveBitmapToGallery(resultBitmap);
-
-        // Cleanup
-        originalBitmap.recycle();
-        resultBitmap.recycle();
-
-        if (getActivity() != null) {
-            getActivity().runOnUiThread(
-                    () -> Toast.makeText(getContext(), R.string.msg_saved_to_gallery, Toast.LENGTH_SHORT).show());
         }
-    }
-
-    private void saveBitmapToGallery(Bitmap bitmap) throws IOException {
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-        String fileName = "DimensionCam_" + timeStamp + ".jpg";
 
-        ContentValues values = new ContentValues();
-        values.put(MediaStore.Images.Media.DISPLAY_NAME, fileName);
-        values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            values.put(MediaStore.Images.Media.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + "/DimensionCam");
+        // Exports run on their own low-priority pool, not on the database executor. Labels are
+        // resolved here, with the activity's localized resources
+        RenderStyle style = AnnotationRenderer.getInstance().getStyle(requireContext(), settingsManager.getArrowStyle());
+        ExportJob job = scheduler.submit(photo, style, settingsManager.getMaxScaleFactor());
+        if (job == null) {
+            Toast.makeText(getContext(), R.string.msg_export_queue_full, Toast.LENGTH_SHORT).show();
+            return;
         }
-
-        ContentResolver resolver = getContext().getContentResolver();
-        Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
-
-        if (uri != null) {
-            try (OutputStream os = resolver.openOutputStream(uri)) {
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, os);
+        job.getState().observe(getViewLifecycleOwner(), state -> {
+            if (state == ExportJob.STATE_SUCCEEDED) {
+                if (job.getSampleSize() > 1) {
+                    // The original is too large for the export memory budget
+                    Toast.makeText(getContext(), getString(R.string.msg_saved_to_gallery_downscaled,
+                            job.getSampleSize()), Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(getContext(), R.string.msg_saved_to_gallery, Toast.LENGTH_SHORT).show();
+                }
+            } else if (state == ExportJob.STATE_FAILED) {
+                Toast.makeText(getContext(), R.string.error_save_failed, Toast.LENGTH_SHORT).show();
             }
-        }
+        });
     }
 }
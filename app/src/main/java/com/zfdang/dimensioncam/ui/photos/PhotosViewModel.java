@@ -5,27 +5,43 @@ import android.app.Application;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.ViewModelKt;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 
 import com.zfdang.dimensioncam.data.Photo;
 import com.zfdang.dimensioncam.data.Repository;
 
-import java.util.List;
-
-import com.zfdang.dimensioncam.data.PhotoWithAnnotations;
-
 public class PhotosViewModel extends AndroidViewModel {
 
+    // A page covers a few screens of rows; pages far from the viewport are dropped beyond MAX_LOADED
+    private static final int PAGE_SIZE = 20;
+    private static final int MAX_LOADED = 200;
+
     private Repository mRepository;
-    private LiveData<List<PhotoWithAnnotations>> mAllPhotos;
+    private LiveData<PagingData<Photo>> mPhotos;
+    private LiveData<Integer> mPhotoCount;
 
     public PhotosViewModel(@NonNull Application application) {
         super(application);
         mRepository = new Repository(application);
-        mAllPhotos = mRepository.getPhotosWithAnnotations();
+        // No placeholders, so every bound item is a loaded photo with a stable id
+        Pager<Integer, Photo> pager = new Pager<>(
+                new PagingConfig(PAGE_SIZE, PAGE_SIZE, false, PAGE_SIZE * 2, MAX_LOADED),
+                () -> mRepository.getPhotosPaged());
+        mPhotos = PagingLiveData.cachedIn(PagingLiveData.getLiveData(pager), ViewModelKt.getViewModelScope(this));
+        mPhotoCount = mRepository.getPhotoCount();
+    }
+
+    public LiveData<PagingData<Photo>> getPhotos() {
+        return mPhotos;
     }
 
-    public LiveData<List<PhotoWithAnnotations>> getAllPhotos() {
-        return mAllPhotos;
+    // Total number of photos, for the empty hint
+    public LiveData<Integer> getPhotoCount() {
+        return mPhotoCount;
     }
 
     public void insert(Photo photo) {
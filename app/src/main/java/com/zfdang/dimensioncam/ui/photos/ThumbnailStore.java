@@ -0,0 +1,375 @@
+package com.zfdang.dimensioncam.ui.photos;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AppDatabase;
+import com.zfdang.dimensioncam.data.Photo;
+import com.zfdang.dimensioncam.data.PhotoDao;
+import com.zfdang.dimensioncam.ui.annotation.AnnotationRenderer;
+import com.zfdang.dimensioncam.ui.annotation.RenderStyle;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+import com.zfdang.dimensioncam.utils.ImageOrientation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small annotated thumbnails on disk, one per photo, so the photo list stops decoding originals once
+ * a thumbnail exists. File names are derived from the same key as AnnotationTransformation, so a new
+ * annotation version, arrow style or locale simply misses and is regenerated in the background.
+ * <p>
+ * The store only holds the application context, which LocaleHelper does not localize, so labels are
+ * drawn with the RenderStyle the list passes in.
+ */
+public class ThumbnailStore {
+    private static final String TAG = "ThumbnailStore";
+
+    private static final String DIR_NAME = "thumbnails";
+    // Longest side of a stored thumbnail; the list shows 80dp squares cropped from it
+    static final int THUMBNAIL_SIZE = 320;
+    private static final int QUALITY = 85;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static volatile ThumbnailStore INSTANCE;
+
+    private final Context context;
+    private final File dir;
+    private final SettingsManager settingsManager;
+    // One background thread; generation is cheap enough and this also serializes file access
+    private final ExecutorService executor;
+    // Current file name per photo id, so lookups on the main thread never touch the disk
+    private final Map<Long, String> files = new ConcurrentHashMap<>();
+    // File names being generated, guarded by this
+    private final Set<String> pending = new HashSet<>();
+    // File names whose generation failed; not retried on every bind, guarded by this
+    private final Set<String> failed = new HashSet<>();
+    // Last computed file name per photo id, so a bind costs no digest while the inputs are unchanged
+    private final Map<Long, Name> names = new ConcurrentHashMap<>();
+    // Style of the most recent bind, used for regeneration the list did not ask for
+    private volatile RenderStyle lastStyle;
+
+    private final AtomicInteger generatedCount = new AtomicInteger();
+    private final AtomicLong totalGenerationTime = new AtomicLong();
+    // Extra header reads for photos without a recorded size
+    private final AtomicInteger boundsDecodes = new AtomicInteger();
+
+    private static final class Name {
+        final long annotationVersion;
+        final String originalPath;
+        final RenderStyle style;
+        final String fileName;
+
+        Name(Photo photo, RenderStyle style, String fileName) {
+            this.annotationVersion = photo.annotationVersion;
+            this.originalPath = photo.originalPath;
+            this.style = style;
+            this.fileName = fileName;
+        }
+
+        boolean matches(Photo photo, RenderStyle style) {
+            return annotationVersion == photo.annotationVersion
+                    && (this.style == style || this.style.equals(style))
+                    && Objects.equals(originalPath, photo.originalPath);
+        }
+    }
+
+    public static ThumbnailStore getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (ThumbnailStore.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ThumbnailStore(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private ThumbnailStore(Context context) {
+        this.context = context;
+        this.dir = new File(context.getCacheDir(), DIR_NAME);
+        this.settingsManager = SettingsManager.getInstance(context);
+        this.executor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "thumbnails"));
+        executor.execute(this::loadIndex);
+        settingsManager.addListener((oldSettings, newSettings) -> {
+            RenderStyle style = lastStyle;
+            if (oldSettings.arrowStyle != newSettings.arrowStyle && style != null) {
+                RenderStyle updated = style.withArrowStyle(newSettings.arrowStyle);
+                executor.execute(() -> regenerateAll(updated));
+            }
+        });
+    }
+
+    // Thumbnail for the photo's current state, or null after scheduling its generation. style must
+    // come from a localized context, normally the activity's
+    public File get(Photo photo, RenderStyle style) {
+        lastStyle = style;
+        String name = fileName(photo, style);
+        if (name.equals(files.get(photo.id)))
+            return new File(dir, name);
+        schedule(photo, name, style);
+        return null;
+    }
+
+    // Regenerates a photo's thumbnail once the annotation writes queued so far have landed. Uses the
+    // style the list last showed; before the list was ever shown, its first bind generates it
+    public void refresh(long photoId) {
+        RenderStyle style = lastStyle;
+        if (style == null)
+            return;
+        AppDatabase.annotationWriteExecutor.execute(() -> executor.execute(() -> {
+            Photo photo = AppDatabase.getDatabase(context).photoDao().getPhotoById(photoId);
+            if (photo != null)
+                schedule(photo, fileName(photo, style), style);
+        }));
+    }
+
+    public void remove(long photoId) {
+        files.remove(photoId);
+        names.remove(photoId);
+        executor.execute(() -> deleteFiles(photoId, null));
+    }
+
+    // Average time to build one thumbnail, in milliseconds
+    public long getAverageGenerationTime() {
+        int count = generatedCount.get();
+        return count == 0 ? 0 : totalGenerationTime.get() / count;
+    }
+
+    // Re-renders every stored thumbnail after a style change, so the list is already up to date when
+    // the user goes back to it; thumbnails of the old style are replaced one by one
+    private void regenerateAll(RenderStyle style) {
+        PhotoDao photoDao = AppDatabase.getDatabase(context).photoDao();
+        for (long photoId : files.keySet()) {
+            Photo photo = photoDao.getPhotoById(photoId);
+            if (photo != null)
+                schedule(photo, fileName(photo, style), style);
+        }
+    }
+
+    private void schedule(Photo photo, String name, RenderStyle style) {
+        synchronized (this) {
+            if (failed.contains(name) || !pending.add(name))
+                return;
+        }
+        executor.execute(() -> {
+            boolean ok = false;
+            try {
+                ok = generate(photo, name, style);
+            } catch (Exception | OutOfMemoryError e) {
+                Log.e(TAG, "Generating thumbnail of photo " + photo.id + " failed", e);
+            } finally {
+                synchronized (this) {
+                    pending.remove(name);
+                    if (!ok)
+                        failed.add(name);
+                }
+            }
+        });
+    }
+
+    // Returns false if the original could not be decoded; the list then keeps loading it through
+    // Glide, which shows its own error placeholder
+    private boolean generate(Photo photo, String name, RenderStyle style) throws IOException {
+        File file = new File(dir, name);
+        if (file.exists()) {
+            files.put(photo.id, name);
+            return true;
+        }
+        long start = SystemClock.elapsedRealtime();
+        Bitmap bitmap = decode(photo);
+        if (bitmap == null)
+            return false;
+        try {
+            List<Annotation> annotations = AppDatabase.getDatabase(context).annotationDao()
+                    .getAnnotationsAtVersion(photo.id, photo.annotationVersion);
+            // Annotated at a newer version since the row was read; that version gets its own file
+            if (annotations.isEmpty() && photo.annotationCount > 0)
+                return true;
+            if (!annotations.isEmpty()) {
+                Canvas canvas = new Canvas(bitmap);
+                RectF rect = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+                AnnotationRenderer.getInstance().draw(canvas, annotations, rect, style, false,
+                        AnnotationTransformation.thumbnailScaleFactor(bitmap.getWidth()), false);
+            }
+
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Cannot create " + dir);
+            // Write then rename, so a reader never sees a half-written file
+            File tmp = new File(dir, name + ".tmp");
+            try (OutputStream os = new FileOutputStream(tmp)) {
+                bitmap.compress(webpFormat(), QUALITY, os);
+            }
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot rename " + tmp);
+        } finally {
+            bitmap.recycle();
+        }
+        deleteFiles(photo.id, name);
+        files.put(photo.id, name);
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        generatedCount.incrementAndGet();
+        totalGenerationTime.addAndGet(elapsed);
+        Log.d(TAG, "Thumbnail of photo " + photo.id + " took " + elapsed + " ms, bounds decodes so far: "
+                + boundsDecodes.get());
+        return true;
+    }
+
+    // Decodes the original with the largest sample size that keeps the longest side at or above
+    // THUMBNAIL_SIZE, then scales it down upright into a mutable bitmap
+    private Bitmap decode(Photo photo) throws IOException {
+        Uri uri = Uri.parse(photo.originalPath);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        int longest = Math.max(photo.width, photo.height);
+        int orientation = photo.orientation;
+        if (longest <= 0) {
+            // Rows from before the metadata was recorded at import: read it once and store it
+            boundsDecodes.incrementAndGet();
+            options.inJustDecodeBounds = true;
+            try (InputStream is = context.getContentResolver().openInputStream(uri)) {
+                if (is == null)
+                    return null;
+                BitmapFactory.decodeStream(is, null, options);
+            }
+            longest = Math.max(options.outWidth, options.outHeight);
+            if (longest <= 0)
+                return null;
+            try (InputStream is = context.getContentResolver().openInputStream(uri)) {
+                if (is != null)
+                    orientation = new ExifInterface(is).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                            ExifInterface.ORIENTATION_NORMAL);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "No EXIF for photo " + photo.id);
+            }
+            AppDatabase.getDatabase(context).photoDao()
+                    .updateMetadata(photo.id, options.outWidth, options.outHeight, orientation);
+        }
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= THUMBNAIL_SIZE) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        // Only an intermediate; the scaled copy below is ARGB for a clean encode
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap source;
+        try (InputStream is = context.getContentResolver().openInputStream(uri)) {
+            source = BitmapFactory.decodeStream(is, null, options);
+        }
+        if (source == null)
+            return null;
+
+        // Annotations are placed on the upright image, so rotate while scaling
+        int uprightWidth = source.getWidth();
+        int uprightHeight = source.getHeight();
+        if (ImageOrientation.swapsDimensions(orientation)) {
+            uprightWidth = source.getHeight();
+            uprightHeight = source.getWidth();
+        }
+        float scale = Math.min(1f, THUMBNAIL_SIZE / (float) Math.max(uprightWidth, uprightHeight));
+        int width = Math.max(1, Math.round(uprightWidth * scale));
+        int height = Math.max(1, Math.round(uprightHeight * scale));
+        Matrix matrix = ImageOrientation.toUpright(orientation, source.getWidth(), source.getHeight());
+        matrix.postScale(width / (float) uprightWidth, height / (float) uprightHeight);
+        Bitmap result = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        new Canvas(result).drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        source.recycle();
+        return result;
+    }
+
+    // Memoized per photo id; recomputed only when the version, path or style changes
+    String fileName(Photo photo, RenderStyle style) {
+        Name name = names.get(photo.id);
+        if (name == null || !name.matches(photo, style)) {
+            name = new Name(photo, style, computeFileName(photo, style));
+            names.put(photo.id, name);
+        }
+        return name.fileName;
+    }
+
+    static String computeFileName(Photo photo, RenderStyle style) {
+        byte[] key = AnnotationTransformation.buildKey(photo, photo.annotationVersion, style);
+        return photo.id + "_" + sha1(key) + ".webp";
+    }
+
+    // Deletes the photo's files, except the one to keep (may be null)
+    private void deleteFiles(long photoId, String keep) {
+        File[] existing = dir.listFiles();
+        if (existing == null)
+            return;
+        String prefix = photoId + "_";
+        for (File f : existing) {
+            if (f.getName().startsWith(prefix) && !f.getName().equals(keep) && !f.delete())
+                Log.w(TAG, "Failed to delete " + f);
+        }
+    }
+
+    private void loadIndex() {
+        File[] existing = dir.listFiles();
+        if (existing == null)
+            return;
+        for (File f : existing) {
+            String name = f.getName();
+            int separator = name.indexOf('_');
+            if (separator <= 0 || !name.endsWith(".webp"))
+                continue;
+            try {
+                files.putIfAbsent(Long.parseLong(name.substring(0, separator)), name);
+            } catch (NumberFormatException e) {
+                // Not one of ours
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat webpFormat() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY
+                : Bitmap.CompressFormat.WEBP;
+    }
+
+    private static String sha1(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
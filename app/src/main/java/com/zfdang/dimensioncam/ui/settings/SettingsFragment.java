@@ -38,7 +38,7 @@ public class SettingsFragment extends Fragment {
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
             @Nullable Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_settings, container, false);
-        settingsManager = new SettingsManager(getContext());
+        settingsManager = SettingsManager.getInstance(getContext());
 
         tvArrowStyle = view.findViewById(R.id.tv_arrow_style_value);
         tvLanguage = view.findViewById(R.id.tv_language_value);
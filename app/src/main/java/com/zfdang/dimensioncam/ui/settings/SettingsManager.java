@@ -2,7 +2,15 @@ package com.zfdang.dimensioncam.ui.settings;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Looper;
 
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Preferences are read once; getters return the in-memory snapshot, so they are cheap enough for
+// onDraw and Glide binds
 public class SettingsManager {
     private static final String PREF_NAME = "dimension_cam_prefs";
     private static final String KEY_ARROW_STYLE = "arrow_style";
@@ -13,38 +21,125 @@ public class SettingsManager {
     public static final int STYLE_T_T = 1; // |-----| T型T型
     public static final int STYLE_ARROW_ARROW = 2; // <-----> 箭头箭头
 
-    private SharedPreferences prefs;
+    // Immutable copy of all settings; a change replaces the whole snapshot
+    public static final class Settings {
+        public final int arrowStyle;
+        public final String language;
+        public final float maxScaleFactor;
+
+        Settings(int arrowStyle, String language, float maxScaleFactor) {
+            this.arrowStyle = arrowStyle;
+            this.language = language;
+            this.maxScaleFactor = maxScaleFactor;
+        }
+    }
+
+    // Called on the thread that changed the setting
+    public interface OnSettingsChangedListener {
+        void onSettingsChanged(Settings oldSettings, Settings newSettings);
+    }
+
+    private static volatile SettingsManager INSTANCE;
+
+    private final SharedPreferences prefs;
+    private volatile Settings settings;
+    private final MutableLiveData<Settings> settingsLiveData;
+    private final CopyOnWriteArrayList<OnSettingsChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+    public static SettingsManager getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (SettingsManager.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new SettingsManager(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    // Puts another instance in place, returning the one it replaces; for tests, which use their own
+    // preferences. Components take the instance when they are created
+    static SettingsManager setInstance(SettingsManager instance) {
+        synchronized (SettingsManager.class) {
+            SettingsManager previous = INSTANCE;
+            INSTANCE = instance;
+            return previous;
+        }
+    }
+
+    private SettingsManager(Context context) {
+        this(context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE));
+    }
+
+    SettingsManager(SharedPreferences prefs) {
+        this.prefs = prefs;
+        settings = new Settings(prefs.getInt(KEY_ARROW_STYLE, STYLE_T_T),
+                prefs.getString(KEY_LANGUAGE, "auto"),
+                prefs.getFloat(KEY_MAX_SCALE_FACTOR, 2.5f));
+        settingsLiveData = new MutableLiveData<>(settings);
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    public LiveData<Settings> getSettingsLiveData() {
+        return settingsLiveData;
+    }
+
+    public void addListener(OnSettingsChangedListener listener) {
+        listeners.addIfAbsent(listener);
+    }
 
-    public SettingsManager(Context context) {
-        prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    public void removeListener(OnSettingsChangedListener listener) {
+        listeners.remove(listener);
     }
 
     public int getArrowStyle() {
-        return prefs.getInt(KEY_ARROW_STYLE, STYLE_T_T);
+        return settings.arrowStyle;
     }
 
     public void setArrowStyle(int style) {
         prefs.edit().putInt(KEY_ARROW_STYLE, style).apply();
+        update(new Settings(style, settings.language, settings.maxScaleFactor));
     }
 
     // Language handling usually requires app restart or activity recreation
     // For simplicity, we'll just store the pref here.
     public String getLanguage() {
-        return prefs.getString(KEY_LANGUAGE, "auto");
+        return settings.language;
     }
 
     public void setLanguage(String lang) {
         prefs.edit().putString(KEY_LANGUAGE, lang).apply();
+        update(new Settings(settings.arrowStyle, lang, settings.maxScaleFactor));
     }
 
     // Maximum scale factor for export (1.0 - 5.0, default 2.5)
     public float getMaxScaleFactor() {
-        return prefs.getFloat(KEY_MAX_SCALE_FACTOR, 2.5f);
+        return settings.maxScaleFactor;
     }
 
     public void setMaxScaleFactor(float factor) {
         // Clamp to valid range [1.0, 5.0]
         factor = Math.max(1.0f, Math.min(factor, 5.0f));
         prefs.edit().putFloat(KEY_MAX_SCALE_FACTOR, factor).apply();
+        update(new Settings(settings.arrowStyle, settings.language, factor));
+    }
+
+    private void update(Settings newSettings) {
+        Settings oldSettings;
+        synchronized (this) {
+            oldSettings = settings;
+            settings = newSettings;
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            settingsLiveData.setValue(newSettings);
+        } else {
+            settingsLiveData.postValue(newSettings);
+        }
+        for (OnSettingsChangedListener listener : listeners) {
+            listener.onSettingsChanged(oldSettings, newSettings);
+        }
     }
 }
@@ -0,0 +1,69 @@
+package com.zfdang.dimensioncam.utils;
+
+import android.graphics.Matrix;
+
+import androidx.exifinterface.media.ExifInterface;
+
+/**
+ * Maps stored pixels to the upright image for an EXIF orientation. Photo.width and Photo.height are
+ * the stored (unrotated) size; annotations are placed on the upright image the editor shows.
+ */
+public final class ImageOrientation {
+
+    private ImageOrientation() {
+    }
+
+    // True when the upright image needs a transform of the stored pixels
+    public static boolean isTransformed(int orientation) {
+        return orientation >= ExifInterface.ORIENTATION_FLIP_HORIZONTAL
+                && orientation <= ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    // True when the upright width is the stored height
+    public static boolean swapsDimensions(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    // Maps stored pixel coordinates of a width x height image to upright pixel coordinates
+    public static Matrix toUpright(int orientation, int width, int height) {
+        Matrix matrix = new Matrix();
+        matrix.setValues(uprightValues(orientation, width, height));
+        return matrix;
+    }
+
+    // The toUpright transform as Matrix values: x' = v[0] x + v[1] y + v[2], y' = v[3] x + v[4] y + v[5]
+    static float[] uprightValues(int orientation, int width, int height) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                // (x, y) -> (width - x, y)
+                return values(-1, 0, width, 0, 1, 0);
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                // (x, y) -> (width - x, height - y)
+                return values(-1, 0, width, 0, -1, height);
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                // (x, y) -> (x, height - y)
+                return values(1, 0, 0, 0, -1, height);
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                // (x, y) -> (y, x)
+                return values(0, 1, 0, 1, 0, 0);
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                // (x, y) -> (height - y, x)
+                return values(0, -1, height, 1, 0, 0);
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                // (x, y) -> (height - y, width - x)
+                return values(0, -1, height, -1, 0, width);
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                // (x, y) -> (y, width - x)
+                return values(0, 1, 0, -1, 0, width);
+            default:
+                return values(1, 0, 0, 0, 1, 0);
+        }
+    }
+
+    private static float[] values(float scaleX, float skewX, float transX, float skewY, float scaleY, float transY) {
+        return new float[] { scaleX, skewX, transX, skewY, scaleY, transY, 0, 0, 1 };
+    }
+}
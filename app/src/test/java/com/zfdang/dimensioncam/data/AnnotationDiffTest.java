@@ -0,0 +1,122 @@
+package com.zfdang.dimensioncam.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AnnotationDiffTest {
+
+    private static Annotation stored(long id, float startX, int order) {
+        Annotation a = new Annotation(1, startX, 0.2f, 0.8f, 0.2f, 10f, 0xFFFF0000, 3f, order, Annotation.UNIT_CM);
+        a.id = id;
+        return a;
+    }
+
+    private static List<Annotation> copies(List<Annotation> annotations) {
+        List<Annotation> result = new ArrayList<>();
+        for (Annotation a : annotations) {
+            result.add(new Annotation(a));
+        }
+        return result;
+    }
+
+    @Test
+    public void identicalListsGiveAnEmptyDiff() {
+        List<Annotation> current = Arrays.asList(stored(1, 0.1f, 0), stored(2, 0.2f, 1));
+        AnnotationDiff diff = AnnotationDiff.compute(current, copies(current));
+        assertTrue(diff.isEmpty());
+        assertEquals(0, diff.size());
+    }
+
+    @Test
+    public void unsavedAndUnknownRowsAreInserted() {
+        List<Annotation> current = Arrays.asList(stored(1, 0.1f, 0));
+        List<Annotation> target = copies(current);
+        Annotation unsaved = stored(0, 0.3f, 1);
+        // Restored by undo after it was deleted from the table
+        Annotation restored = stored(7, 0.4f, 2);
+        target.add(unsaved);
+        target.add(restored);
+
+        AnnotationDiff diff = AnnotationDiff.compute(current, target);
+        assertEquals(Arrays.asList(unsaved, restored), diff.inserts);
+        assertTrue(diff.updates.isEmpty());
+        assertTrue(diff.deletes.isEmpty());
+    }
+
+    @Test
+    public void rowsMissingFromTheTargetAreDeleted() {
+        Annotation kept = stored(1, 0.1f, 0);
+        Annotation dropped = stored(2, 0.2f, 1);
+        AnnotationDiff diff = AnnotationDiff.compute(Arrays.asList(kept, dropped),
+                copies(Arrays.asList(kept)));
+        assertEquals(1, diff.deletes.size());
+        assertSame(dropped, diff.deletes.get(0));
+        assertTrue(diff.inserts.isEmpty());
+        assertTrue(diff.updates.isEmpty());
+    }
+
+    @Test
+    public void onlyChangedRowsAreUpdated() {
+        List<Annotation> current = Arrays.asList(stored(1, 0.1f, 0), stored(2, 0.2f, 1), stored(3, 0.3f, 2));
+        List<Annotation> target = copies(current);
+        target.get(1).endY = 0.5f;
+        target.get(2).measuredValue = 12f;
+
+        AnnotationDiff diff = AnnotationDiff.compute(current, target);
+        assertEquals(Arrays.asList(target.get(1), target.get(2)), diff.updates);
+        assertTrue(diff.updatesChangeDrawing);
+        assertTrue(diff.inserts.isEmpty());
+        assertTrue(diff.deletes.isEmpty());
+        assertEquals(2, diff.size());
+    }
+
+    @Test
+    public void reorderOnlyUpdatesRowsWhoseOrderChanged() {
+        List<Annotation> current = Arrays.asList(stored(1, 0.1f, 0), stored(2, 0.2f, 1), stored(3, 0.3f, 2));
+        List<Annotation> target = copies(current);
+        // Bring the first line to the front
+        target.get(0).order = 2;
+        target.get(1).order = 0;
+        target.get(2).order = 1;
+        target.add(target.remove(0));
+
+        AnnotationDiff diff = AnnotationDiff.compute(current, target);
+        assertEquals(3, diff.updates.size());
+        // Thumbnails stay valid
+        assertFalse(diff.updatesChangeDrawing);
+        assertTrue(diff.inserts.isEmpty());
+        assertTrue(diff.deletes.isEmpty());
+
+        // Moving the list around without renumbering writes nothing
+        List<Annotation> shuffled = copies(current);
+        shuffled.add(shuffled.remove(0));
+        assertTrue(AnnotationDiff.compute(current, shuffled).isEmpty());
+    }
+
+    @Test
+    public void mixedEditsAreSplitByKind() {
+        List<Annotation> current = Arrays.asList(stored(1, 0.1f, 0), stored(2, 0.2f, 1), stored(3, 0.3f, 2));
+        List<Annotation> target = new ArrayList<>();
+        target.add(new Annotation(current.get(0)));
+        Annotation moved = new Annotation(current.get(2));
+        moved.startX = 0.35f;
+        target.add(moved);
+        Annotation added = stored(0, 0.6f, 3);
+        target.add(added);
+
+        AnnotationDiff diff = AnnotationDiff.compute(current, target);
+        assertEquals(Arrays.asList(added), diff.inserts);
+        assertEquals(Arrays.asList(moved), diff.updates);
+        assertEquals(1, diff.deletes.size());
+        assertEquals(2, diff.deletes.get(0).id);
+        assertEquals(3, diff.size());
+    }
+}
@@ -0,0 +1,68 @@
+package com.zfdang.dimensioncam.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PhotoExporterTest {
+
+    private static final int STRIP = PhotoExporter.DEFAULT_STRIP_HEIGHT;
+    private static final long MB = 1024L * 1024;
+
+    // Bytes held while exporting at this sample size: the output bitmap plus one strip
+    private static long peakBytes(int width, int height, int sampleSize, int stripHeight) {
+        long outWidth = (width + sampleSize - 1) / sampleSize;
+        long outHeight = (height + sampleSize - 1) / sampleSize;
+        return outWidth * (outHeight + stripHeight) * 4L;
+    }
+
+    @Test
+    public void fullResolutionWhenItFits() {
+        assertEquals(1, PhotoExporter.computeSampleSize(4000, 3000, 64 * MB, STRIP));
+        assertEquals(1, PhotoExporter.computeSampleSize(1, 1, 0, STRIP));
+    }
+
+    @Test
+    public void peakStaysUnderBudgetFor48Megapixels() {
+        long[] budgets = { 16 * MB, 32 * MB, 64 * MB, 128 * MB, 256 * MB };
+        for (long budget : budgets) {
+            int sampleSize = PhotoExporter.computeSampleSize(8000, 6000, budget, STRIP);
+            assertTrue("budget " + budget, peakBytes(8000, 6000, sampleSize, STRIP) <= budget);
+            // Smallest such sample size, so no more resolution is given up than needed
+            if (sampleSize > 1) {
+                assertTrue("budget " + budget, peakBytes(8000, 6000, sampleSize / 2, STRIP) > budget);
+            }
+        }
+    }
+
+    @Test
+    public void sampleSizeIsAPowerOfTwo() {
+        for (long budget = MB; budget <= 512 * MB; budget += 7 * MB) {
+            int sampleSize = PhotoExporter.computeSampleSize(8000, 6000, budget, STRIP);
+            assertEquals(0, sampleSize & (sampleSize - 1));
+        }
+    }
+
+    @Test
+    public void stripHeightCountsAgainstTheBudget() {
+        // 2000 x 1500 output is 12,000,000 bytes; a strip on top no longer fits
+        long budget = 12_000_000L;
+        assertEquals(1, PhotoExporter.computeSampleSize(2000, 1500, budget, 0));
+        assertEquals(2, PhotoExporter.computeSampleSize(2000, 1500, budget, STRIP));
+    }
+
+    @Test
+    public void oddSizesRoundUp() {
+        // 4001 / 2 rounds up to 2001 columns, as BitmapRegionDecoder does
+        long exact = peakBytes(4001, 3001, 2, STRIP);
+        assertEquals(2, PhotoExporter.computeSampleSize(4001, 3001, exact, STRIP));
+        assertEquals(4, PhotoExporter.computeSampleSize(4001, 3001, exact - 1, STRIP));
+    }
+
+    @Test
+    public void tinyBudgetStopsAtOnePixel() {
+        int sampleSize = PhotoExporter.computeSampleSize(8000, 6000, 1, STRIP);
+        assertEquals(8192, sampleSize);
+    }
+}
@@ -0,0 +1,109 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.data.AnnotationDiff;
+
+import org.junit.Test;
+
+public class AnnotationEditTest {
+
+    static Annotation row(long id, float endX) {
+        Annotation a = new Annotation(1, 0.1f, 0.1f, endX, 0.5f, 10f, 0xFFFF0000, 3f, 0, Annotation.UNIT_CM);
+        a.id = id;
+        return a;
+    }
+
+    static AnnotationEdit move(long id, float fromX, float toX, long timestamp) {
+        AnnotationEdit edit = new AnnotationEdit(AnnotationEdit.KIND_MOVE, timestamp);
+        edit.add(row(id, fromX), row(id, toX));
+        return edit;
+    }
+
+    @Test
+    public void addIsUndoneByDeletingTheRow() {
+        Annotation added = row(3, 0.5f);
+        AnnotationEdit edit = new AnnotationEdit(AnnotationEdit.KIND_ADD, 0);
+        edit.add(null, added);
+
+        AnnotationDiff undo = edit.toDiff(true);
+        assertEquals(1, undo.deletes.size());
+        assertSame(added, undo.deletes.get(0));
+        assertTrue(undo.inserts.isEmpty());
+        assertTrue(undo.updates.isEmpty());
+
+        AnnotationDiff redo = edit.toDiff(false);
+        assertEquals(1, redo.inserts.size());
+        assertSame(added, redo.inserts.get(0));
+        assertTrue(redo.deletes.isEmpty());
+    }
+
+    @Test
+    public void deleteIsUndoneByInsertingTheRowWithItsId() {
+        Annotation deleted = row(4, 0.5f);
+        AnnotationEdit edit = new AnnotationEdit(AnnotationEdit.KIND_DELETE, 0);
+        edit.add(deleted, null);
+
+        AnnotationDiff undo = edit.toDiff(true);
+        assertEquals(1, undo.inserts.size());
+        assertEquals(4, undo.inserts.get(0).id);
+        AnnotationDiff redo = edit.toDiff(false);
+        assertSame(deleted, redo.deletes.get(0));
+    }
+
+    @Test
+    public void changesSwapBetweenBeforeAndAfter() {
+        AnnotationEdit edit = move(5, 0.2f, 0.7f, 0);
+        assertEquals(0.2f, edit.toDiff(true).updates.get(0).endX, 0f);
+        assertEquals(0.7f, edit.toDiff(false).updates.get(0).endX, 0f);
+        assertEquals(1, edit.toDiff(true).size());
+        assertTrue(edit.toDiff(true).updatesChangeDrawing);
+
+        AnnotationEdit reorder = new AnnotationEdit(AnnotationEdit.KIND_REORDER, 0);
+        Annotation front = row(5, 0.2f);
+        front.order = 1;
+        reorder.add(row(5, 0.2f), front);
+        assertFalse(reorder.toDiff(true).updatesChangeDrawing);
+        assertFalse(reorder.toDiff(false).updatesChangeDrawing);
+    }
+
+    @Test
+    public void dragsOfOneLineWithinTheWindowCoalesce() {
+        AnnotationEdit first = move(5, 0.2f, 0.3f, 1000);
+        AnnotationEdit second = move(5, 0.3f, 0.4f, 1000 + AnnotationEdit.COALESCE_WINDOW_MS);
+        assertTrue(first.canCoalesce(second));
+
+        first.coalesce(second);
+        // One step from the original position to the latest one
+        assertEquals(0.2f, first.toDiff(true).updates.get(0).endX, 0f);
+        assertEquals(0.4f, first.toDiff(false).updates.get(0).endX, 0f);
+        assertEquals(second.timestamp, first.timestamp);
+    }
+
+    @Test
+    public void otherEditsDoNotCoalesce() {
+        AnnotationEdit first = move(5, 0.2f, 0.3f, 1000);
+        assertFalse(first.canCoalesce(move(6, 0.3f, 0.4f, 1100)));
+        assertFalse(first.canCoalesce(move(5, 0.3f, 0.4f, 1001 + AnnotationEdit.COALESCE_WINDOW_MS)));
+
+        AnnotationEdit properties = new AnnotationEdit(AnnotationEdit.KIND_PROPERTIES, 1100);
+        properties.add(row(5, 0.3f), row(5, 0.3f));
+        assertFalse(first.canCoalesce(properties));
+
+        // Restored edits are old enough to never absorb a new drag
+        AnnotationEdit restored = move(5, 0.2f, 0.3f, AnnotationEdit.RESTORED_TIMESTAMP);
+        assertFalse(restored.canCoalesce(move(5, 0.3f, 0.4f, 0)));
+    }
+
+    @Test
+    public void sizeEstimateCountsStoredRows() {
+        AnnotationEdit add = new AnnotationEdit(AnnotationEdit.KIND_ADD, 0);
+        add.add(null, row(1, 0.5f));
+        AnnotationEdit move = move(1, 0.2f, 0.3f, 0);
+        assertEquals(AnnotationEdit.ANNOTATION_BYTES, move.estimatedBytes() - add.estimatedBytes());
+    }
+}
@@ -0,0 +1,127 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.zfdang.dimensioncam.data.Annotation;
+import com.zfdang.dimensioncam.ui.settings.SettingsManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+public class AnnotationRenderModelTest {
+    private static final float EPSILON = 1e-5f;
+
+    private RenderStyle style;
+    private Annotation annotation;
+    private AnnotationRenderModel model;
+
+    @Before
+    public void setUp() {
+        style = new RenderStyle(SettingsManager.STYLE_T_T, Locale.US, new String[] { "mm", "cm", "dm", "m" });
+        annotation = new Annotation(1, 0.1f, 0.2f, 0.5f, 0.2f, 42f, 0xFFFF0000, 3f, 0, Annotation.UNIT_CM);
+        model = new AnnotationRenderModel();
+        model.update(style, annotation, 0, false, 1f);
+    }
+
+    @Test
+    public void labelUsesStyleUnitAndOptionalId() {
+        assertEquals("42 cm", model.label);
+        model.update(style, annotation, 4, true, 1f);
+        assertEquals("42 cm (#5)", model.label);
+
+        RenderStyle chinese = new RenderStyle(SettingsManager.STYLE_T_T, Locale.CHINA,
+                new String[] { "毫米", "厘米", "分米", "米" });
+        model.update(chinese, annotation, 4, false, 1f);
+        assertEquals("42 厘米", model.label);
+    }
+
+    @Test
+    public void validUntilAnInputChanges() {
+        assertTrue(model.isValidFor(annotation, 0, false, 1f, style));
+
+        assertFalse(model.isValidFor(annotation, 1, false, 1f, style));
+        assertFalse(model.isValidFor(annotation, 0, true, 1f, style));
+        assertFalse(model.isValidFor(annotation, 0, false, 1.5f, style));
+        assertFalse(model.isValidFor(annotation, 0, false, 1f,
+                new RenderStyle(SettingsManager.STYLE_ARROW_ARROW, Locale.US, new String[] { "mm", "cm", "dm", "m" })));
+        // An equal copy is another object, as after a Room re-query
+        assertFalse(model.isValidFor(new Annotation(annotation), 0, false, 1f, style));
+
+        annotation.endX = 0.6f;
+        assertFalse(model.isValidFor(annotation, 0, false, 1f, style));
+    }
+
+    @Test
+    public void toleratesFloatNoiseInTheAspectRatio() {
+        assertTrue(model.isValidFor(annotation, 0, false, 1f + 1e-6f, style));
+    }
+
+    @Test
+    public void labelIsOnlyFormattedWhenItsInputsChange() {
+        String label = model.label;
+        annotation.endY = 0.4f;
+        model.update(style, annotation, 0, false, 1f);
+        assertSame(label, model.label);
+
+        annotation.measuredValue = 43f;
+        model.update(style, annotation, 0, false, 1f);
+        assertNotSame(label, model.label);
+        assertEquals("43 cm", model.label);
+    }
+
+    @Test
+    public void lengthAndDirectionAreInPixelSpace() {
+        // 0.4 display widths along x
+        assertEquals(0.4f, model.length, EPSILON);
+        assertEquals(1f, model.dirX, EPSILON);
+        assertEquals(0f, model.dirY, EPSILON);
+
+        // Straight down by half the height of an image twice as tall as wide: one display width
+        Annotation vertical = new Annotation(1, 0.5f, 0.25f, 0.5f, 0.75f, 10f, 0, 3f, 0, Annotation.UNIT_CM);
+        model.update(style, vertical, 0, false, 2f);
+        assertEquals(1f, model.length, EPSILON);
+        assertEquals(0f, model.dirX, EPSILON);
+        assertEquals(1f, model.dirY, EPSILON);
+    }
+
+    @Test
+    public void labelAngleNeverTurnsTextUpsideDown() {
+        float[][] ends = { { 1, 0 }, { 1, 1 }, { 0, 1 }, { -1, 1 }, { -1, 0 }, { -1, -1 }, { 0, -1 }, { 1, -1 } };
+        for (float[] end : ends) {
+            Annotation a = new Annotation(1, 0.5f, 0.5f, 0.5f + end[0] * 0.1f, 0.5f + end[1] * 0.1f, 10f, 0, 3f, 0,
+                    Annotation.UNIT_CM);
+            model.update(style, a, 0, false, 1f);
+            assertTrue(model.labelAngle >= -90f && model.labelAngle <= 90f);
+        }
+        Annotation leftward = new Annotation(1, 0.6f, 0.5f, 0.4f, 0.5f, 10f, 0, 3f, 0, Annotation.UNIT_CM);
+        model.update(style, leftward, 0, false, 1f);
+        assertEquals(0f, model.labelAngle, EPSILON);
+    }
+
+    @Test
+    public void arrowWingsAreThirtyDegreesOffTheLine() {
+        float cos = model.wing1X * model.dirX + model.wing1Y * model.dirY;
+        assertEquals(Math.cos(Math.toRadians(30)), cos, EPSILON);
+        cos = model.wing2X * model.dirX + model.wing2Y * model.dirY;
+        assertEquals(Math.cos(Math.toRadians(30)), cos, EPSILON);
+        // On opposite sides of the line
+        float side1 = model.dirX * model.wing1Y - model.dirY * model.wing1X;
+        float side2 = model.dirX * model.wing2Y - model.dirY * model.wing2X;
+        assertTrue(side1 * side2 < 0);
+    }
+
+    @Test
+    public void zeroLengthLineGetsADefaultDirection() {
+        Annotation dot = new Annotation(1, 0.5f, 0.5f, 0.5f, 0.5f, 10f, 0, 3f, 0, Annotation.UNIT_CM);
+        model.update(style, dot, 0, false, 1f);
+        assertEquals(0f, model.length, 0f);
+        assertEquals(1f, model.dirX, 0f);
+        assertEquals(0f, model.dirY, 0f);
+    }
+}
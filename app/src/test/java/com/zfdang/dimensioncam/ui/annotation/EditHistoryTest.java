@@ -0,0 +1,110 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class EditHistoryTest {
+
+    private static AnnotationEdit move(long id, long timestamp) {
+        return AnnotationEditTest.move(id, 0.2f, 0.3f, timestamp);
+    }
+
+    @Test
+    public void undoAndRedoWalkTheStacks() {
+        EditHistory history = new EditHistory();
+        AnnotationEdit first = move(1, 0);
+        AnnotationEdit second = move(2, 10_000);
+        assertSame(first, history.record(first));
+        assertSame(second, history.record(second));
+
+        assertSame(second, history.undo());
+        assertSame(first, history.undo());
+        assertNull(history.undo());
+        assertFalse(history.canUndo());
+
+        assertSame(first, history.redo());
+        assertSame(second, history.redo());
+        assertNull(history.redo());
+        assertTrue(history.canUndo());
+    }
+
+    @Test
+    public void newEditEndsTheRedoBranch() {
+        EditHistory history = new EditHistory();
+        history.record(move(1, 0));
+        history.record(move(2, 10_000));
+        history.undo();
+        assertTrue(history.canRedo());
+        long usedBefore = history.getUsedBytes();
+
+        AnnotationEdit third = move(3, 20_000);
+        history.record(third);
+        assertFalse(history.canRedo());
+        // The dropped redo step no longer counts, the new one does
+        assertEquals(usedBefore, history.getUsedBytes());
+        assertSame(third, history.undo());
+    }
+
+    @Test
+    public void recordReturnsTheEditADragWasMergedInto() {
+        EditHistory history = new EditHistory();
+        AnnotationEdit first = move(1, 0);
+        history.record(first);
+        long used = history.getUsedBytes();
+
+        AnnotationEdit second = move(1, 500);
+        assertSame(first, history.record(second));
+        assertEquals(used, history.getUsedBytes());
+        assertSame(first, history.undo());
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    public void budgetDropsTheOldestStepsButKeepsTheNewest() {
+        int editBytes = move(1, 0).estimatedBytes();
+        EditHistory history = new EditHistory(editBytes * 3);
+        AnnotationEdit[] edits = new AnnotationEdit[5];
+        for (int i = 0; i < edits.length; i++) {
+            edits[i] = move(i, i * 10_000L);
+            history.record(edits[i]);
+        }
+        assertEquals(editBytes * 3, history.getUsedBytes());
+        assertSame(edits[4], history.undo());
+        assertSame(edits[3], history.undo());
+        assertSame(edits[2], history.undo());
+        assertNull(history.undo());
+
+        // A single edit over budget is still undoable
+        EditHistory tiny = new EditHistory(1);
+        tiny.record(edits[0]);
+        assertTrue(tiny.canUndo());
+    }
+
+    @Test
+    public void restoreReplacesBothStacks() {
+        EditHistory history = new EditHistory();
+        history.record(move(9, 0));
+        AnnotationEdit undone = move(1, AnnotationEdit.RESTORED_TIMESTAMP);
+        AnnotationEdit redoable = move(2, AnnotationEdit.RESTORED_TIMESTAMP);
+        history.restore(Collections.singletonList(undone), Arrays.asList(redoable));
+
+        assertEquals(undone.estimatedBytes() + redoable.estimatedBytes(), history.getUsedBytes());
+        assertSame(redoable, history.redo());
+        assertSame(redoable, history.undo());
+        assertSame(undone, history.undo());
+        assertNull(history.undo());
+
+        history.clear();
+        assertFalse(history.canUndo());
+        assertFalse(history.canRedo());
+        assertEquals(0, history.getUsedBytes());
+    }
+}
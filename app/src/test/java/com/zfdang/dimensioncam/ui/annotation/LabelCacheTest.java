@@ -0,0 +1,61 @@
+package com.zfdang.dimensioncam.ui.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LabelCacheTest {
+
+    @Test
+    public void bucketRoundsDownByLessThanOneStep() {
+        for (float size = LabelCache.MIN_TEXT_SIZE; size < 1000f; size += 0.37f) {
+            float bucketSize = LabelCache.bucketSize(LabelCache.sizeBucket(size));
+            assertTrue("size " + size, bucketSize <= size);
+            // The blit scales the bitmap up by size / bucketSize
+            assertTrue("size " + size, size / bucketSize < LabelCache.SIZE_STEP);
+        }
+    }
+
+    @Test
+    public void exactStepsMapToTheirOwnBucket() {
+        for (int bucket = 60; bucket < 180; bucket++) {
+            assertEquals(bucket, LabelCache.sizeBucket(LabelCache.bucketSize(bucket)));
+        }
+    }
+
+    @Test
+    public void bucketsGrowWithSize() {
+        int previous = LabelCache.sizeBucket(LabelCache.MIN_TEXT_SIZE);
+        for (float size = LabelCache.MIN_TEXT_SIZE; size < 500f; size += 0.5f) {
+            int bucket = LabelCache.sizeBucket(size);
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void editorTextAndNearbyExportSizesShareBuckets() {
+        // Export scale factors a fraction of a percent apart reuse the same bitmaps
+        int bucket = LabelCache.sizeBucket(48f * 1.5f);
+        assertEquals(bucket, LabelCache.sizeBucket(48f * 1.5f * 1.001f));
+        assertNotEquals(LabelCache.sizeBucket(48f), bucket);
+    }
+
+    @Test
+    public void lookupKeyMatchesStoredKey() {
+        LabelCache.Key stored = new LabelCache.Key("12 cm (#3)", 0xFFFF0000, 97);
+        LabelCache.Key lookup = new LabelCache.Key();
+        lookup.set("12 cm (#3)", 0xFFFF0000, 97);
+        assertEquals(stored, lookup);
+        assertEquals(stored.hashCode(), lookup.hashCode());
+
+        lookup.set("12 cm (#3)", 0xFF00FF00, 97);
+        assertNotEquals(stored, lookup);
+        lookup.set("12 cm (#3)", 0xFFFF0000, 98);
+        assertNotEquals(stored, lookup);
+        lookup.set("13 cm (#3)", 0xFFFF0000, 97);
+        assertNotEquals(stored, lookup);
+    }
+}
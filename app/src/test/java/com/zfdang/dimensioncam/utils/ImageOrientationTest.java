@@ -0,0 +1,86 @@
+package com.zfdang.dimensioncam.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import org.junit.Test;
+
+public class ImageOrientationTest {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    private static float[] map(int orientation, float x, float y) {
+        float[] v = ImageOrientation.uprightValues(orientation, WIDTH, HEIGHT);
+        return new float[] { v[0] * x + v[1] * y + v[2], v[3] * x + v[4] * y + v[5] };
+    }
+
+    // Where the stored top-left and top-right corners end up on the upright image
+    private static void assertCorners(int orientation, float[] topLeft, float[] topRight) {
+        assertArrayEquals("top-left, orientation " + orientation, topLeft, map(orientation, 0, 0), 0f);
+        assertArrayEquals("top-right, orientation " + orientation, topRight, map(orientation, WIDTH, 0), 0f);
+    }
+
+    @Test
+    public void cornersFollowTheExifDefinition() {
+        assertCorners(ExifInterface.ORIENTATION_NORMAL, new float[] { 0, 0 }, new float[] { WIDTH, 0 });
+        assertCorners(ExifInterface.ORIENTATION_FLIP_HORIZONTAL, new float[] { WIDTH, 0 }, new float[] { 0, 0 });
+        assertCorners(ExifInterface.ORIENTATION_ROTATE_180, new float[] { WIDTH, HEIGHT }, new float[] { 0, HEIGHT });
+        assertCorners(ExifInterface.ORIENTATION_FLIP_VERTICAL, new float[] { 0, HEIGHT }, new float[] { WIDTH, HEIGHT });
+        // Upright images of these four are HEIGHT wide and WIDTH tall
+        assertCorners(ExifInterface.ORIENTATION_TRANSPOSE, new float[] { 0, 0 }, new float[] { 0, WIDTH });
+        assertCorners(ExifInterface.ORIENTATION_ROTATE_90, new float[] { HEIGHT, 0 }, new float[] { HEIGHT, WIDTH });
+        assertCorners(ExifInterface.ORIENTATION_TRANSVERSE, new float[] { HEIGHT, WIDTH }, new float[] { HEIGHT, 0 });
+        assertCorners(ExifInterface.ORIENTATION_ROTATE_270, new float[] { 0, WIDTH }, new float[] { 0, 0 });
+    }
+
+    @Test
+    public void storedImageCoversTheUprightBoundsExactly() {
+        for (int orientation = ExifInterface.ORIENTATION_NORMAL;
+                orientation <= ExifInterface.ORIENTATION_ROTATE_270; orientation++) {
+            boolean swaps = ImageOrientation.swapsDimensions(orientation);
+            float uprightWidth = swaps ? HEIGHT : WIDTH;
+            float uprightHeight = swaps ? WIDTH : HEIGHT;
+            float minX = Float.MAX_VALUE;
+            float minY = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE;
+            float maxY = -Float.MAX_VALUE;
+            for (float[] corner : new float[][] { { 0, 0 }, { WIDTH, 0 }, { 0, HEIGHT }, { WIDTH, HEIGHT } }) {
+                float[] p = map(orientation, corner[0], corner[1]);
+                minX = Math.min(minX, p[0]);
+                minY = Math.min(minY, p[1]);
+                maxX = Math.max(maxX, p[0]);
+                maxY = Math.max(maxY, p[1]);
+            }
+            assertEquals("orientation " + orientation, 0f, minX, 0f);
+            assertEquals("orientation " + orientation, 0f, minY, 0f);
+            assertEquals("orientation " + orientation, uprightWidth, maxX, 0f);
+            assertEquals("orientation " + orientation, uprightHeight, maxY, 0f);
+        }
+    }
+
+    @Test
+    public void unknownOrientationIsIdentity() {
+        float[] identity = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+        assertArrayEquals(identity, ImageOrientation.uprightValues(ExifInterface.ORIENTATION_UNDEFINED, WIDTH, HEIGHT), 0f);
+        assertArrayEquals(identity, ImageOrientation.uprightValues(42, WIDTH, HEIGHT), 0f);
+        assertFalse(ImageOrientation.isTransformed(ExifInterface.ORIENTATION_UNDEFINED));
+        assertFalse(ImageOrientation.isTransformed(ExifInterface.ORIENTATION_NORMAL));
+        assertTrue(ImageOrientation.isTransformed(ExifInterface.ORIENTATION_ROTATE_90));
+    }
+
+    @Test
+    public void onlyQuarterTurnsSwapDimensions() {
+        assertFalse(ImageOrientation.swapsDimensions(ExifInterface.ORIENTATION_NORMAL));
+        assertFalse(ImageOrientation.swapsDimensions(ExifInterface.ORIENTATION_FLIP_HORIZONTAL));
+        assertFalse(ImageOrientation.swapsDimensions(ExifInterface.ORIENTATION_ROTATE_180));
+        assertFalse(ImageOrientation.swapsDimensions(ExifInterface.ORIENTATION_FLIP_VERTICAL));
+        assertTrue(ImageOrientation.swapsDimensions(ExifInterface.ORIENTATION_TRANSPOSE));
+        assertTrue(ImageOrientation.swapsDimensions(ExifInterface.ORIENTATION_ROTATE_90));
+        assertTrue(ImageOrientation.swapsDimensions(ExifInterface.ORIENTATION_TRANSVERSE));
+        assertTrue(ImageOrientation.swapsDimensions(ExifInterface.ORIENTATION_ROTATE_270));
+    }
+}